@@ -0,0 +1,115 @@
+package cpen502.benchmark;
+
+import cpen502.robots.QLearningRobot;
+import cpen502.robots.QLearningRobot.Action;
+import cpen502.robots.QLearningRobot.StateCategory;
+
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic, seeded data sets for the benchmarks. Every benchmark walks its data set in a
+ * loop, so the size controls how much of it stays in cache.
+ */
+final class Datasets {
+    static final long SEED = 502;
+    static final double BATTLE_FIELD_WIDTH = 800;
+    static final double BATTLE_FIELD_HEIGHT = 600;
+
+    static {
+        // RoboCodeLUT sizes its tables from QLearningRobot.stateDim, while QLearningRobot creates
+        // a RoboCodeLUT when it is initialized. The robot class has to be initialized first.
+        QLearningRobot.stateDim.size();
+    }
+
+    private Datasets() {}
+
+    /**
+     * Raw observations of onScannedRobot, with the reward collected since the last one.
+     */
+    static final class Observations {
+        final double[] x;
+        final double[] y;
+        final double[] energy;
+        final double[] distance;
+        final double[] gunHeat;
+        final double[] reward;
+
+        Observations(int size) {
+            SplittableRandom random = new SplittableRandom(SEED);
+            x = new double[size];
+            y = new double[size];
+            energy = new double[size];
+            distance = new double[size];
+            gunHeat = new double[size];
+            reward = new double[size];
+            for (int i = 0; i < size; i ++) {
+                x[i] = random.nextDouble(18, BATTLE_FIELD_WIDTH - 18);
+                y[i] = random.nextDouble(18, BATTLE_FIELD_HEIGHT - 18);
+                energy[i] = random.nextDouble(0, 100);
+                distance[i] = random.nextDouble(36, 1000);
+                gunHeat[i] = random.nextInt(3) == 0 ? 0 : random.nextDouble(0, 1.6);
+                reward[i] = random.nextInt(4) == 0 ? random.nextDouble(-10, 5) : 0;
+            }
+        }
+
+        int size() {
+            return x.length;
+        }
+
+        int[] evaluateState(int i) {
+            return QLearningRobot.evaluateState(x[i], y[i], BATTLE_FIELD_WIDTH, BATTLE_FIELD_HEIGHT,
+                    energy[i], distance[i], gunHeat[i]);
+        }
+
+        int evaluateStateCode(int i) {
+            return QLearningRobot.evaluateStateCode(x[i], y[i], BATTLE_FIELD_WIDTH, BATTLE_FIELD_HEIGHT,
+                    energy[i], distance[i], gunHeat[i]);
+        }
+    }
+
+    /**
+     * Uniform random discretized states.
+     */
+    static int[][] states(int size) {
+        SplittableRandom random = new SplittableRandom(SEED);
+        StateCategory[] categories = StateCategory.values();
+        int[][] states = new int[size][QLearningRobot.stateNum];
+        for (int i = 0; i < size; i ++) {
+            for (StateCategory category : categories) {
+                states[i][category.getValue()] = random.nextInt(QLearningRobot.stateDim.get(category));
+            }
+        }
+        return states;
+    }
+
+    static Action[] actions(int size) {
+        SplittableRandom random = new SplittableRandom(SEED + 1);
+        Action[] values = Action.values();
+        Action[] actions = new Action[size];
+        for (int i = 0; i < size; i ++) {
+            actions[i] = values[random.nextInt(values.length)];
+        }
+        return actions;
+    }
+
+    /**
+     * Q values to fit, in [-1, 1] like the normalized LUT.
+     */
+    static double[][] targets(int size) {
+        SplittableRandom random = new SplittableRandom(SEED + 1);
+        double[][] targets = new double[size][1];
+        for (int i = 0; i < size; i ++) {
+            targets[i][0] = random.nextDouble(-1, 1);
+        }
+        return targets;
+    }
+
+    static int[] topology(String topology) {
+        String[] sizes = topology.split("-");
+        int[] neuronNums = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i ++) {
+            neuronNums[i] = Integer.parseInt(sizes[i]);
+        }
+        return neuronNums;
+    }
+}
@@ -0,0 +1,70 @@
+package cpen502.benchmark;
+
+import cpen502.LUT.RoboCodeLUT;
+import cpen502.robots.QLearningRobot.Action;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The work of one QLearningRobot.onScannedRobot without the game: discretize the observation,
+ * update the previous state-action pair and pick the next action, with the table or with the
+ * network and its replay of the last N transitions. decide takes the robot's path on state
+ * codes, decideArrayState the former one on int[] states.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class DecisionStepBenchmark {
+
+    @Param({"false", "true"})
+    public boolean useNN;
+
+    @Param({"4"})
+    public int lastNSize;
+
+    @Param({"65536"})
+    public int datasetSize;
+
+    Datasets.Observations observations;
+    RoboCodeLUT lut;
+    int prevState = RoboCodeLUT.NO_STATE;
+    int[] prevArrayState;
+    Action prevAction;
+    int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        observations = new Datasets.Observations(datasetSize);
+        lut = new RoboCodeLUT(0.001, 0.8, 0.1, true, useNN, lastNSize);
+    }
+
+    @Benchmark
+    public Action decide() {
+        int i = cursor;
+        cursor = i + 1 == datasetSize ? 0 : i + 1;
+
+        int state = observations.evaluateStateCode(i);
+        Action action = useNN ? lut.updateValueNN(state, prevState, prevAction, observations.reward[i]) :
+                lut.updateValue(state, prevState, prevAction, observations.reward[i]);
+        prevState = state;
+        prevAction = action;
+        return action;
+    }
+
+    @Benchmark
+    public Action decideArrayState() {
+        int i = cursor;
+        cursor = i + 1 == datasetSize ? 0 : i + 1;
+
+        int[] state = observations.evaluateState(i);
+        Action action = useNN ? lut.updateValueNN(state, prevArrayState, prevAction, observations.reward[i]) :
+                lut.updateValue(state, prevArrayState, prevAction, observations.reward[i]);
+        prevArrayState = state;
+        prevAction = action;
+        return action;
+    }
+}
@@ -0,0 +1,55 @@
+package cpen502.benchmark;
+
+import cpen502.LUT.RoboCodeLUT;
+import cpen502.models.RobocodeNN;
+import cpen502.robots.QLearningRobot.Action;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding of a state-action pair into the network input: the dense bipolar one hot vector
+ * of RobocodeNN.SAToOneHot and the active indices of RoboCodeLUT.SAToActive.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark {
+
+    @Param({"1024"})
+    public int datasetSize;
+
+    int[][] states;
+    Action[] actions;
+    int[] active;
+    int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        states = Datasets.states(datasetSize);
+        actions = Datasets.actions(datasetSize);
+        active = new int[RoboCodeLUT.encodedDim];
+    }
+
+    int next() {
+        int i = cursor;
+        cursor = i + 1 == datasetSize ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public double[] oneHot() {
+        int i = next();
+        int[] state = states[i];
+        return RobocodeNN.SAToOneHot(state[0], state[1], state[2], state[3], state[4], actions[i].getValue());
+    }
+
+    @Benchmark
+    public int[] active() {
+        int i = next();
+        return RoboCodeLUT.SAToActive(states[i], actions[i], active);
+    }
+}
@@ -0,0 +1,61 @@
+package cpen502.benchmark;
+
+import cpen502.LUT.RoboCodeLUT;
+import cpen502.robots.QLearningRobot.Action;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Q-learning update and greedy action selection of the table, over random transitions.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LUTBenchmark {
+
+    @Param({"1024", "65536"})
+    public int datasetSize;
+
+    @Param({"0.1"})
+    public double explorationRate;
+
+    RoboCodeLUT lut;
+    int[][] states;
+    Action[] actions;
+    double[] rewards;
+    int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        states = Datasets.states(datasetSize);
+        actions = Datasets.actions(datasetSize);
+        rewards = new double[datasetSize];
+        double[][] targets = Datasets.targets(datasetSize);
+        for (int i = 0; i < datasetSize; i ++) {
+            rewards[i] = targets[i][0] * 10;
+        }
+        lut = new RoboCodeLUT(0.1, 0.8, explorationRate, true, false, 0);
+    }
+
+    int next() {
+        int i = cursor;
+        cursor = i + 1 == datasetSize ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public Action update() {
+        int i = next();
+        int prev = i == 0 ? datasetSize - 1 : i - 1;
+        return lut.updateValue(states[i], states[prev], actions[prev], rewards[i]);
+    }
+
+    @Benchmark
+    public Action argmax() {
+        return lut.getOptimalAction(states[next()]);
+    }
+}
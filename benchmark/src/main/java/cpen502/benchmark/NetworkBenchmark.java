@@ -0,0 +1,107 @@
+package cpen502.benchmark;
+
+import cpen502.LUT.RoboCodeLUT;
+import cpen502.models.RobocodeNN;
+import cpen502.nerualnetwork.Activation;
+import cpen502.nerualnetwork.NeuralNet;
+import cpen502.nerualnetwork.Precision;
+import cpen502.robots.QLearningRobot.Action;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Forward and training passes of the network, one sample per operation, at the topologies
+ * of the robot, a deeper one and a wide one whose weights outgrow the L1 and L2 caches.
+ * Inputs are the one hot encodings of random state-action pairs.
+ *
+ * kernels picks the MatrixKernels backend of the forked JVM, e.g. -p kernels=scalar,vector
+ * to compare them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class NetworkBenchmark {
+
+    @Param({"20-20-1", "20-40-1", "20-80-1", "20-80-80-1", "20-256-256-1"})
+    public String topology;
+
+    @Param({"DOUBLE", "FLOAT"})
+    public Precision precision;
+
+    @Param({"scalar"})
+    public String kernels;
+
+    @Param({"1024"})
+    public int datasetSize;
+
+    @Param({"32"})
+    public int batchSize;
+
+    NeuralNet neuralnet;
+    double[][] inputs;
+    int[][] actives;
+    double[][] targets;
+    double[] output;
+    int cursor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // read once when the first network is created, every trial runs in a fresh fork
+        System.setProperty("cpen502.kernels", kernels);
+        neuralnet = NeuralNet.create(Datasets.topology(topology), Activation.SIGMOID_BIPOLAR, 0.6, 0.01, precision);
+        neuralnet.initializeWeights();
+        neuralnet.setBatchSize(batchSize);
+
+        int[][] states = Datasets.states(datasetSize);
+        Action[] actions = Datasets.actions(datasetSize);
+        inputs = new double[datasetSize][];
+        actives = new int[datasetSize][];
+        for (int i = 0; i < datasetSize; i ++) {
+            int[] state = states[i];
+            inputs[i] = RobocodeNN.SAToOneHot(state[0], state[1], state[2], state[3], state[4], actions[i].getValue());
+            actives[i] = RoboCodeLUT.SAToActive(state, actions[i], new int[RoboCodeLUT.encodedDim]);
+        }
+        targets = Datasets.targets(datasetSize);
+        output = new double[1];
+    }
+
+    int next() {
+        int i = cursor;
+        cursor = i + 1 == datasetSize ? 0 : i + 1;
+        return i;
+    }
+
+    @Benchmark
+    public double forward() {
+        return neuralnet.outputInto(inputs[next()], output)[0];
+    }
+
+    @Benchmark
+    public double forwardEncoded() {
+        return neuralnet.outputIntoEncoded(actives[next()], output)[0];
+    }
+
+    @Benchmark
+    public double train() {
+        int i = next();
+        return neuralnet.train(inputs[i], targets[i][0]);
+    }
+
+    @Benchmark
+    public double trainEncoded() {
+        int i = next();
+        return neuralnet.trainEncoded(actives[i], targets[i][0]);
+    }
+
+    /**
+     * One epoch of mini-batch training over the whole data set.
+     */
+    @Benchmark
+    public double trainBatchEpoch() {
+        return neuralnet.trainBatch(inputs, targets);
+    }
+}
@@ -0,0 +1,157 @@
+package cpen502.nerualnetwork;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of the matrix kernels on the jdk.incubator.vector module.
+ * It lives in its own source root, src-vector, so the robot in src compiles without the
+ * module. Compiling and running it needs --add-modules jdk.incubator.vector; MatrixKernels
+ * falls back to ScalarKernels when the class or the module is missing.
+ * Loops run on the widest vector shape of the machine, twice as many lanes in float as in
+ * double, and finish the tail with scalars.
+ */
+public class VectorKernels implements MatrixKernels {
+    static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOffset + i);
+            DoubleVector vb = DoubleVector.fromArray(SPECIES, b, bOffset + i);
+            sum = va.fma(vb, sum);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i ++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        DoubleVector va = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOffset + i);
+            DoubleVector vy = DoubleVector.fromArray(SPECIES, y, yOffset + i);
+            vx.fma(va, vy).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i ++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    public void scale(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        int i = 0;
+        int bound = SPECIES.loopBound(length);
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, x, xOffset + i).mul(alpha).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i ++) {
+            y[yOffset + i] = alpha * x[xOffset + i];
+        }
+    }
+
+    public double momentumUpdate(double[] weight, double[] weightDelta, double[] weightCorrection,
+                                 double momentum, int from, int to) {
+        DoubleVector zero = DoubleVector.zero(SPECIES);
+        DoubleVector vm = DoubleVector.broadcast(SPECIES, momentum);
+        DoubleVector sum = zero;
+        int index = from;
+        int bound = from + SPECIES.loopBound(to - from);
+        for (; index < bound; index += SPECIES.length()) {
+            DoubleVector correction = DoubleVector.fromArray(SPECIES, weightCorrection, index);
+            DoubleVector delta = DoubleVector.fromArray(SPECIES, weightDelta, index).fma(vm, correction);
+            DoubleVector.fromArray(SPECIES, weight, index).add(delta).intoArray(weight, index);
+            delta.intoArray(weightDelta, index);
+            zero.intoArray(weightCorrection, index);
+            sum = sum.add(delta);
+        }
+        double result = sum.reduceLanes(VectorOperators.ADD);
+        for (; index < to; index ++) {
+            double delta = weightCorrection[index] + momentum * weightDelta[index];
+            weight[index] += delta;
+            weightDelta[index] = delta;
+            weightCorrection[index] = 0;
+            result += delta;
+        }
+        return result;
+    }
+
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        FloatVector sum = FloatVector.zero(FLOAT_SPECIES);
+        int i = 0;
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, aOffset + i);
+            FloatVector vb = FloatVector.fromArray(FLOAT_SPECIES, b, bOffset + i);
+            sum = va.fma(vb, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i ++) {
+            result += a[aOffset + i] * b[bOffset + i];
+        }
+        return result;
+    }
+
+    public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        FloatVector va = FloatVector.broadcast(FLOAT_SPECIES, alpha);
+        int i = 0;
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i);
+            FloatVector vy = FloatVector.fromArray(FLOAT_SPECIES, y, yOffset + i);
+            vx.fma(va, vy).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i ++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    public void scale(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        int i = 0;
+        int bound = FLOAT_SPECIES.loopBound(length);
+        for (; i < bound; i += FLOAT_SPECIES.length()) {
+            FloatVector.fromArray(FLOAT_SPECIES, x, xOffset + i).mul(alpha).intoArray(y, yOffset + i);
+        }
+        for (; i < length; i ++) {
+            y[yOffset + i] = alpha * x[xOffset + i];
+        }
+    }
+
+    public float momentumUpdate(float[] weight, float[] weightDelta, float[] weightCorrection,
+                                float momentum, int from, int to) {
+        FloatVector zero = FloatVector.zero(FLOAT_SPECIES);
+        FloatVector vm = FloatVector.broadcast(FLOAT_SPECIES, momentum);
+        FloatVector sum = zero;
+        int index = from;
+        int bound = from + FLOAT_SPECIES.loopBound(to - from);
+        for (; index < bound; index += FLOAT_SPECIES.length()) {
+            FloatVector correction = FloatVector.fromArray(FLOAT_SPECIES, weightCorrection, index);
+            FloatVector delta = FloatVector.fromArray(FLOAT_SPECIES, weightDelta, index).fma(vm, correction);
+            FloatVector.fromArray(FLOAT_SPECIES, weight, index).add(delta).intoArray(weight, index);
+            delta.intoArray(weightDelta, index);
+            zero.intoArray(weightCorrection, index);
+            sum = sum.add(delta);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for (; index < to; index ++) {
+            float delta = weightCorrection[index] + momentum * weightDelta[index];
+            weight[index] += delta;
+            weightDelta[index] = delta;
+            weightCorrection[index] = 0;
+            result += delta;
+        }
+        return result;
+    }
+
+    public String name() {
+        return "vector(" + SPECIES.length() + " x double, " + FLOAT_SPECIES.length() + " x float)";
+    }
+}
@@ -0,0 +1,258 @@
+package cpen502.LUT;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Look up table that many threads may update at once, in the order of FlatLUT.
+ *
+ * update and set swap a value with a compare-and-set on its bits, retried when another thread
+ * changed the value meanwhile, so no update is lost and no thread ever waits for a lock.
+ * Every state has a stamp holding the number of writes in flight on its row and a version
+ * bumped by every finished write. argmax and max read a row optimistically and read it again
+ * when a write was in flight or finished meanwhile, so they always see a row as it was at
+ * one moment, never half of an update of it.
+ *
+ * Visit counts are split in stripes, a thread counting in the stripe of its id, so threads
+ * visiting the same pair mostly increment different counters; getAccess adds the stripes up.
+ *
+ * initialize, read and the bulk reads are meant for when no other thread updates the table.
+ */
+public class ConcurrentLUT implements QTable {
+    private final static VarHandle VALUES = MethodHandles.arrayElementVarHandle(double[].class);
+    private final static VarHandle STAMPS = MethodHandles.arrayElementVarHandle(long[].class);
+    private final static VarHandle COUNTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    // added to a stamp when a write finishes: one more version, one write less in flight
+    private final static long WRITE_DONE = (1L << 32) - 1;
+    private final static int MAX_STRIPES = 16;
+    private final static int SPINS_BEFORE_YIELD = 64;
+
+    final int[] radices;
+    final int stateNum;
+    final int actionNum;
+    final double[] values;
+    // per state, the version in the high half and the writes in flight in the low half
+    final long[] stamps;
+    final int[][] access;
+    final int stripeMask;
+
+    public ConcurrentLUT(int[] radices, int actionNum) {
+        this(radices, actionNum, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param stripeNum Number of visit counters per pair, rounded up to a power of two
+     */
+    public ConcurrentLUT(int[] radices, int actionNum, int stripeNum) {
+        int stateNum = 1;
+        for (int radix : radices) {
+            if (radix < 1) {
+                throw new IllegalArgumentException("Invalid radix " + radix);
+            }
+            stateNum *= radix;
+        }
+        this.radices = radices.clone();
+        this.stateNum = stateNum;
+        this.actionNum = actionNum;
+        this.values = new double[stateNum * actionNum];
+        this.stamps = new long[stateNum];
+
+        int stripes = 1;
+        while (stripes < Math.min(stripeNum, MAX_STRIPES)) {
+            stripes *= 2;
+        }
+        this.access = new int[stripes][stateNum * actionNum];
+        this.stripeMask = stripes - 1;
+    }
+
+    private void beginWrite(int stateCode) {
+        STAMPS.getAndAdd(stamps, stateCode, 1L);
+    }
+
+    private void endWrite(int stateCode) {
+        STAMPS.getAndAdd(stamps, stateCode, WRITE_DONE);
+    }
+
+    @Override
+    public double get(int stateCode, int action) {
+        return (double) VALUES.getAcquire(values, stateCode * actionNum + action);
+    }
+
+    @Override
+    public void set(int stateCode, int action, double value) {
+        beginWrite(stateCode);
+        VALUES.setVolatile(values, stateCode * actionNum + action, value);
+        endWrite(stateCode);
+    }
+
+    @Override
+    public double update(int stateCode, int action, double alpha, double target) {
+        int index = stateCode * actionNum + action;
+        double value;
+        double updated;
+        beginWrite(stateCode);
+        do {
+            value = (double) VALUES.getVolatile(values, index);
+            updated = value + alpha * (target - value);
+        } while (!VALUES.weakCompareAndSet(values, index, value, updated));
+        endWrite(stateCode);
+        return updated;
+    }
+
+    @Override
+    public void visit(int stateCode, int action) {
+        int[] stripe = access[(int) Thread.currentThread().getId() & stripeMask];
+        COUNTS.getAndAdd(stripe, stateCode * actionNum + action, 1);
+    }
+
+    public int getAccess(int stateCode, int action) {
+        int count = 0;
+        for (int[] stripe : access) {
+            count += (int) COUNTS.getVolatile(stripe, stateCode * actionNum + action);
+        }
+        return count;
+    }
+
+    /**
+     * Wait for the writers of a row, spinning a little and then giving the processor away,
+     * since a writer preempted in the middle of a write keeps its row busy until it runs again.
+     * @return retries + 1
+     */
+    private static int backOff(int retries) {
+        if (retries < SPINS_BEFORE_YIELD) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+        return retries + 1;
+    }
+
+    @Override
+    public int argmax(int stateCode) {
+        int from = stateCode * actionNum;
+        int retries = 0;
+        while (true) {
+            long stamp = (long) STAMPS.getVolatile(stamps, stateCode);
+            if ((int) stamp == 0) {
+                int optimal = 0;
+                double optimalValue = (double) VALUES.getAcquire(values, from);
+                for (int i = 1; i < actionNum; i ++) {
+                    double value = (double) VALUES.getAcquire(values, from + i);
+                    if (value > optimalValue) {
+                        optimalValue = value;
+                        optimal = i;
+                    }
+                }
+                VarHandle.loadLoadFence();
+                if ((long) STAMPS.getVolatile(stamps, stateCode) == stamp) {
+                    return optimal;
+                }
+            }
+            retries = backOff(retries);
+        }
+    }
+
+    @Override
+    public double max(int stateCode) {
+        int from = stateCode * actionNum;
+        int retries = 0;
+        while (true) {
+            long stamp = (long) STAMPS.getVolatile(stamps, stateCode);
+            if ((int) stamp == 0) {
+                double max = (double) VALUES.getAcquire(values, from);
+                for (int i = 1; i < actionNum; i ++) {
+                    max = Math.max(max, (double) VALUES.getAcquire(values, from + i));
+                }
+                VarHandle.loadLoadFence();
+                if ((long) STAMPS.getVolatile(stamps, stateCode) == stamp) {
+                    return max;
+                }
+            }
+            retries = backOff(retries);
+        }
+    }
+
+    /**
+     * Draw every value uniformly from [0, scale) in table order, the same values as FlatLUT
+     * draws from the same random, and clear the visit counts.
+     */
+    @Override
+    public void initialize(Random random, double scale) {
+        for (int i = 0; i < values.length; i ++) {
+            values[i] = random.nextDouble() * scale;
+        }
+        for (int[] stripe : access) {
+            Arrays.fill(stripe, 0);
+        }
+        VarHandle.fullFence();
+    }
+
+    @Override
+    public double minValue() {
+        double min = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < values.length; i ++) {
+            min = Math.min(min, (double) VALUES.getAcquire(values, i));
+        }
+        return min;
+    }
+
+    @Override
+    public double maxValue() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < values.length; i ++) {
+            max = Math.max(max, (double) VALUES.getAcquire(values, i));
+        }
+        return max;
+    }
+
+    @Override
+    public double[] copyValues(double[] values) {
+        for (int i = 0; i < this.values.length; i ++) {
+            values[i] = (double) VALUES.getAcquire(this.values, i);
+        }
+        return values;
+    }
+
+    @Override
+    public void write(PrintStream ps) {
+        for (int i = 0; i < values.length; i ++) {
+            ps.println((double) VALUES.getAcquire(values, i));
+        }
+    }
+
+    @Override
+    public void read(BufferedReader reader) throws IOException {
+        for (int i = 0; i < values.length; i ++) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new EOFException("The LUT file ends after " + i + " of " + values.length + " values");
+            }
+            values[i] = Double.parseDouble(line);
+        }
+        VarHandle.fullFence();
+    }
+
+    @Override
+    public int getStateNum() {
+        return stateNum;
+    }
+
+    @Override
+    public int getActionNum() {
+        return actionNum;
+    }
+
+    public int getStripeNum() {
+        return access.length;
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return (long) values.length * (Double.BYTES + access.length * Integer.BYTES)
+                + (long) stamps.length * Long.BYTES;
+    }
+}
@@ -0,0 +1,82 @@
+package cpen502.LUT;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * Hammers a few pairs of a ConcurrentLUT from many threads and checks that no update and no
+ * visit was lost.
+ *
+ * Every update of a pair moves it by the same step towards the same target, so the updates
+ * commute and the value after n of them, in any order, is the value of n updates in a row on
+ * one thread, to the last bit. One update lost or applied twice changes it.
+ */
+public class ConcurrentLUTTest {
+    static final int THREAD_NUM = 16;
+    static final int THREAD_STEPS = 200000;
+    static final int HOT_STATES = 3;
+    static final double ALPHA = 1e-4;
+    static final double TARGET = 1000;
+
+    public static void main(String[] args) throws Exception {
+        int[] radices = new int[]{4, 4, 2};
+        int actionNum = 5;
+        ConcurrentLUT lut = new ConcurrentLUT(radices, actionNum, 4);
+        lut.initialize(new Random(0), 100);
+        double[] initial = lut.copyValues(new double[lut.getStateNum() * actionNum]);
+
+        int[][] counts = new int[THREAD_NUM][HOT_STATES * actionNum];
+        Thread[] threads = new Thread[THREAD_NUM];
+        for (int t = 0; t < THREAD_NUM; t ++) {
+            int[] threadCounts = counts[t];
+            SplittableRandom random = new SplittableRandom(t);
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < THREAD_STEPS; i ++) {
+                    int state = random.nextInt(HOT_STATES);
+                    int action = random.nextInt(actionNum);
+                    lut.update(state, action, ALPHA, TARGET);
+                    lut.visit(state, action);
+                    lut.argmax(random.nextInt(HOT_STATES));
+                    threadCounts[state * actionNum + action] ++;
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        for (int state = 0; state < HOT_STATES; state ++) {
+            for (int action = 0; action < actionNum; action ++) {
+                int index = state * actionNum + action;
+                int n = 0;
+                for (int[] threadCounts : counts) {
+                    n += threadCounts[index];
+                }
+                double expected = initial[index];
+                for (int i = 0; i < n; i ++) {
+                    expected = expected + ALPHA * (TARGET - expected);
+                }
+                if (lut.get(state, action) != expected) {
+                    throw new AssertionError("Pair (" + state + ", " + action + ") is " + lut.get(state, action)
+                            + " after " + n + " updates, " + expected + " expected");
+                }
+                if (lut.getAccess(state, action) != n) {
+                    throw new AssertionError("Pair (" + state + ", " + action + ") has " + lut.getAccess(state, action)
+                            + " visits, " + n + " expected");
+                }
+            }
+        }
+        for (int i = HOT_STATES * actionNum; i < initial.length; i ++) {
+            if (lut.get(i / actionNum, i % actionNum) != initial[i]) {
+                throw new AssertionError("Untouched pair " + i + " changed");
+            }
+        }
+        System.out.printf("%d threads, %d updates in %.2f s%n", THREAD_NUM, THREAD_NUM * THREAD_STEPS, seconds);
+        System.out.println("ConcurrentLUTTest passed");
+    }
+}
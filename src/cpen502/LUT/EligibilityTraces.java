@@ -0,0 +1,102 @@
+package cpen502.LUT;
+
+/**
+ * Eligibility traces of the state-action pairs of a table, kept sparse: the traces are in a
+ * value array indexed by pair, and the pairs with a trace are listed in an active array, so
+ * going through the traces costs the number of active ones rather than the table size.
+ *
+ * A pair leaves the list when its trace decays below the cutoff, which bounds the list to
+ * about log(cutoff) / log(decay) pairs when every step marks one.
+ */
+public class EligibilityTraces {
+    final double cutoff;
+    final double[] traces;
+    // slot of every pair in active, -1 when it has no trace
+    final int[] positions;
+    final int[] active;
+    int activeNum;
+
+    /**
+     * @param size Number of pairs of the table
+     * @param cutoff Traces below it are dropped
+     */
+    public EligibilityTraces(int size, double cutoff) {
+        this.cutoff = cutoff;
+        this.traces = new double[size];
+        this.positions = new int[size];
+        this.active = new int[size];
+        for (int i = 0; i < size; i ++) {
+            positions[i] = -1;
+        }
+    }
+
+    /**
+     * Set the trace of a pair to 1, a replacing trace.
+     */
+    public void mark(int index) {
+        if (positions[index] < 0) {
+            positions[index] = activeNum;
+            active[activeNum ++] = index;
+        }
+        traces[index] = 1;
+    }
+
+    /**
+     * Multiply every trace by factor and drop the ones that fall below the cutoff.
+     */
+    public void decay(double factor) {
+        for (int i = 0; i < activeNum; ) {
+            int index = active[i];
+            traces[index] *= factor;
+            if (traces[index] < cutoff) {
+                remove(i);
+            } else {
+                i ++;
+            }
+        }
+    }
+
+    private void remove(int slot) {
+        int index = active[slot];
+        traces[index] = 0;
+        positions[index] = -1;
+        activeNum --;
+        if (slot != activeNum) {
+            active[slot] = active[activeNum];
+            positions[active[slot]] = slot;
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < activeNum; i ++) {
+            traces[active[i]] = 0;
+            positions[active[i]] = -1;
+        }
+        activeNum = 0;
+    }
+
+    /**
+     * @return The number of pairs with a trace
+     */
+    public int getActiveNum() {
+        return activeNum;
+    }
+
+    /**
+     * @return The pair of the i-th trace, i in [0, getActiveNum())
+     */
+    public int getIndex(int i) {
+        return active[i];
+    }
+
+    /**
+     * @return The trace of the i-th pair with a trace
+     */
+    public double getTrace(int i) {
+        return traces[active[i]];
+    }
+
+    public double getCutoff() {
+        return cutoff;
+    }
+}
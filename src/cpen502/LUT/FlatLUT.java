@@ -0,0 +1,211 @@
+package cpen502.LUT;
+
+import cpen502.robots.QLearningRobot.StateCategory;
+
+import java.io.*;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Look up table of a value and a visit count per state-action pair, each in one flat array.
+ *
+ * A state of one value per category is numbered by a mixed radix code: the categories are
+ * digits in the order of StateCategory, the first one most significant, and digit i counts
+ * up to radices[i]. The entry of a state-action pair is at stateCode * actionNum + action,
+ * which is the order of the saved files and of the former nested arrays
+ * lut[posX][posY][energy][enemyDistance][gunHeat][action]. Changing a dimension only
+ * changes the radices.
+ *
+ * Every pair is allocated up front, 12 bytes each, so the table suits discretizations whose
+ * states are mostly visited; SparseLUT suits the others.
+ */
+public class FlatLUT implements QTable {
+    final int[] radices;
+    final int stateNum;
+    final int actionNum;
+    final double[] values;
+    final int[] access;
+
+    public FlatLUT(int[] radices, int actionNum) {
+        int stateNum = 1;
+        for (int radix : radices) {
+            if (radix < 1) {
+                throw new IllegalArgumentException("Invalid radix " + radix);
+            }
+            stateNum *= radix;
+        }
+        this.radices = radices.clone();
+        this.stateNum = stateNum;
+        this.actionNum = actionNum;
+        this.values = new double[stateNum * actionNum];
+        this.access = new int[stateNum * actionNum];
+    }
+
+    /**
+     * @return The number of values of every category, in the order of StateCategory
+     */
+    public static int[] radicesOf(Map<StateCategory, Integer> stateDim) {
+        int[] radices = new int[StateCategory.values().length];
+        for (StateCategory category : StateCategory.values()) {
+            radices[category.getValue()] = stateDim.get(category);
+        }
+        return radices;
+    }
+
+    /**
+     * @return The mixed radix code of a state, in [0, product of the radices)
+     */
+    public static int encode(int[] radices, int[] state) {
+        int code = 0;
+        for (int i = 0; i < radices.length; i ++) {
+            code = code * radices[i] + state[i];
+        }
+        return code;
+    }
+
+    /**
+     * Inverse of encode.
+     * @param state Receives the state, of size radices.length
+     * @return state
+     */
+    public static int[] decode(int[] radices, int code, int[] state) {
+        for (int i = radices.length - 1; i >= 0; i --) {
+            state[i] = code % radices[i];
+            code /= radices[i];
+        }
+        return state;
+    }
+
+    public int stateCode(int[] state) {
+        return encode(radices, state);
+    }
+
+    public int[] decodeState(int code, int[] state) {
+        return decode(radices, code, state);
+    }
+
+    /**
+     * @return The position of a state-action pair in getValues and getAccess
+     */
+    public int index(int stateCode, int action) {
+        return stateCode * actionNum + action;
+    }
+
+    @Override
+    public double get(int stateCode, int action) {
+        return values[stateCode * actionNum + action];
+    }
+
+    @Override
+    public void set(int stateCode, int action, double value) {
+        values[stateCode * actionNum + action] = value;
+    }
+
+    @Override
+    public void visit(int stateCode, int action) {
+        access[stateCode * actionNum + action] ++;
+    }
+
+    @Override
+    public int argmax(int stateCode) {
+        int from = stateCode * actionNum;
+        int optimal = 0;
+        for (int i = 1; i < actionNum; i ++) {
+            if (values[from + i] > values[from + optimal]) {
+                optimal = i;
+            }
+        }
+        return optimal;
+    }
+
+    @Override
+    public double max(int stateCode) {
+        return values[stateCode * actionNum + argmax(stateCode)];
+    }
+
+    /**
+     * Draw every value uniformly from [0, scale) in table order and clear the visit counts.
+     */
+    @Override
+    public void initialize(Random random, double scale) {
+        for (int i = 0; i < values.length; i ++) {
+            values[i] = random.nextDouble() * scale;
+            access[i] = 0;
+        }
+    }
+
+    @Override
+    public double minValue() {
+        double min = Double.POSITIVE_INFINITY;
+        for (double value : values) {
+            min = Math.min(min, value);
+        }
+        return min;
+    }
+
+    @Override
+    public double maxValue() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    @Override
+    public double[] copyValues(double[] values) {
+        System.arraycopy(this.values, 0, values, 0, this.values.length);
+        return values;
+    }
+
+    @Override
+    public void write(PrintStream ps) {
+        for (double value : values) {
+            ps.println(value);
+        }
+    }
+
+    @Override
+    public void read(BufferedReader reader) throws IOException {
+        for (int i = 0; i < values.length; i ++) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new EOFException("The LUT file ends after " + i + " of " + values.length + " values");
+            }
+            values[i] = Double.parseDouble(line);
+        }
+    }
+
+    /**
+     * @return The values, indexed by index(stateCode, action)
+     */
+    public double[] getValues() {
+        return values;
+    }
+
+    /**
+     * @return The visit counts, indexed by index(stateCode, action)
+     */
+    public int[] getAccess() {
+        return access;
+    }
+
+    @Override
+    public int getStateNum() {
+        return stateNum;
+    }
+
+    @Override
+    public int getActionNum() {
+        return actionNum;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return (long) values.length * (Double.BYTES + Integer.BYTES);
+    }
+}
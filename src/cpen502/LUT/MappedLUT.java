@@ -0,0 +1,356 @@
+package cpen502.LUT;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Look up table kept in a memory mapped file instead of the heap, in the order of FlatLUT.
+ *
+ * The file starts with a header of little endian ints: MAGIC, VERSION, the number of radices,
+ * the number of actions and the radices, padded to 8 bytes. The values follow as doubles and
+ * then the visit counts as ints. Opening an existing file maps it as it is, so a table is warm
+ * as soon as it is open, without parsing or copying anything, and a file whose header does
+ * not match the requested dimensions is refused. A new table is written to "<file>.tmp", header
+ * first, and renamed to file once it has its full size, so file never exists without a header.
+ *
+ * Every process that maps the same file shares its pages: a read-only view opened by another
+ * JVM, such as an evaluation robot, sees the values a training process writes as they are
+ * written. The accesses are plain ones without any ordering or atomicity guarantee: a reader
+ * may see a state with some of its actions updated and others not yet, and is not promised to
+ * never see a double half written, so it should take what it reads as an approximation of a
+ * table in training. force writes the pages to the disk; the mapping itself goes away when the
+ * table is garbage collected.
+ */
+public class MappedLUT implements QTable {
+    public final static int MAGIC = 0x54554C52; // the bytes "RLUT" in little endian
+    public final static int VERSION = 1;
+
+    final File file;
+    final int[] radices;
+    final int stateNum;
+    final int actionNum;
+    final boolean readOnly;
+    final boolean created;
+
+    private final MappedByteBuffer buffer;
+    private final int valuesOffset;
+    private final int accessOffset;
+
+    private MappedLUT(File file, int[] radices, int actionNum, boolean readOnly) throws IOException {
+        long stateNum = 1;
+        for (int radix : radices) {
+            if (radix < 1) {
+                throw new IllegalArgumentException("Invalid radix " + radix);
+            }
+            stateNum *= radix;
+        }
+        long headerSize = headerSize(radices.length);
+        long fileSize = headerSize + stateNum * actionNum * (Double.BYTES + Integer.BYTES);
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A table of " + stateNum + " states does not fit in one mapping");
+        }
+        this.file = file;
+        this.radices = radices.clone();
+        this.stateNum = (int) stateNum;
+        this.actionNum = actionNum;
+        this.readOnly = readOnly;
+        this.valuesOffset = (int) headerSize;
+        this.accessOffset = (int) (headerSize + stateNum * actionNum * Double.BYTES);
+
+        this.created = !file.exists() || file.length() == 0;
+        if (readOnly && created) {
+            throw new FileNotFoundException("No table in " + file);
+        }
+        if (!created && file.length() != fileSize) {
+            throw new IOException("The table in " + file + " has " + file.length() + " bytes, "
+                    + fileSize + " expected");
+        }
+        if (created) {
+            create(file, radices, actionNum, (int) headerSize, fileSize);
+        }
+        FileChannel channel = readOnly ? FileChannel.open(file.toPath(), StandardOpenOption.READ) :
+                FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            buffer = channel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+                    0, fileSize);
+        } finally {
+            // the mapping stays valid without the channel
+            channel.close();
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        checkHeader();
+    }
+
+    /**
+     * Write the header and the zeros of a new table to "<file>.tmp" and rename it to file.
+     * A crash leaves either no file or a complete one; the temporary file is overwritten by
+     * the next attempt.
+     */
+    private static void create(File file, int[] radices, int actionNum, int headerSize, long fileSize)
+            throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(radices.length).putInt(actionNum);
+        for (int radix : radices) {
+            header.putInt(radix);
+        }
+        header.clear();
+        try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            // the last byte extends the file to its full size, the values and visits read as 0
+            channel.write(ByteBuffer.allocate(1), fileSize - 1);
+            channel.force(true);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Map the table in a file for reading and writing, creating it if it does not exist.
+     * A new table holds zeros until initialize.
+     * @throws IOException When the file holds a table of other dimensions
+     */
+    public static MappedLUT open(File file, int[] radices, int actionNum) throws IOException {
+        return new MappedLUT(file, radices, actionNum, false);
+    }
+
+    /**
+     * Map an existing table for reading only, taking its dimensions from its header.
+     */
+    public static MappedLUT openReadOnly(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            int magic = Integer.reverseBytes(in.readInt());
+            if (magic != MAGIC) {
+                throw new IOException(file + " does not hold a table");
+            }
+            in.readInt();
+            // the header is not trusted until it matches the file size, check it before allocating
+            int radixNum = Integer.reverseBytes(in.readInt());
+            int actionNum = Integer.reverseBytes(in.readInt());
+            if (radixNum < 0 || headerSize(radixNum) > file.length() || actionNum < 1
+                    || actionNum > file.length()) {
+                throw new IOException("The table in " + file + " has a corrupted header, " + radixNum
+                        + " radices and " + actionNum + " actions");
+            }
+            int[] radices = new int[radixNum];
+            long pairNum = actionNum;
+            for (int i = 0; i < radices.length; i ++) {
+                radices[i] = Integer.reverseBytes(in.readInt());
+                // every pair takes more than a byte, so there are fewer pairs than bytes
+                if (radices[i] < 1 || pairNum > file.length() / radices[i]) {
+                    throw new IOException("The table in " + file + " has a corrupted header, radix "
+                            + radices[i] + " of " + radixNum);
+                }
+                pairNum *= radices[i];
+            }
+            return new MappedLUT(file, radices, actionNum, true);
+        }
+    }
+
+    private static long headerSize(int radixNum) {
+        long size = 4L * Integer.BYTES + (long) radixNum * Integer.BYTES;
+        return (size + 7) & ~7L;
+    }
+
+    private void checkHeader() throws IOException {
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(file + " does not hold a table");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("The table in " + file + " has version " + buffer.getInt(4) + ", "
+                    + VERSION + " expected");
+        }
+        // the radix number is checked before it sizes anything, a corrupted one may be huge
+        int radixNum = buffer.getInt(8);
+        if (radixNum != radices.length || buffer.getInt(12) != actionNum) {
+            throw new IOException("The table in " + file + " has " + radixNum + " radices and "
+                    + buffer.getInt(12) + " actions, " + radices.length + " and " + actionNum + " expected");
+        }
+        int[] fileRadices = new int[radixNum];
+        for (int i = 0; i < fileRadices.length; i ++) {
+            fileRadices[i] = buffer.getInt(16 + i * Integer.BYTES);
+        }
+        if (!Arrays.equals(fileRadices, radices)) {
+            throw new IOException("The table in " + file + " has radices " + Arrays.toString(fileRadices)
+                    + " and " + buffer.getInt(12) + " actions, " + Arrays.toString(radices) + " and "
+                    + actionNum + " expected");
+        }
+    }
+
+    private int valueAt(int stateCode, int action) {
+        return valuesOffset + (stateCode * actionNum + action) * Double.BYTES;
+    }
+
+    private int accessAt(int stateCode, int action) {
+        return accessOffset + (stateCode * actionNum + action) * Integer.BYTES;
+    }
+
+    @Override
+    public double get(int stateCode, int action) {
+        return buffer.getDouble(valueAt(stateCode, action));
+    }
+
+    @Override
+    public void set(int stateCode, int action, double value) {
+        buffer.putDouble(valueAt(stateCode, action), value);
+    }
+
+    @Override
+    public void visit(int stateCode, int action) {
+        int at = accessAt(stateCode, action);
+        buffer.putInt(at, buffer.getInt(at) + 1);
+    }
+
+    public int getAccess(int stateCode, int action) {
+        return buffer.getInt(accessAt(stateCode, action));
+    }
+
+    @Override
+    public int argmax(int stateCode) {
+        int from = valueAt(stateCode, 0);
+        int optimal = 0;
+        double optimalValue = buffer.getDouble(from);
+        for (int i = 1; i < actionNum; i ++) {
+            double value = buffer.getDouble(from + i * Double.BYTES);
+            if (value > optimalValue) {
+                optimalValue = value;
+                optimal = i;
+            }
+        }
+        return optimal;
+    }
+
+    @Override
+    public double max(int stateCode) {
+        return get(stateCode, argmax(stateCode));
+    }
+
+    /**
+     * Draw every value uniformly from [0, scale) in table order, the same values as FlatLUT
+     * draws from the same random, and clear the visit counts.
+     */
+    @Override
+    public void initialize(Random random, double scale) {
+        int pairNum = stateNum * actionNum;
+        for (int i = 0; i < pairNum; i ++) {
+            buffer.putDouble(valuesOffset + i * Double.BYTES, random.nextDouble() * scale);
+            buffer.putInt(accessOffset + i * Integer.BYTES, 0);
+        }
+    }
+
+    @Override
+    public double minValue() {
+        double min = Double.POSITIVE_INFINITY;
+        int pairNum = stateNum * actionNum;
+        for (int i = 0; i < pairNum; i ++) {
+            min = Math.min(min, buffer.getDouble(valuesOffset + i * Double.BYTES));
+        }
+        return min;
+    }
+
+    @Override
+    public double maxValue() {
+        double max = Double.NEGATIVE_INFINITY;
+        int pairNum = stateNum * actionNum;
+        for (int i = 0; i < pairNum; i ++) {
+            max = Math.max(max, buffer.getDouble(valuesOffset + i * Double.BYTES));
+        }
+        return max;
+    }
+
+    @Override
+    public double[] copyValues(double[] values) {
+        buffer.slice(valuesOffset, stateNum * actionNum * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                .asDoubleBuffer().get(values, 0, stateNum * actionNum);
+        return values;
+    }
+
+    @Override
+    public void write(PrintStream ps) {
+        int pairNum = stateNum * actionNum;
+        for (int i = 0; i < pairNum; i ++) {
+            ps.println(buffer.getDouble(valuesOffset + i * Double.BYTES));
+        }
+    }
+
+    @Override
+    public void read(BufferedReader reader) throws IOException {
+        int pairNum = stateNum * actionNum;
+        for (int i = 0; i < pairNum; i ++) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new EOFException("The LUT file ends after " + i + " of " + pairNum + " values");
+            }
+            buffer.putDouble(valuesOffset + i * Double.BYTES, Double.parseDouble(line));
+        }
+    }
+
+    /**
+     * Write the changed pages of the table to the file.
+     */
+    public void force() {
+        if (!readOnly) {
+            buffer.force();
+        }
+    }
+
+    @Override
+    public int getStateNum() {
+        return stateNum;
+    }
+
+    @Override
+    public int getActionNum() {
+        return actionNum;
+    }
+
+    /**
+     * @return 0, the table lives in the page cache rather than on the heap
+     */
+    @Override
+    public long getMemoryBytes() {
+        return 0;
+    }
+
+    /**
+     * @return The bytes of the mapped file
+     */
+    public long getFileBytes() {
+        return buffer.capacity();
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int[] getRadices() {
+        return radices.clone();
+    }
+
+    /**
+     * @return Whether open created the file rather than mapping an existing table
+     */
+    public boolean isCreated() {
+        return created;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+}
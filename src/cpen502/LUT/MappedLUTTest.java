@@ -0,0 +1,127 @@
+package cpen502.LUT;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Round trips of a MappedLUT through its file, a read-only view following a writer, and the
+ * files open and openReadOnly must refuse: other dimensions, a wrong size, and headers that
+ * are corrupted, missing or announce huge tables.
+ */
+public class MappedLUTTest {
+    static final int[] RADICES = new int[]{6, 5, 4};
+    static final int ACTION_NUM = 3;
+
+    public static void main(String[] args) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        File file = new File(dir, "MappedLUTTest.lut");
+        File temp = new File(file.getPath() + ".tmp");
+        file.delete();
+        int pairNum = 6 * 5 * 4 * ACTION_NUM;
+
+        // a new table is created with its header, and holds the values of FlatLUT
+        MappedLUT table = MappedLUT.open(file, RADICES, ACTION_NUM);
+        check("created", table.isCreated());
+        check("no temporary file", !temp.exists());
+        check("file size", file.length() == table.getFileBytes());
+        table.initialize(new Random(7), 10);
+        FlatLUT flat = new FlatLUT(RADICES, ACTION_NUM);
+        flat.initialize(new Random(7), 10);
+        double[] values = table.copyValues(new double[pairNum]);
+        check("initial values", Arrays.equals(values, flat.copyValues(new double[pairNum])));
+        table.set(17, 2, -3.5);
+        table.visit(17, 2);
+        table.visit(17, 2);
+        table.force();
+
+        // reopening maps the same table, and a read-only view sees later writes
+        MappedLUT reopened = MappedLUT.open(file, RADICES, ACTION_NUM);
+        check("not created", !reopened.isCreated());
+        check("reopened value", reopened.get(17, 2) == -3.5);
+        check("reopened visits", reopened.getAccess(17, 2) == 2);
+        MappedLUT view = MappedLUT.openReadOnly(file);
+        check("view dimensions", Arrays.equals(view.getRadices(), RADICES) && view.getActionNum() == ACTION_NUM);
+        table.set(3, 1, 42);
+        check("view follows", view.get(3, 1) == 42 && reopened.get(3, 1) == 42);
+        values = table.copyValues(new double[pairNum]);
+        check("view values", Arrays.equals(values, view.copyValues(new double[pairNum])));
+
+        // a stale temporary file of an earlier crash does not get in the way
+        File other = new File(dir, "MappedLUTTest2.lut");
+        other.delete();
+        try (FileOutputStream out = new FileOutputStream(other.getPath() + ".tmp")) {
+            out.write(new byte[]{1, 2, 3});
+        }
+        MappedLUT fresh = MappedLUT.open(other, RADICES, ACTION_NUM);
+        check("created over a stale temporary file", fresh.isCreated() && fresh.get(0, 0) == 0
+                && !new File(other.getPath() + ".tmp").exists());
+
+        // other dimensions and sizes are refused
+        expectIOException("other radices", () -> MappedLUT.open(file, new int[]{6, 4, 5}, ACTION_NUM));
+        expectIOException("other radix number", () -> MappedLUT.open(file, new int[]{6, 5, 4, 1}, ACTION_NUM));
+        expectIOException("other action number", () -> MappedLUT.open(file, RADICES, ACTION_NUM + 1));
+        expectIOException("missing file", () -> MappedLUT.openReadOnly(new File(dir, "MappedLUTTest3.lut")));
+        byte[] content = readAll(file);
+        writeAll(other, Arrays.copyOf(content, content.length - 4));
+        expectIOException("truncated", () -> MappedLUT.open(other, RADICES, ACTION_NUM));
+        expectIOException("truncated read-only", () -> MappedLUT.openReadOnly(other));
+
+        // corrupted headers are refused before anything is allocated for them
+        int[][] corruptions = new int[][]{
+                {0, 0},                  // magic of a file mapped before its header was written
+                {4, 2},                  // version
+                {8, Integer.MAX_VALUE},  // radix number
+                {8, -1},
+                {12, 0},                 // action number
+                {12, Integer.MAX_VALUE},
+                {16, 0},                 // first radix
+                {16, 1 << 30},
+        };
+        for (int[] corruption : corruptions) {
+            byte[] corrupted = content.clone();
+            for (int i = 0; i < Integer.BYTES; i ++) {
+                corrupted[corruption[0] + i] = (byte) (corruption[1] >>> (8 * i));
+            }
+            writeAll(other, corrupted);
+            String name = "int at " + corruption[0] + " set to " + corruption[1];
+            expectIOException(name, () -> MappedLUT.open(other, RADICES, ACTION_NUM));
+            expectIOException(name + " read-only", () -> MappedLUT.openReadOnly(other));
+        }
+
+        file.delete();
+        other.delete();
+        System.out.println("MappedLUTTest passed");
+    }
+
+    interface Opener {
+        MappedLUT open() throws IOException;
+    }
+
+    static void expectIOException(String name, Opener opener) {
+        try {
+            opener.open();
+        } catch (IOException e) {
+            return;
+        }
+        throw new AssertionError(name + ": open did not fail");
+    }
+
+    static byte[] readAll(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return in.readAllBytes();
+        }
+    }
+
+    static void writeAll(File file, byte[] content) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+    }
+
+    static void check(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package cpen502.LUT;
+
+import java.util.Random;
+
+/**
+ * Replay memory that samples transitions in proportion to their last TD error, after
+ * Schaul et al., Prioritized Experience Replay.
+ *
+ * A transition of TD error d has the priority (|d| + PRIORITY_EPSILON) ^ priorityExponent.
+ * New transitions get the largest priority seen so far, so each is replayed at least once
+ * soon. A minibatch is drawn stratified: the total priority is cut into one segment per
+ * sample and each sample is picked within its segment.
+ *
+ * The bias of the non uniform sampling is corrected by the importance sampling weight
+ * (N * P(i)) ^ -beta, divided by the largest possible weight so it is at most 1. beta grows
+ * linearly from initialBeta to 1 over betaAnnealSteps minibatches.
+ */
+public class PrioritizedReplayBuffer extends ReplayBuffer {
+    final static double PRIORITY_EPSILON = 0.01;
+
+    final SumTree tree;
+    final double priorityExponent;
+    final double initialBeta;
+    final int betaAnnealSteps;
+
+    double beta;
+    int sampleCount;
+    double maxPriority;
+
+    public PrioritizedReplayBuffer(int capacity, double priorityExponent, double initialBeta,
+                                   int betaAnnealSteps) {
+        super(capacity);
+        this.tree = new SumTree(capacity);
+        this.priorityExponent = priorityExponent;
+        this.initialBeta = initialBeta;
+        this.betaAnnealSteps = betaAnnealSteps;
+        this.beta = initialBeta;
+        this.maxPriority = 1;
+    }
+
+    @Override
+    public void add(int state, int action, double reward, int nextState) {
+        int slot = head;
+        super.add(state, action, reward, nextState);
+        tree.update(slot, maxPriority);
+    }
+
+    @Override
+    public int sample(Random random, int[] indices, double[] weights) {
+        if (size == 0) {
+            return 0;
+        }
+        double total = tree.total();
+        double segment = total / indices.length;
+        double maxWeight = Math.pow(size * tree.min() / total, -beta);
+        for (int i = 0; i < indices.length; i ++) {
+            int index = tree.find((i + random.nextDouble()) * segment);
+            indices[i] = index;
+            weights[i] = Math.pow(size * tree.get(index) / total, -beta) / maxWeight;
+        }
+        // from the count rather than by adding a step, which would leave beta just short of 1
+        if (sampleCount < betaAnnealSteps) {
+            sampleCount ++;
+        }
+        beta = sampleCount >= betaAnnealSteps ? 1
+                : initialBeta + (1 - initialBeta) * sampleCount / betaAnnealSteps;
+        return indices.length;
+    }
+
+    @Override
+    public void updatePriority(int index, double tdError) {
+        double priority = Math.pow(Math.abs(tdError) + PRIORITY_EPSILON, priorityExponent);
+        tree.update(index, priority);
+        if (priority > maxPriority) {
+            maxPriority = priority;
+        }
+    }
+
+    public double getBeta() {
+        return beta;
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        tree.clear();
+        beta = initialBeta;
+        sampleCount = 0;
+        maxPriority = 1;
+    }
+}
@@ -0,0 +1,113 @@
+package cpen502.LUT;
+
+import java.util.Random;
+
+/**
+ * Checks SumTree.find at the edges of the priority ranges, on a capacity that is not a power
+ * of two, and that PrioritizedReplayBuffer samples in proportion to the priorities, keeps its
+ * importance sampling weights at most 1 and anneals beta to 1.
+ */
+public class PrioritizedReplayBufferTest {
+    static final int SAMPLE_NUM = 1000000;
+    static final double TOLERANCE = 0.01;
+
+    public static void main(String[] args) {
+        // 5 slots, so 3 padding leaves; the last slot stays empty
+        SumTree tree = new SumTree(5);
+        double[] priorities = new double[]{1, 2, 3, 4, 0};
+        for (int slot = 0; slot < priorities.length; slot ++) {
+            tree.update(slot, priorities[slot]);
+        }
+        check("total", tree.total() == 10);
+        check("min", tree.min() == 0);
+        check("find 0", tree.find(0) == 0);
+        check("find below 1", tree.find(Math.nextDown(1.0)) == 0);
+        check("find 1", tree.find(1) == 1);
+        check("find below 3", tree.find(Math.nextDown(3.0)) == 1);
+        check("find 3", tree.find(3) == 2);
+        check("find 6", tree.find(6) == 3);
+        check("find below total", tree.find(Math.nextDown(10.0)) == 3);
+        // rounding may carry a value past the total, it must not land on an empty slot
+        check("find total", tree.find(10) == 3);
+        check("find past total", tree.find(10.5) == 3);
+        tree.update(4, 5);
+        check("find last slot", tree.find(10) == 4);
+        check("find past last slot", tree.find(15) == 4);
+        check("updated min", tree.min() == 1);
+        tree.clear();
+        check("cleared", tree.total() == 0 && tree.min() == Double.POSITIVE_INFINITY);
+
+        // a single slot
+        SumTree single = new SumTree(1);
+        single.update(0, 2);
+        check("single slot", single.find(0) == 0 && single.find(1.999) == 0 && single.find(2) == 0);
+
+        // sampling frequencies of the buffer follow the priorities, also through the strata
+        // of a minibatch
+        double[] tdErrors = new double[]{0, 0.5, 1, 2, 4, 0.25, 3};
+        double exponent = 0.6;
+        PrioritizedReplayBuffer buffer = new PrioritizedReplayBuffer(tdErrors.length, exponent, 0.4, 100);
+        for (int i = 0; i < tdErrors.length; i ++) {
+            buffer.add(i, 0, 0, i + 1);
+            buffer.updatePriority(i, tdErrors[i]);
+        }
+        double total = 0;
+        for (double tdError : tdErrors) {
+            total += Math.pow(tdError + PrioritizedReplayBuffer.PRIORITY_EPSILON, exponent);
+        }
+        Random random = new Random(0);
+        int[] indices = new int[8];
+        double[] weights = new double[indices.length];
+        int[] counts = new int[tdErrors.length];
+        double maxWeight = 0;
+        for (int n = 0; n < SAMPLE_NUM; n += indices.length) {
+            check("minibatch size", buffer.sample(random, indices, weights) == indices.length);
+            for (int i = 0; i < indices.length; i ++) {
+                counts[indices[i]] ++;
+                check("weight at most 1", weights[i] > 0 && weights[i] <= 1 + 1e-12);
+                maxWeight = Math.max(maxWeight, weights[i]);
+            }
+        }
+        for (int i = 0; i < tdErrors.length; i ++) {
+            double expected = Math.pow(tdErrors[i] + PrioritizedReplayBuffer.PRIORITY_EPSILON, exponent) / total;
+            double frequency = counts[i] / (double) SAMPLE_NUM;
+            if (Math.abs(frequency - expected) > TOLERANCE * Math.max(expected, 0.1)) {
+                throw new AssertionError("Slot " + i + " sampled with frequency " + frequency + ", "
+                        + expected + " expected");
+            }
+        }
+        // the slot of the smallest priority has the largest weight, exactly 1
+        check("largest weight 1", Math.abs(maxWeight - 1) < 1e-12);
+
+        // beta reaches exactly 1 after betaAnnealSteps minibatches and stays there, for step
+        // counts whose sum of steps would fall short of 1 in floating point
+        for (double initialBeta : new double[]{0.4, 0.45}) {
+            for (int annealSteps = 1; annealSteps <= 200; annealSteps ++) {
+                PrioritizedReplayBuffer annealed = new PrioritizedReplayBuffer(4, exponent, initialBeta, annealSteps);
+                annealed.add(0, 0, 0, 1);
+                annealed.add(1, 0, 0, 2);
+                annealed.updatePriority(0, 1);
+                double previous = annealed.getBeta();
+                check("initial beta", previous == initialBeta);
+                for (int step = 1; step <= annealSteps; step ++) {
+                    annealed.sample(random, indices, weights);
+                    check("beta grows", annealed.getBeta() > previous);
+                    previous = annealed.getBeta();
+                }
+                check("beta annealed to 1 in " + annealSteps + " steps from " + initialBeta, annealed.getBeta() == 1);
+                annealed.sample(random, indices, weights);
+                check("beta stays 1", annealed.getBeta() == 1);
+                annealed.clear();
+                check("beta reset", annealed.getBeta() == initialBeta);
+            }
+        }
+
+        System.out.println("PrioritizedReplayBufferTest passed");
+    }
+
+    static void check(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package cpen502.LUT;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * Table of a Q value and a visit count per state-action pair, a state being numbered by its
+ * mixed radix code (FlatLUT.encode) and an action by its value. FlatLUT stores every pair,
+ * SparseLUT only the pairs that were touched.
+ */
+public interface QTable {
+    double get(int stateCode, int action);
+
+    void set(int stateCode, int action, double value);
+
+    void visit(int stateCode, int action);
+
+    /**
+     * Move the value of a pair by the step alpha towards target, the Q-learning update.
+     * @return The new value
+     */
+    default double update(int stateCode, int action, double alpha, double target) {
+        double value = get(stateCode, action);
+        value = value + alpha * (target - value);
+        set(stateCode, action, value);
+        return value;
+    }
+
+    /**
+     * @return The action of the largest value of a state, the first one on ties
+     */
+    int argmax(int stateCode);
+
+    double max(int stateCode);
+
+    /**
+     * Draw every value uniformly from [0, scale) and clear the visit counts.
+     */
+    void initialize(Random random, double scale);
+
+    double minValue();
+
+    double maxValue();
+
+    /**
+     * Copy the values of every pair in table order, the values of a state starting at
+     * stateCode * getActionNum().
+     * @param values Receives the values, of size getStateNum() * getActionNum()
+     * @return values
+     */
+    double[] copyValues(double[] values);
+
+    /**
+     * Write the values one per line in table order, the file every table reads. SparseLUT
+     * writes its stored pairs only, in a format of its own.
+     */
+    void write(PrintStream ps);
+
+    /**
+     * Read the values written by write, replacing the current ones.
+     */
+    void read(BufferedReader reader) throws IOException;
+
+    int getStateNum();
+
+    int getActionNum();
+
+    /**
+     * @return The bytes the table takes on the heap
+     */
+    long getMemoryBytes();
+}
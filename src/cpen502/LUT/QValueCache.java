@@ -0,0 +1,109 @@
+package cpen502.LUT;
+
+import cpen502.nerualnetwork.NeuralNet;
+import cpen502.robots.QLearningRobot.Action;
+
+import java.util.Arrays;
+
+/**
+ * Q values of the neural network for the whole discrete state-action space, 192 states of
+ * 5 actions, computed lazily state by state.
+ *
+ * An entry is tagged with the weight version of the network it was computed with, see
+ * NeuralNet.getWeightVersion. A lookup recomputes the actionDim values of its state only
+ * when the weights changed since, so while the network is not trained, e.g. in evaluation
+ * rounds, picking the greedy action is a table read. materialize fills the whole table up
+ * front.
+ */
+public class QValueCache {
+    private final static Action[] actions = Action.values();
+
+    private final NeuralNet neuralnet;
+    private final int stateNum;
+
+    private final double[] qValues;
+    private final double[] maxQValues;
+    private final byte[] optimalActions;
+    private final long[] versions;
+
+    private final int[] active = new int[RoboCodeLUT.encodedDim];
+    private final double[] output = new double[1];
+
+    private long hitCount;
+    private long missCount;
+
+    public QValueCache(NeuralNet neuralnet) {
+        this.neuralnet = neuralnet;
+        this.stateNum = RoboCodeLUT.lutSize / RoboCodeLUT.actionDim;
+        qValues = new double[RoboCodeLUT.lutSize];
+        maxQValues = new double[stateNum];
+        optimalActions = new byte[stateNum];
+        versions = new long[stateNum];
+        Arrays.fill(versions, -1);
+    }
+
+    /**
+     * @param stateCode See RoboCodeLUT.stateCode
+     * @return The Q value of a state-action pair
+     */
+    public double q(int stateCode, Action action) {
+        evaluate(stateCode);
+        return qValues[stateCode * RoboCodeLUT.actionDim + action.getValue()];
+    }
+
+    /**
+     * @return The largest Q value of a state
+     */
+    public double maxQ(int stateCode) {
+        evaluate(stateCode);
+        return maxQValues[stateCode];
+    }
+
+    /**
+     * @return The action of the largest Q value of a state, the first one on ties
+     */
+    public Action optimalAction(int stateCode) {
+        evaluate(stateCode);
+        return actions[optimalActions[stateCode]];
+    }
+
+    /**
+     * Compute the Q values of every state that is not up to date.
+     */
+    public void materialize() {
+        for (int stateCode = 0; stateCode < stateNum; stateCode ++) {
+            evaluate(stateCode);
+        }
+    }
+
+    private void evaluate(int stateCode) {
+        long version = neuralnet.getWeightVersion();
+        if (versions[stateCode] == version) {
+            hitCount ++;
+            return;
+        }
+        missCount ++;
+        int index = stateCode * RoboCodeLUT.actionDim;
+        double maxQ = Double.NEGATIVE_INFINITY;
+        int optimal = 0;
+        for (int i = 0; i < actions.length; i ++) {
+            double q = neuralnet.outputIntoEncoded(RoboCodeLUT.SAToActive(stateCode, actions[i], active), output)[0];
+            qValues[index + i] = q;
+            if (q > maxQ) {
+                maxQ = q;
+                optimal = i;
+            }
+        }
+        maxQValues[stateCode] = maxQ;
+        optimalActions[stateCode] = (byte) optimal;
+        versions[stateCode] = version;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+}
@@ -0,0 +1,124 @@
+package cpen502.LUT;
+
+import java.util.Random;
+
+/**
+ * Experience replay memory of the Q-learning agent.
+ *
+ * A transition is kept as the code of its state (RoboCodeLUT.stateCode), its action, its
+ * reward and the code of the next state, each in its own primitive array, so a buffer of
+ * a million transitions takes about 17 MB and holds no object references. Once the buffer
+ * is full the oldest transition is overwritten.
+ */
+public class ReplayBuffer {
+    final int capacity;
+    final int[] states;
+    final byte[] actions;
+    final double[] rewards;
+    final int[] nextStates;
+
+    int size;
+    int head; // slot of the next transition
+
+    public ReplayBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+        this.capacity = capacity;
+        states = new int[capacity];
+        actions = new byte[capacity];
+        rewards = new double[capacity];
+        nextStates = new int[capacity];
+    }
+
+    public void add(int state, int action, double reward, int nextState) {
+        states[head] = state;
+        actions[head] = (byte) action;
+        rewards[head] = reward;
+        nextStates[head] = nextState;
+        head = head + 1 == capacity ? 0 : head + 1;
+        if (size < capacity) {
+            size ++;
+        }
+    }
+
+    /**
+     * Pick slots uniformly at random, with replacement.
+     * @param indices Receives the slots, one per entry
+     * @return The number of slots picked, 0 when the buffer is empty
+     */
+    public int sample(Random random, int[] indices) {
+        if (size == 0) {
+            return 0;
+        }
+        for (int i = 0; i < indices.length; i ++) {
+            indices[i] = random.nextInt(size);
+        }
+        return indices.length;
+    }
+
+    /**
+     * Pick slots for a minibatch along with the weights of their updates, all 1 here.
+     * @param weights Receives the weights, of the size of indices
+     * @return The number of slots picked, 0 when the buffer is empty
+     */
+    public int sample(Random random, int[] indices, double[] weights) {
+        int count = sample(random, indices);
+        for (int i = 0; i < count; i ++) {
+            weights[i] = 1;
+        }
+        return count;
+    }
+
+    /**
+     * Pick the slots of the latest transitions, oldest first, for an in-order sweep.
+     * @param indices Receives the slots, at most one per entry
+     * @param weights Receives the weights of the updates, all 1
+     * @return The number of slots picked, min(indices.length, size())
+     */
+    public int latest(int[] indices, double[] weights) {
+        int count = Math.min(indices.length, size);
+        int slot = head - count < 0 ? head - count + capacity : head - count;
+        for (int i = 0; i < count; i ++) {
+            indices[i] = slot;
+            weights[i] = 1;
+            slot = slot + 1 == capacity ? 0 : slot + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Report the TD error of a replayed transition. Uniform sampling ignores it.
+     */
+    public void updatePriority(int index, double tdError) {
+    }
+
+    public int getState(int index) {
+        return states[index];
+    }
+
+    public int getAction(int index) {
+        return actions[index];
+    }
+
+    public double getReward(int index) {
+        return rewards[index];
+    }
+
+    public int getNextState(int index) {
+        return nextStates[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void clear() {
+        size = 0;
+        head = 0;
+    }
+}
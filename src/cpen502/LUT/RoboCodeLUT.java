@@ -1,10 +1,14 @@
 package cpen502.LUT;
 
-import cpen502.nerualnetwork.NeuralNetwork;
+import cpen502.nerualnetwork.Activation;
+import cpen502.nerualnetwork.NeuralNet;
+import cpen502.nerualnetwork.Precision;
 import cpen502.robots.QLearningRobot;
 import cpen502.robots.QLearningRobot.StateCategory;
 import cpen502.robots.QLearningRobot.Action;
-import cpen502.utils.Functions;
+import cpen502.utils.CheckpointService;
+import cpen502.utils.DecisionProfiler;
+import cpen502.utils.DecisionProfiler.Phase;
 import robocode.RobocodeFileOutputStream;
 import robocode.*;
 
@@ -13,7 +17,6 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
-import java.util.function.Function;
 
 public class RoboCodeLUT {
     public final static int lutDepth = QLearningRobot.stateNum;
@@ -26,113 +29,165 @@ public class RoboCodeLUT {
     public final static int energyDim = stateDim.get(StateCategory.Energy);
     public final static int enemyDistanceDim = stateDim.get(StateCategory.EnemyDistance);
     public final static int gunHeatDim = stateDim.get(StateCategory.GunHeated);
+    public final static int inputDim = posXDim + posYDim + energyDim + enemyDistanceDim + gunHeatDim + actionDim;
+    public final static int encodedDim = lutDepth + 1; // one +1 input per state category and the action
+    public final static int lutSize = posXDim * posYDim * energyDim * enemyDistanceDim * gunHeatDim * actionDim;
+    public final static int[] stateRadices = QLearningRobot.stateRadices;
+    public final static int NO_STATE = -1;
+
+    // first input of every state category and of the action in the network's input vector
+    private final static int[] activeOffsets = new int[] {0, posXDim, posXDim + posYDim,
+            posXDim + posYDim + energyDim, posXDim + posYDim + energyDim + enemyDistanceDim,
+            posXDim + posYDim + energyDim + enemyDistanceDim + gunHeatDim};
+
+    private final static Action[] actions = Action.values();
 
     private double alpha; // learning rate
     private double gamma; // feature discount factor (0,1)
     private double e;     // exploration rate
     private boolean useOffPolicy;
 
-    private int lastNSize;
-    private int lastNCount;
-    private int lastNHead;
-    private double[][] lastNInputVectors; // prev state and prev action
-    private int[][] lastNState; // cur state
-    private double[] lastNReward; // reward
+    // transitions replayed by the neural network, replaySize of them after every update,
+    // sampled from the replay memory or, with replayLatest, the latest ones in order
+    private int replaySize;
+    private boolean replayLatest;
+    private ReplayBuffer replay;
+    private int[] replayIndices;
+    private double[] replayWeights;
+
+    // Q values of the network, recomputed per state when the weights changed
+    private QValueCache qCache;
+
+    // frozen network the replayed transitions bootstrap from, synced every targetSyncInterval updates
+    private TargetNetwork target;
+    private int targetSyncInterval;
+    private int targetUpdateCount;
+
+    // workspaces of the neural network so a decision does not allocate
+    private int[] prevInput;
+    private double[] qOutput;
+
+    // Watkins' Q(lambda) of the table, null for one-step updates
+    private EligibilityTraces traces;
+    private double lambda;
 
+    // times the select, train and replay phases of updateValue and updateValueNN, null when off
+    private DecisionProfiler profiler;
 
     private boolean useNN;
-    public NeuralNetwork neuralnet = null;
+    public NeuralNet neuralnet = null;
 
     private Random rand = new Random();
 
-    double[][][][][][] lut = new double[posXDim][posYDim][energyDim]
-            [enemyDistanceDim][gunHeatDim][actionDim];
-
-    int[][][][][][] access = new int[posXDim][posYDim][energyDim]
-            [enemyDistanceDim][gunHeatDim][actionDim];
+    // Q values and visit counts, sized from QLearningRobot directly since the robot may
+    // create its LUT while this class is still being initialized
+    QTable lut = new FlatLUT(FlatLUT.radicesOf(QLearningRobot.stateDim), QLearningRobot.actionNum);
 
     public RoboCodeLUT(double learningRate, double featureFactor, double explorationRate,
                        boolean useOffPolicy, boolean useNN, int lastNSize) {
+        this(learningRate, featureFactor, explorationRate, useOffPolicy, useNN, lastNSize, Precision.DOUBLE);
+    }
+
+    /**
+     * Replays the last lastNSize transitions in order, oldest first, after every update.
+     * @param precision Precision of the neural network when useNN is set
+     */
+    public RoboCodeLUT(double learningRate, double featureFactor, double explorationRate,
+                       boolean useOffPolicy, boolean useNN, int lastNSize, Precision precision) {
+        this(learningRate, featureFactor, explorationRate, useOffPolicy, useNN, lastNSize,
+                Math.max(lastNSize, 1), precision);
+        this.replayLatest = true;
+    }
+
+    /**
+     * @param replaySize Number of transitions the neural network replays after every update,
+     *                   sampled uniformly from the replay memory. 0 turns replay off
+     * @param replayCapacity Number of the latest transitions kept in the replay memory
+     * @param precision Precision of the neural network when useNN is set
+     */
+    public RoboCodeLUT(double learningRate, double featureFactor, double explorationRate,
+                       boolean useOffPolicy, boolean useNN, int replaySize, int replayCapacity,
+                       Precision precision) {
         initialize();
         this.alpha = learningRate;
         this.gamma = featureFactor;
         this.e = explorationRate;
         this.useOffPolicy = useOffPolicy;
         this.useNN = useNN;
-        this.lastNSize = lastNSize;
+        this.replaySize = replaySize;
 
         if (useNN) {
-            Function<Double, Double> activationFunction = Functions.sigmoidBipolar;
-            Function<Double, Double> activationDerivativeFunction = Functions.sigmoidDerivativeBipolar;
+            Activation activation = Activation.SIGMOID_BIPOLAR;
             int hiddenNeuronNum = 80;
             double momentums = 0.6;
             double learningRates = 0.01;
-            int[] neuronNums = new int[] {20, hiddenNeuronNum, 1};
+            int[] neuronNums = new int[] {inputDim, hiddenNeuronNum, 1};
             try {
-                neuralnet = new NeuralNetwork(neuronNums, activationFunction,
-                        activationDerivativeFunction, momentums, learningRates);
+                neuralnet = NeuralNet.create(neuronNums, activation, momentums, learningRates, precision);
                 neuralnet.initializeWeights();
             } catch (Exception e) {
                 e.printStackTrace();
                 return;
             }
-            lastNInputVectors = new double[lastNSize][20];
-            lastNState = new int[lastNSize][5];
-            lastNReward = new double[lastNSize];
-            lastNHead = 0;
-            lastNCount = 0;
+            if (replaySize > 0) {
+                replay = new ReplayBuffer(replayCapacity);
+                replayIndices = new int[replaySize];
+                replayWeights = new double[replaySize];
+            }
+            prevInput = new int[encodedDim];
+            qOutput = new double[1];
+            qCache = new QValueCache(neuralnet);
         }
     }
 
     public Action updateValueNN(int[] curState, int[] prevState, Action prevAction, double reward) {
-        Action optimalAction = null;
-        double optimalQ = Double.NEGATIVE_INFINITY;
-        for (int i = 0; i < actionDim; i ++) {
-            double q = neuralnet.outputFor(SAToOneHot(curState, Action.values()[i]))[0];
-            if (q > optimalQ) {
-                optimalQ = q;
-                optimalAction = Action.values()[i];
-            }
-        }
+        return updateValueNN(stateCode(curState), prevState == null ? NO_STATE : stateCode(prevState),
+                prevAction, reward);
+    }
+
+    /**
+     * updateValueNN on state codes, see stateCode.
+     * @param prevState NO_STATE on the first step
+     */
+    public Action updateValueNN(int curCode, int prevState, Action prevAction, double reward) {
+        long time = profiler == null ? 0 : System.nanoTime();
+        Action optimalAction = qCache.optimalAction(curCode);
+        double optimalQ = qCache.maxQ(curCode);
 
         boolean takeExploration = rand.nextDouble() <= e;
         Action randomAction = null;
         double randomQ = 0;
         if (takeExploration) {
             int actionIndex = rand.nextInt(actionDim);
-            randomAction = Action.values()[actionIndex];
-            randomQ = neuralnet.outputFor(SAToOneHot(curState, randomAction))[0];
+            randomAction = actions[actionIndex];
+            randomQ = qCache.q(curCode, randomAction);
+        }
+        if (profiler != null) {
+            time = profiler.lap(Phase.SELECT, time);
         }
 
-        double[] inputVector;
-        if (prevState != null) {
-            inputVector = SAToOneHot(prevState, prevAction);
-            double prevQ = neuralnet.outputFor(inputVector)[0];
+        if (prevState != NO_STATE) {
+            int[] input = SAToActive(prevState, prevAction, prevInput);
+            double prevQ = neuralnet.outputIntoEncoded(input, qOutput)[0];
             double newQ;
             if (useOffPolicy || !takeExploration) {
                 newQ = prevQ + alpha * (reward + gamma * optimalQ - prevQ);
             } else {
                 newQ = prevQ + alpha * (reward + gamma * randomQ - prevQ);
             }
-            neuralnet.train(inputVector, new double[]{newQ});
-
-
-            if (lastNSize > 0) {
-                trainLastN();
-                if (lastNCount == lastNSize) {
-                    // replace head with the new values and add 1 to head
-                    lastNInputVectors[lastNHead] = inputVector;
-                    lastNReward[lastNHead] = reward;
-                    lastNState[lastNHead] = curState;
-                    lastNHead = (lastNHead + 1) % lastNSize;
-                } else {
-                    // simply put the value to the tail
-                    lastNInputVectors[(lastNHead + lastNCount) % lastNSize] = inputVector;
-                    lastNReward[(lastNHead + lastNCount) % lastNSize] = reward;
-                    lastNState[(lastNHead + lastNCount) % lastNSize] = curState;
-                    lastNCount ++;
+            neuralnet.trainEncoded(input, newQ);
+            if (profiler != null) {
+                time = profiler.lap(Phase.TRAIN, time);
+            }
+
+            if (replaySize > 0) {
+                trainReplay();
+                replay.add(prevState, prevAction.getValue(), reward, curCode);
+                if (profiler != null) {
+                    profiler.lap(Phase.REPLAY, time);
                 }
             }
+            countTargetUpdate();
         }
 
         if (takeExploration) {
@@ -142,39 +197,79 @@ public class RoboCodeLUT {
         }
     }
 
-    private void trainLastN() {
-        // train the last N vectors
-        for (int i = 0; i < lastNCount; i ++) {
-            double[] inputVector = lastNInputVectors[(lastNHead + i) % lastNSize];
-            int[] curState = lastNState[(lastNHead + i) % lastNSize];
-            double reward = lastNReward[(lastNHead + i) % lastNSize];
+    private void trainReplay() {
+        // train a minibatch of remembered transitions
+        int count = replayLatest ? replay.latest(replayIndices, replayWeights) :
+                replay.sample(rand, replayIndices, replayWeights);
+        for (int i = 0; i < count; i ++) {
+            int index = replayIndices[i];
+            int nextState = replay.getNextState(index);
+            double reward = replay.getReward(index);
 
-            double optimalQ = Double.NEGATIVE_INFINITY;
-            for (int j = 0; j < actionDim; j ++) {
-                double q = neuralnet.outputFor(SAToOneHot(curState, Action.values()[j]))[0];
-                if (q > optimalQ) {
-                    optimalQ = q;
-                }
-            }
+            double optimalQ = target == null ? qCache.maxQ(nextState) : target.maxQ(nextState);
 
             boolean takeExploration = rand.nextDouble() <= e;
             Action randomAction = null;
             double randomQ = 0;
             if (takeExploration) {
                 int actionIndex = rand.nextInt(actionDim);
-                randomAction = Action.values()[actionIndex];
-                randomQ = neuralnet.outputFor(SAToOneHot(curState, randomAction))[0];
+                randomAction = actions[actionIndex];
+                randomQ = target == null ? qCache.q(nextState, randomAction) : target.q(nextState, randomAction);
             }
 
-            double prevQ = neuralnet.outputFor(inputVector)[0];
-            double newQ;
+            int[] input = SAToActive(replay.getState(index), actions[replay.getAction(index)], prevInput);
+            double prevQ = neuralnet.outputIntoEncoded(input, qOutput)[0];
+            double tdError;
             if (useOffPolicy || !takeExploration) {
-                newQ = prevQ + alpha * (reward + gamma * optimalQ - prevQ);
+                tdError = reward + gamma * optimalQ - prevQ;
             } else {
-                newQ = prevQ + alpha * (reward + gamma * randomQ - prevQ);
+                tdError = reward + gamma * randomQ - prevQ;
+            }
+            neuralnet.trainEncoded(input, prevQ + replayWeights[i] * alpha * tdError);
+            replay.updatePriority(index, tdError);
+        }
+    }
+
+    private void countTargetUpdate() {
+        if (target == null) {
+            return;
+        }
+        targetUpdateCount ++;
+        if (targetUpdateCount >= targetSyncInterval) {
+            targetUpdateCount = 0;
+            target.sync();
+        }
+    }
+
+    /**
+     * Update the Q value of a transition collected elsewhere, e.g. by a RolloutEngine worker,
+     * without picking an action. This is the update of updateValue and updateValueNN: curAction
+     * is the action the collector took in curState, which on-policy learning bootstraps from.
+     */
+    public void learn(int[] prevState, Action prevAction, double reward, int[] curState, Action curAction) {
+        learn(stateCode(prevState), prevAction, reward, stateCode(curState), curAction);
+    }
+
+    /**
+     * learn on state codes, see stateCode.
+     */
+    public void learn(int prevCode, Action prevAction, double reward, int curCode, Action curAction) {
+        if (useNN) {
+            double curQ = useOffPolicy ? qCache.maxQ(curCode) : qCache.q(curCode, curAction);
+            int[] input = SAToActive(prevCode, prevAction, prevInput);
+            double prevQ = neuralnet.outputIntoEncoded(input, qOutput)[0];
+            neuralnet.trainEncoded(input, prevQ + alpha * (reward + gamma * curQ - prevQ));
+            if (replaySize > 0) {
+                trainReplay();
+                replay.add(prevCode, prevAction.getValue(), reward, curCode);
             }
-            neuralnet.train(inputVector, new double[]{newQ});
+            countTargetUpdate();
+            return;
         }
+
+        double curQ = useOffPolicy ? lut.max(curCode) : lut.get(curCode, curAction.getValue());
+        lut.update(prevCode, prevAction.getValue(), alpha, reward + gamma * curQ);
+        lut.visit(curCode, curAction.getValue());
     }
 
 
@@ -188,157 +283,198 @@ public class RoboCodeLUT {
      * @param reward
      */
     public Action updateValue(int[] curState, int[] prevState, Action prevAction, double reward) {
+        return updateValue(stateCode(curState), prevState == null ? NO_STATE : stateCode(prevState),
+                prevAction, reward);
+    }
+
+    /**
+     * updateValue on state codes, see stateCode.
+     * @param prevState NO_STATE on the first step
+     */
+    public Action updateValue(int curCode, int prevState, Action prevAction, double reward) {
+        long time = profiler == null ? 0 : System.nanoTime();
 
         // get optimal action
-        double[] actionSpace = getActionSpace(curState);
-        Action optimalAction = getOptimalAction(actionSpace);
+        Action optimalAction = actions[lut.argmax(curCode)];
 
         // decide whether to take the exploration move
         boolean takeExploration = rand.nextDouble() <= e;
         Action randomAction = null;
         if (takeExploration) {
-            randomAction = getRandomAction(actionSpace);
+            randomAction = actions[rand.nextInt(actionDim)];
+        }
+        if (profiler != null) {
+            time = profiler.lap(Phase.SELECT, time);
         }
 
         // update prev state-action pair based on the policy
-        // prevState could be null when it's the first step
-        if (prevState != null) {
-            double[] prevActionSpace = getActionSpace(prevState);
-            if (useOffPolicy || !takeExploration) {
-                prevActionSpace[prevAction.getValue()] = prevActionSpace[prevAction.getValue()] + alpha * (reward +
-                        gamma * actionSpace[optimalAction.getValue()] - prevActionSpace[prevAction.getValue()]);
+        // prevState could be NO_STATE when it's the first step
+        if (prevState != NO_STATE) {
+            double curQ = lut.get(curCode, (useOffPolicy || !takeExploration ? optimalAction : randomAction).getValue());
+            if (traces == null) {
+                lut.update(prevState, prevAction.getValue(), alpha, reward + gamma * curQ);
             } else {
-                prevActionSpace[prevAction.getValue()] = prevActionSpace[prevAction.getValue()] + alpha * (reward +
-                        gamma * actionSpace[randomAction.getValue()] - prevActionSpace[prevAction.getValue()]);
+                updateTraces(prevState, prevAction, reward + gamma * curQ,
+                        takeExploration && randomAction != optimalAction);
             }
+        } else if (traces != null) {
+            // a new round, its first pair is not to blame for the last one
+            traces.clear();
+        }
+        if (profiler != null && prevState != NO_STATE) {
+            profiler.lap(Phase.TRAIN, time);
         }
 
-        int[] access = getAccess(curState);
         // return the action for this state
         if (takeExploration) {
-            access[randomAction.getValue()] ++;
+            lut.visit(curCode, randomAction.getValue());
             return randomAction;
         } else {
-            access[optimalAction.getValue()] ++;
+            lut.visit(curCode, optimalAction.getValue());
             return optimalAction;
         }
 
     }
 
-    public void initialize() {
-        // holy
-        for (int a = 0; a < posXDim; a ++) {
-            for (int b = 0; b < posYDim; b ++) {
-//                for (int c = 0; c < headingDim; c ++) {
-                    for (int d = 0; d < energyDim; d ++) {
-                        for (int e = 0; e < enemyDistanceDim; e ++) {
-//                            for (int f = 0; f < enemyBearingDim; f ++) {
-                                for (int g = 0; g < gunHeatDim; g ++) {
-                                    for (int i = 0; i < actionDim; i ++) {
-                                        lut[a][b][d][e][g][i] = rand.nextDouble() * 100;
-                                        access[a][b][d][e][g][i] = 0;
-                                    }
-                                }
-//                            }
-                        }
-                    }
-//                }
-            }
+    /**
+     * Watkins' Q(lambda) step: move every pair with a trace by its share of the TD error of the
+     * previous pair, then decay the traces, or drop them all after an exploratory action in
+     * off-policy mode since the greedy policy the targets follow was left there. On-policy
+     * this is Sarsa(lambda) and the traces always decay.
+     * @param exploratory Whether the action taken in the current state is not the greedy one
+     */
+    private void updateTraces(int prevState, Action prevAction, double target, boolean exploratory) {
+        double delta = target - lut.get(prevState, prevAction.getValue());
+        traces.mark(prevState * actionDim + prevAction.getValue());
+        for (int i = 0; i < traces.getActiveNum(); i ++) {
+            int index = traces.getIndex(i);
+            int state = index / actionDim;
+            int action = index % actionDim;
+            lut.set(state, action, lut.get(state, action) + alpha * delta * traces.getTrace(i));
+        }
+        if (useOffPolicy && exploratory) {
+            traces.clear();
+        } else {
+            traces.decay(gamma * lambda);
         }
     }
 
-    private double[] SAToOneHot(int[] state, Action action) {
-        double[] oneHot = new double[20];
-        int ofs = 0;
-        for (int i = 0; i < posXDim; i ++) {
-            oneHot[i + ofs] = i == state[0] ? 1 : -1;
+    /**
+     * Reseed the random generators and start over from new Q values and network weights,
+     * so a training run can be repeated.
+     */
+    public void initialize(long seed) {
+        rand.setSeed(seed);
+        initialize();
+        if (neuralnet != null) {
+            neuralnet.setSeed(seed);
+            neuralnet.initializeWeights();
+            if (replay != null) {
+                replay.clear();
+            }
+            if (target != null) {
+                targetUpdateCount = 0;
+                target.sync();
+            }
         }
-        ofs += posXDim;
+    }
 
-        for (int i = 0; i < posYDim; i ++) {
-            oneHot[i + ofs] = i == state[1] ? 1 : -1;
+    public void initialize() {
+        lut.initialize(rand, 100);
+        if (traces != null) {
+            traces.clear();
         }
-        ofs += posYDim;
+    }
 
-        for (int i = 0; i < energyDim; i ++) {
-            oneHot[i + ofs] = i == state[2] ? 1 : -1;
-        }
+    /**
+     * Encode a state-action pair as the indices of the +1 entries of the bipolar one hot
+     * input vector of the neural network, one per state category followed by the action.
+     * Every other entry of the input vector is -1.
+     * @param active Receives the indices, of size encodedDim
+     * @return active
+     */
+    public static int[] SAToActive(int[] state, Action action, int[] active) {
+        int ofs = 0;
+        active[0] = ofs + state[0];
+        ofs += posXDim;
+        active[1] = ofs + state[1];
+        ofs += posYDim;
+        active[2] = ofs + state[2];
         ofs += energyDim;
-
-        for (int i = 0; i < enemyDistanceDim; i ++) {
-            oneHot[i + ofs] = i == state[3] ? 1 : -1;
-        }
+        active[3] = ofs + state[3];
         ofs += enemyDistanceDim;
-
-        for (int i = 0; i < gunHeatDim; i ++) {
-            oneHot[i + ofs] = i == state[4] ? 1 : -1;
-        }
+        active[4] = ofs + state[4];
         ofs += gunHeatDim;
+        active[5] = ofs + action.getValue();
 
-        for (int i = 0; i < actionDim; i ++) {
-            oneHot[i + ofs] = i == action.getValue() ? 1 : -1;
-        }
-
-        return oneHot;
+        return active;
     }
 
     /**
-     * Take the current states and return a random move based on the exploration rate
+     * SAToActive of a state code, without decoding the state first.
      */
-    private Action getRandomAction(double[] actionSpace) {
-        if (actionSpace.length != actionDim) {
-            return null;
-        }
-
-        int actionNum = rand.nextInt(actionDim);
-        for (Action action : Action.values()) {
-            if (actionNum == action.getValue()) {
-                return action;
-            }
+    public static int[] SAToActive(int stateCode, Action action, int[] active) {
+        for (int i = lutDepth - 1; i >= 0; i --) {
+            active[i] = activeOffsets[i] + stateCode % stateRadices[i];
+            stateCode /= stateRadices[i];
         }
+        active[lutDepth] = activeOffsets[lutDepth] + action.getValue();
+        return active;
+    }
 
-        return null;
+    /**
+     * @return The number of a state, in [0, lutSize / actionDim), the same number as
+     *         QLearningRobot.evaluateStateCode gives
+     */
+    public static int stateCode(int[] state) {
+        return FlatLUT.encode(stateRadices, state);
     }
 
     /**
-     * Take the current states and return an action that maximize the Q value
+     * Inverse of stateCode.
+     * @param state Receives the state, of size lutDepth
+     * @return state
      */
-    private Action getOptimalAction(double[] actionSpace) {
-        if (actionSpace.length != actionDim) {
-            return null;
-        }
+    public static int[] decodeState(int code, int[] state) {
+        return FlatLUT.decode(stateRadices, code, state);
+    }
 
-        int optimalActionNum = 0;
-        double maxValue = Double.MIN_VALUE;
-        for (int i = 0; i < actionDim; i ++) {
-            if (maxValue < actionSpace[i]) {
-                maxValue = actionSpace[i];
-                optimalActionNum = i;
-            }
-        }
+    /**
+     * @return The index of the first Q value of a state in the flat order of copyQValues
+     */
+    public static int stateIndex(int[] state) {
+        return stateCode(state) * actionDim;
+    }
 
-        for (Action action : Action.values()) {
-            if (optimalActionNum == action.getValue()) {
-                return action;
-            }
-        }
+    /**
+     * @return The action of the largest Q value of a state by the neural network, a table
+     *         read while the network is not trained
+     */
+    public Action getOptimalActionNN(int[] state) {
+        return qCache.optimalAction(stateCode(state));
+    }
 
-        return null;
+    public Action getOptimalActionNN(int stateCode) {
+        return qCache.optimalAction(stateCode);
     }
 
-    private double[] getActionSpace(int[] state) {
-        if (state.length != lutDepth) {
-            return null;
-        }
+    /**
+     * Compute the Q values of every state with the current weights, e.g. before evaluation
+     * rounds.
+     */
+    public void materializeQValues() {
+        qCache.materialize();
+    }
 
-        return lut[state[0]][state[1]][state[2]][state[3]][state[4]];
+    /**
+     * @return The action of the largest Q value of a state in the LUT
+     */
+    public Action getOptimalAction(int[] state) {
+        return actions[lut.argmax(stateCode(state))];
     }
 
-    private int[] getAccess(int[] state) {
-        if (state.length != lutDepth) {
-            return null;
-        }
-        return access[state[0]][state[1]][state[2]][state[3]][state[4]];
+    public Action getOptimalAction(int stateCode) {
+        return actions[lut.argmax(stateCode)];
     }
 
     public double getAlpha() {
@@ -357,6 +493,150 @@ public class RoboCodeLUT {
         return useOffPolicy;
     }
 
+    public boolean getUseNN() {
+        return useNN;
+    }
+
+    /**
+     * Replay the transitions of large TD error more often, with a PrioritizedReplayBuffer of
+     * the same capacity. The replay memory starts over empty, and is sampled even when it was
+     * swept in order.
+     */
+    public void setPrioritizedReplay(double priorityExponent, double initialBeta, int betaAnnealSteps) {
+        if (replay == null) {
+            throw new IllegalStateException("The neural network does not replay");
+        }
+        replay = new PrioritizedReplayBuffer(replay.getCapacity(), priorityExponent, initialBeta,
+                betaAnnealSteps);
+        replayLatest = false;
+    }
+
+    /**
+     * Bootstrap the replayed transitions from a frozen copy of the network, synced every
+     * syncInterval updates, instead of the live network. 0 turns the target network off.
+     */
+    public void setTargetNetwork(int syncInterval) {
+        if (!useNN) {
+            throw new IllegalStateException("The LUT has no neural network");
+        }
+        if (syncInterval <= 0) {
+            target = null;
+            return;
+        }
+        try {
+            target = new TargetNetwork(neuralnet);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        targetSyncInterval = syncInterval;
+        targetUpdateCount = 0;
+    }
+
+    /**
+     * Time the phases of updateValue and updateValueNN: selecting the action, training on the
+     * previous transition and replaying. null turns the timing off.
+     */
+    public void setProfiler(DecisionProfiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public DecisionProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Let updateValue on the table assign credit with eligibility traces, Watkins' Q(lambda),
+     * instead of one step. A step then costs the number of pairs whose trace is at least
+     * cutoff, at most about log(cutoff) / log(gamma * lambda) of them. The traces are cleared
+     * when a round starts, at the first call with NO_STATE. learn stays one step, the
+     * transitions it gets need not follow each other. The traces follow a single trajectory,
+     * so they are refused on a ConcurrentLUT.
+     * @param lambda Decay of the traces, 0 turns them off
+     */
+    public void setTraces(double lambda, double cutoff) {
+        if (lambda <= 0) {
+            traces = null;
+            return;
+        }
+        if (lut instanceof ConcurrentLUT) {
+            throw new IllegalStateException("Eligibility traces need a table updated by one thread");
+        }
+        if (cutoff <= 0 || cutoff >= 1) {
+            throw new IllegalArgumentException("Trace cutoff must be in (0, 1), got " + cutoff);
+        }
+        this.lambda = lambda;
+        this.traces = new EligibilityTraces(lutSize, cutoff);
+    }
+
+    /**
+     * @return The eligibility traces, null without Q(lambda)
+     */
+    public EligibilityTraces getTraces() {
+        return traces;
+    }
+
+    /**
+     * Keep the Q values in a ConcurrentLUT, so several threads may call learn and updateValue
+     * on this LUT at once without losing updates, and initialize it. The network, the replay
+     * and the exploration rate settings are not made thread safe. Eligibility traces are
+     * refused, their sweep over the table is not atomic and they follow a single trajectory.
+     */
+    public void setConcurrentTable() {
+        if (traces != null) {
+            throw new IllegalStateException("Eligibility traces need a table updated by one thread");
+        }
+        lut = new ConcurrentLUT(FlatLUT.radicesOf(QLearningRobot.stateDim), QLearningRobot.actionNum);
+        initialize();
+    }
+
+    /**
+     * Keep the Q values in a MappedLUT on a file, which other processes may map to follow the
+     * learning. A new file is initialized; an existing one is used as it is, so learning picks
+     * up where the table was left.
+     * @return Whether the file was created
+     * @throws IOException When the file holds a table of other dimensions
+     */
+    public boolean setMappedTable(File file) throws IOException {
+        MappedLUT mapped = MappedLUT.open(file, FlatLUT.radicesOf(QLearningRobot.stateDim), QLearningRobot.actionNum);
+        lut = mapped;
+        if (mapped.isCreated()) {
+            initialize();
+        }
+        return mapped.isCreated();
+    }
+
+    /**
+     * @return The table of the Q values and visit counts
+     */
+    public QTable getTable() {
+        return lut;
+    }
+
+    /**
+     * @return The target network, null when the replay bootstraps from the live network
+     */
+    public TargetNetwork getTargetNetwork() {
+        return target;
+    }
+
+    /**
+     * Keep the Q values in a SparseLUT, which only stores the pairs that were touched, and
+     * initialize it. Meant to be called before learning starts; the learned values are dropped.
+     * @param maxEntries Number of pairs kept before cold ones are evicted, 0 for no limit
+     */
+    public void setSparseTable(int maxEntries) {
+        lut = new SparseLUT(FlatLUT.radicesOf(QLearningRobot.stateDim), QLearningRobot.actionNum, maxEntries);
+        initialize();
+    }
+
+    /**
+     * @return The replay memory of the neural network, null when it does not replay
+     */
+    public ReplayBuffer getReplayBuffer() {
+        return replay;
+    }
+
     public void setAlpha(double alpha) {
         this.alpha = alpha;
     }
@@ -380,28 +660,56 @@ public class RoboCodeLUT {
      * @param argFile of type File.
      */
     public void save(File argFile) {
-        PrintStream ps = null;
         try {
-            ps = new PrintStream(new RobocodeFileOutputStream(argFile));
-            for (int a = 0; a < posXDim; a ++) {
-                for (int b = 0; b < posYDim; b ++) {
-                    for (int c = 0; c < energyDim; c ++) {
-                        for (int d = 0; d < enemyDistanceDim; d ++) {
-                            for (int e = 0; e < gunHeatDim; e ++) {
-                                for (int f = 0; f < actionDim; f ++) {
-                                    ps.println(lut[a][b][c][d][e][f]);
-                                }
-                            }
-                        }
-                    }
-                }
-            }
-            ps.close();
+            RobocodeFileOutputStream stream = new RobocodeFileOutputStream(argFile);
+            snapshot().writeTo(stream);
+            stream.close();
         } catch (IOException ioException) {
             ioException.printStackTrace();
         }
         return;
     }
+
+    /**
+     * Copy the Q values for a checkpoint written later, possibly on another thread.
+     * The snapshot writes the same text as save. A SparseLUT is copied and written whole,
+     * in its own format of the stored pairs.
+     */
+    public CheckpointService.Snapshot snapshot() {
+        if (lut instanceof SparseLUT) {
+            SparseLUT copy = ((SparseLUT) lut).copy();
+            return out -> {
+                PrintStream ps = new PrintStream(out);
+                copy.write(ps);
+                ps.flush();
+                if (ps.checkError()) {
+                    throw new IOException("Could not write the LUT");
+                }
+            };
+        }
+        double[] values = copyQValues(new double[lutSize]);
+        return out -> {
+            PrintStream ps = new PrintStream(out);
+            for (double value : values) {
+                ps.println(value);
+            }
+            ps.flush();
+            if (ps.checkError()) {
+                throw new IOException("Could not write the LUT");
+            }
+        };
+    }
+
+    /**
+     * Copy the Q values into a flat array in the order of the saved file, the values of
+     * a state starting at stateIndex(state).
+     * @param values Receives the values, of size lutSize
+     * @return values
+     */
+    public double[] copyQValues(double[] values) {
+        return lut.copyValues(values);
+    }
+
     /**
      * Loads the LUT or neural net weights from file. The load must of course
      * have knowledge of how the data was written out by the save method.
@@ -414,19 +722,7 @@ public class RoboCodeLUT {
         BufferedReader reader = null;
         try {
             reader = new BufferedReader(new FileReader(argFile));
-            for (int a = 0; a < posXDim; a ++) {
-                for (int b = 0; b < posYDim; b ++) {
-                    for (int c = 0; c < energyDim; c ++) {
-                        for (int d = 0; d < enemyDistanceDim; d ++) {
-                            for (int e = 0; e < gunHeatDim; e ++) {
-                                for (int f = 0; f < actionDim; f ++) {
-                                    lut[a][b][c][d][e][f] = Double.parseDouble(reader.readLine());
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+            lut.read(reader);
             reader.close();
         } catch (FileNotFoundException fileNotFoundException) {
             fileNotFoundException.printStackTrace();
@@ -435,4 +731,12 @@ public class RoboCodeLUT {
         }
         return;
     }
+
+    /**
+     * Read the values written by save from a stream, e.g. the newest checkpoint of
+     * CheckpointService.readLatest. The stream is not closed.
+     */
+    public void load(InputStream in) throws IOException {
+        lut.read(new BufferedReader(new InputStreamReader(in)));
+    }
 }
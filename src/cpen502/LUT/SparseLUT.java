@@ -0,0 +1,512 @@
+package cpen502.LUT;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * Look up table that only stores the state-action pairs that were touched, for
+ * discretizations too fine to allocate whole.
+ *
+ * The pairs live in an open addressing hash table with linear probing, keyed by
+ * stateCode * actionNum + action as a long, the value and the visit count of a slot in
+ * primitive arrays next to the key. A pair that was never stored reads as its initial value,
+ * which is derived from the key and the seed drawn by initialize, so it is the same whenever
+ * it is read and whichever pairs were touched before. Only set and visit store a pair; reading
+ * states, as argmax does on every decision, allocates nothing.
+ *
+ * The table doubles when it is 3/4 full. With maxEntries set it never grows past maxEntries
+ * pairs instead: storing one more evicts a cold pair, picked by a clock sweep that spares the
+ * pairs read or written since the last sweep passed them. An evicted pair reads as its initial
+ * value again and loses its visit count.
+ *
+ * write only writes the stored pairs, after a header with the seed of the initial values:
+ *
+ *   sparse <stateNum> <actionNum> <seed> <scale> <entryNum>
+ *   <key> <value>
+ *
+ * one line per pair, so the file grows with the pairs learned rather than with the table.
+ * read takes that file as well as the dense one of FlatLUT.
+ */
+public class SparseLUT implements QTable {
+    private final static int INITIAL_CAPACITY = 1024;
+    final static String SPARSE_HEADER = "sparse";
+
+    final int[] radices;
+    final int stateNum;
+    final int actionNum;
+    final int maxEntries;
+
+    // key + 1 of the pair in a slot, 0 for an empty slot
+    private long[] keys;
+    private double[] values;
+    private int[] access;
+    // set on every read and write of a slot, cleared by the clock sweep
+    private boolean[] referenced;
+    private int mask;
+    private int count;
+    private int hand;
+    private long evictionNum;
+
+    private long seed;
+    private double scale;
+
+    /**
+     * @param maxEntries Number of pairs stored before cold ones are evicted, 0 for no limit
+     */
+    public SparseLUT(int[] radices, int actionNum, int maxEntries) {
+        int stateNum = 1;
+        for (int radix : radices) {
+            if (radix < 1) {
+                throw new IllegalArgumentException("Invalid radix " + radix);
+            }
+            stateNum = Math.multiplyExact(stateNum, radix);
+        }
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Max entries must not be negative, got " + maxEntries);
+        }
+        this.radices = radices.clone();
+        this.stateNum = stateNum;
+        this.actionNum = actionNum;
+        this.maxEntries = maxEntries;
+        allocate(maxEntries > 0 ? capacityFor(maxEntries) : INITIAL_CAPACITY);
+    }
+
+    /**
+     * Copy the pairs, the visit counts and the initial values of another table.
+     */
+    private SparseLUT(SparseLUT other) {
+        this.radices = other.radices;
+        this.stateNum = other.stateNum;
+        this.actionNum = other.actionNum;
+        this.maxEntries = other.maxEntries;
+        this.keys = other.keys.clone();
+        this.values = other.values.clone();
+        this.access = other.access.clone();
+        this.referenced = other.referenced.clone();
+        this.mask = other.mask;
+        this.count = other.count;
+        this.hand = other.hand;
+        this.evictionNum = other.evictionNum;
+        this.seed = other.seed;
+        this.scale = other.scale;
+    }
+
+    /**
+     * @return A copy of the table, e.g. for a checkpoint written on another thread. It takes
+     *         the memory of the stored pairs, not of the whole table
+     */
+    public SparseLUT copy() {
+        return new SparseLUT(this);
+    }
+
+    /**
+     * @return The smallest power of two that holds entryNum pairs at most 3/4 full
+     */
+    private static int capacityFor(int entryNum) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity / 4 * 3 < entryNum) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new double[capacity];
+        access = new int[capacity];
+        referenced = new boolean[capacity];
+        mask = capacity - 1;
+        count = 0;
+        hand = 0;
+    }
+
+    private long key(int stateCode, int action) {
+        Objects.checkIndex(stateCode, stateNum);
+        Objects.checkIndex(action, actionNum);
+        return (long) stateCode * actionNum + action;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 29));
+    }
+
+    /**
+     * @return The slot of a key, or the complement of the empty slot it would take
+     */
+    private int find(long key) {
+        long stored = key + 1;
+        int slot = hash(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == stored) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return ~slot;
+    }
+
+    /**
+     * The value of a pair that is not stored, uniform in [0, scale) by a SplitMix64 step.
+     */
+    private double initialValue(long key) {
+        long z = seed + key * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z ^= z >>> 31;
+        return (z >>> 11) * 0x1.0p-53 * scale;
+    }
+
+    /**
+     * @return The slot of a pair, storing it with its initial value if it is not stored
+     */
+    private int touch(long key) {
+        int slot = find(key);
+        if (slot < 0) {
+            if (maxEntries > 0 && count == maxEntries) {
+                evict();
+                slot = find(key);
+            } else if (maxEntries == 0 && count >= keys.length / 4 * 3) {
+                grow();
+                slot = find(key);
+            }
+            slot = ~slot;
+            keys[slot] = key + 1;
+            values[slot] = initialValue(key);
+            access[slot] = 0;
+            count ++;
+        }
+        referenced[slot] = true;
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldValues = values;
+        int[] oldAccess = access;
+        boolean[] oldReferenced = referenced;
+        int oldCount = count;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i ++) {
+            if (oldKeys[i] != 0) {
+                int slot = ~find(oldKeys[i] - 1);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                access[slot] = oldAccess[i];
+                referenced[slot] = oldReferenced[i];
+            }
+        }
+        count = oldCount;
+    }
+
+    /**
+     * Advance the clock hand to the first pair not referenced since the hand last passed it,
+     * clearing the marks on the way, and remove that pair.
+     */
+    private void evict() {
+        while (true) {
+            if (keys[hand] != 0) {
+                if (!referenced[hand]) {
+                    remove(hand);
+                    evictionNum ++;
+                    return;
+                }
+                referenced[hand] = false;
+            }
+            hand = (hand + 1) & mask;
+        }
+    }
+
+    /**
+     * Empty a slot and shift back the pairs of its probe run that may take its place, so a
+     * lookup never needs to skip deleted slots.
+     */
+    private void remove(int slot) {
+        int gap = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            if (keys[i] == 0) {
+                break;
+            }
+            int home = hash(keys[i] - 1) & mask;
+            // the pair at i may move to the gap if its home slot is not after the gap
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                access[gap] = access[i];
+                referenced[gap] = referenced[i];
+                gap = i;
+            }
+        }
+        keys[gap] = 0;
+        referenced[gap] = false;
+        count --;
+    }
+
+    @Override
+    public double get(int stateCode, int action) {
+        long key = key(stateCode, action);
+        int slot = find(key);
+        if (slot < 0) {
+            return initialValue(key);
+        }
+        referenced[slot] = true;
+        return values[slot];
+    }
+
+    @Override
+    public void set(int stateCode, int action, double value) {
+        // touch may grow the arrays, so it goes before reading the field
+        int slot = touch(key(stateCode, action));
+        values[slot] = value;
+    }
+
+    @Override
+    public void visit(int stateCode, int action) {
+        int slot = touch(key(stateCode, action));
+        access[slot] ++;
+    }
+
+    /**
+     * @return The number of visits of a pair, 0 when it is not stored
+     */
+    public int getAccess(int stateCode, int action) {
+        int slot = find(key(stateCode, action));
+        return slot >= 0 ? access[slot] : 0;
+    }
+
+    @Override
+    public int argmax(int stateCode) {
+        int optimal = 0;
+        double optimalValue = get(stateCode, 0);
+        for (int i = 1; i < actionNum; i ++) {
+            double value = get(stateCode, i);
+            if (value > optimalValue) {
+                optimalValue = value;
+                optimal = i;
+            }
+        }
+        return optimal;
+    }
+
+    @Override
+    public double max(int stateCode) {
+        double max = get(stateCode, 0);
+        for (int i = 1; i < actionNum; i ++) {
+            max = Math.max(max, get(stateCode, i));
+        }
+        return max;
+    }
+
+    /**
+     * Draw a new seed for the initial values and drop every stored pair.
+     */
+    @Override
+    public void initialize(Random random, double scale) {
+        this.seed = random.nextLong();
+        this.scale = scale;
+        clear();
+        evictionNum = 0;
+    }
+
+    /**
+     * Drop every stored pair.
+     */
+    private void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(referenced, false);
+        count = 0;
+        hand = 0;
+    }
+
+    /**
+     * @return Whether some pair is not stored and reads as its initial value
+     */
+    private boolean hasInitialValues() {
+        return count < (long) stateNum * actionNum;
+    }
+
+    /**
+     * Goes through the stored pairs only. A pair that is not stored counts as 0, the lower
+     * bound of the initial values, so this is a bound rather than the smallest value.
+     */
+    @Override
+    public double minValue() {
+        double min = hasInitialValues() ? 0 : Double.POSITIVE_INFINITY;
+        for (int slot = 0; slot < keys.length; slot ++) {
+            if (keys[slot] != 0) {
+                min = Math.min(min, values[slot]);
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Goes through the stored pairs only. A pair that is not stored counts as scale, the upper
+     * bound of the initial values, so this is a bound rather than the largest value.
+     */
+    @Override
+    public double maxValue() {
+        double max = hasInitialValues() ? scale : Double.NEGATIVE_INFINITY;
+        for (int slot = 0; slot < keys.length; slot ++) {
+            if (keys[slot] != 0) {
+                max = Math.max(max, values[slot]);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Fills in the initial values, then the stored pairs over them.
+     */
+    @Override
+    public double[] copyValues(double[] values) {
+        for (int i = 0; i < values.length; i ++) {
+            values[i] = initialValue(i);
+        }
+        for (int slot = 0; slot < keys.length; slot ++) {
+            if (keys[slot] != 0) {
+                values[(int) (keys[slot] - 1)] = this.values[slot];
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Writes the stored pairs in the sparse format of the class comment, in no particular order.
+     */
+    @Override
+    public void write(PrintStream ps) {
+        ps.println(SPARSE_HEADER + " " + stateNum + " " + actionNum + " " + seed + " " + scale + " " + count);
+        for (int slot = 0; slot < keys.length; slot ++) {
+            if (keys[slot] != 0) {
+                ps.println((keys[slot] - 1) + " " + values[slot]);
+            }
+        }
+    }
+
+    /**
+     * Replaces the stored pairs with the ones of a file written by write, or of a dense file
+     * of one value per pair, where only the values that differ from their initial value are
+     * stored. Visit counts start over. The file is parsed whole before the table changes.
+     * @throws IOException When the file is malformed, of other dimensions, or holds more
+     *                     pairs than maxEntries; the table is left as it was
+     */
+    @Override
+    public void read(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null) {
+            throw new EOFException("The LUT file is empty");
+        }
+        long pairNum = (long) stateNum * actionNum;
+        long[] readKeys = new long[INITIAL_CAPACITY];
+        double[] readValues = new double[INITIAL_CAPACITY];
+        int readNum = 0;
+        long readSeed = seed;
+        double readScale = scale;
+        try {
+            if (line.startsWith(SPARSE_HEADER + " ")) {
+                String[] header = line.split(" ");
+                if (header.length != 6) {
+                    throw new IOException("Malformed sparse LUT header: " + line);
+                }
+                if (Integer.parseInt(header[1]) != stateNum || Integer.parseInt(header[2]) != actionNum) {
+                    throw new IOException("The LUT file has " + header[1] + " states of " + header[2]
+                            + " actions, " + stateNum + " of " + actionNum + " expected");
+                }
+                readSeed = Long.parseLong(header[3]);
+                readScale = Double.parseDouble(header[4]);
+                int entryNum = Integer.parseInt(header[5]);
+                checkEntryNum(entryNum);
+                readKeys = new long[entryNum];
+                readValues = new double[entryNum];
+                for (; readNum < entryNum; readNum ++) {
+                    line = reader.readLine();
+                    if (line == null) {
+                        throw new EOFException("The LUT file ends after " + readNum + " of " + entryNum + " pairs");
+                    }
+                    int space = line.indexOf(' ');
+                    long key = Long.parseLong(line.substring(0, space));
+                    if (key < 0 || key >= pairNum) {
+                        throw new IOException("Pair " + key + " out of the " + pairNum + " of the table");
+                    }
+                    readKeys[readNum] = key;
+                    readValues[readNum] = Double.parseDouble(line.substring(space + 1));
+                }
+            } else {
+                for (long key = 0; key < pairNum; key ++) {
+                    if (line == null) {
+                        throw new EOFException("The LUT file ends after " + key + " of " + pairNum + " values");
+                    }
+                    double value = Double.parseDouble(line);
+                    if (value != initialValue(key)) {
+                        checkEntryNum(readNum + 1);
+                        if (readNum == readKeys.length) {
+                            readKeys = Arrays.copyOf(readKeys, readNum * 2);
+                            readValues = Arrays.copyOf(readValues, readNum * 2);
+                        }
+                        readKeys[readNum] = key;
+                        readValues[readNum] = value;
+                        readNum ++;
+                    }
+                    line = key + 1 < pairNum ? reader.readLine() : null;
+                }
+            }
+        } catch (NumberFormatException | StringIndexOutOfBoundsException e) {
+            throw new IOException("Malformed LUT file line: " + line, e);
+        }
+
+        seed = readSeed;
+        scale = readScale;
+        clear();
+        for (int i = 0; i < readNum; i ++) {
+            int slot = touch(readKeys[i]);
+            values[slot] = readValues[i];
+        }
+        // pairs touched since are the ones of the file, not recently used ones
+        Arrays.fill(referenced, false);
+    }
+
+    private void checkEntryNum(int entryNum) throws IOException {
+        if (entryNum < 0 || maxEntries > 0 && entryNum > maxEntries) {
+            throw new IOException("The LUT file holds " + entryNum + " learned pairs, more than the "
+                    + maxEntries + " the table keeps");
+        }
+    }
+
+    @Override
+    public int getStateNum() {
+        return stateNum;
+    }
+
+    @Override
+    public int getActionNum() {
+        return actionNum;
+    }
+
+    @Override
+    public long getMemoryBytes() {
+        return (long) keys.length * (Long.BYTES + Double.BYTES + Integer.BYTES + 1);
+    }
+
+    /**
+     * @return The number of stored pairs
+     */
+    public int getEntryNum() {
+        return count;
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    /**
+     * @return The number of pairs evicted since initialize
+     */
+    public long getEvictionNum() {
+        return evictionNum;
+    }
+}
@@ -0,0 +1,213 @@
+package cpen502.LUT;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs random sets and visits on a SparseLUT, unbounded and with maxEntries set, and checks
+ * every pair against a HashMap of the values and visits it should hold.
+ *
+ * Every set comes with a visit, so a stored pair has at least one visit and a pair without
+ * visits was evicted; an evicted pair must read as its initial value again, taken from an
+ * untouched table of the same seed. Evictions empty slots in the middle of probe runs, so
+ * finding every pair left in the model checks the backward shift of remove. The states are
+ * skewed towards a hot set, which the clock sweep should keep.
+ *
+ * Then the file formats: the sparse file and a dense one read back to the same table, twice,
+ * a read replaces stale learned values, and a file that does not fit is refused.
+ */
+public class SparseLUTTest {
+    static final int[] RADICES = new int[]{64, 64, 16};
+    static final int ACTION_NUM = 5;
+    static final int MAX_ENTRIES = 700;
+    static final int STEPS = 200000;
+    static final int CHECK_INTERVAL = 10000;
+    static final int HOT_STATES = 20;
+
+    public static void main(String[] args) throws IOException {
+        int stateNum = RADICES[0] * RADICES[1] * RADICES[2];
+
+        for (int maxEntries : new int[]{0, MAX_ENTRIES}) {
+            SparseLUT lut = new SparseLUT(RADICES, ACTION_NUM, maxEntries);
+            lut.initialize(new Random(1), 100);
+            SparseLUT initial = new SparseLUT(RADICES, ACTION_NUM, 0);
+            initial.initialize(new Random(1), 100);
+
+            Map<Long, double[]> model = new HashMap<>(); // key -> {value, visits}
+            Random random = new Random(maxEntries);
+            int stepNum = maxEntries > 0 ? STEPS / 4 : STEPS;
+            for (int step = 1; step <= stepNum; step ++) {
+                int state = random.nextInt(4) == 0 ? random.nextInt(HOT_STATES) : random.nextInt(stateNum);
+                int action = random.nextInt(ACTION_NUM);
+                long key = (long) state * ACTION_NUM + action;
+                double[] expected = model.computeIfAbsent(key, k -> new double[]{initial.get(state, action), 0});
+                if (random.nextBoolean()) {
+                    expected[0] = random.nextDouble() * 200 - 100;
+                    lut.set(state, action, expected[0]);
+                }
+                lut.visit(state, action);
+                expected[1] ++;
+                // with a limit every step, so a pair evicted and stored again is not missed
+                if (maxEntries > 0 || step % CHECK_INTERVAL == 0) {
+                    checkAgainst(lut, initial, model);
+                }
+            }
+            checkAgainst(lut, initial, model);
+            if (maxEntries > 0) {
+                check("evicted", lut.getEvictionNum() > 0);
+                check("capacity kept", lut.getCapacity() == 1024);
+                int hotStored = 0;
+                for (int state = 0; state < HOT_STATES; state ++) {
+                    for (int action = 0; action < ACTION_NUM; action ++) {
+                        hotStored += lut.getAccess(state, action) > 0 ? 1 : 0;
+                    }
+                }
+                check("hot pairs kept by the clock", hotStored > HOT_STATES * ACTION_NUM * 3 / 4);
+            } else {
+                check("nothing evicted", lut.getEvictionNum() == 0);
+            }
+            for (int state = 0; state < stateNum; state ++) {
+                for (int action = 0; action < ACTION_NUM; action ++) {
+                    if (!model.containsKey((long) state * ACTION_NUM + action)) {
+                        check("untouched pair", lut.get(state, action) == initial.get(state, action));
+                    }
+                }
+            }
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (double[] expected : model.values()) {
+                min = Math.min(min, expected[0]);
+                max = Math.max(max, expected[0]);
+            }
+            // pairs that are not stored count as the bounds of the initial values
+            check("min bound", lut.minValue() == Math.min(min, 0));
+            check("max bound", lut.maxValue() == Math.max(max, 100));
+            System.out.printf("maxEntries %d: %d pairs stored, %d evicted%n", maxEntries,
+                    lut.getEntryNum(), lut.getEvictionNum());
+
+            // the sparse file reads back to the same table, into a table of another seed
+            byte[] sparse = write(lut);
+            check("sparse file", new String(sparse).startsWith(SparseLUT.SPARSE_HEADER + " "));
+            SparseLUT reread = new SparseLUT(RADICES, ACTION_NUM, maxEntries);
+            reread.initialize(new Random(2), 100);
+            reread.set(3, 1, 1234);
+            reread.read(reader(sparse));
+            checkSameValues("sparse round trip", lut, reread);
+            check("sparse entries", reread.getEntryNum() == lut.getEntryNum());
+            reread.read(reader(sparse));
+            checkSameValues("sparse read twice", lut, reread);
+        }
+
+        // a dense file replaces stale learned values, and pairs at their initial value are not stored
+        SparseLUT lut = new SparseLUT(RADICES, ACTION_NUM, 0);
+        lut.initialize(new Random(3), 100);
+        double[] dense = lut.copyValues(new double[stateNum * ACTION_NUM]);
+        for (int i = 0; i < 10; i ++) {
+            dense[i * 97] = -i;
+        }
+        byte[] denseFile = writeDense(dense);
+        for (int state = 0; state < 50; state ++) {
+            lut.set(state, 2, 500);
+        }
+        lut.read(reader(denseFile));
+        check("stale values dropped", lut.getEntryNum() == 10);
+        check("dense values", Arrays.equals(dense, lut.copyValues(new double[dense.length])));
+        lut.set(7, 0, 42);
+        lut.read(reader(denseFile));
+        check("dense read twice", Arrays.equals(dense, lut.copyValues(new double[dense.length])));
+
+        // a file of more learned pairs than maxEntries is refused and leaves the table as it was
+        SparseLUT small = new SparseLUT(RADICES, ACTION_NUM, 5);
+        small.initialize(new Random(3), 100);
+        small.set(1, 1, 7);
+        expectIOException("dense file too large", small, denseFile);
+        expectIOException("sparse file too large", small, write(lut));
+        check("kept after refused read", small.get(1, 1) == 7 && small.getEntryNum() == 1);
+
+        // malformed and foreign files
+        expectIOException("truncated dense file", small, Arrays.copyOf(denseFile, 100));
+        expectIOException("other dimensions", small, "sparse 10 5 0 100.0 0\n".getBytes());
+        expectIOException("pair out of range", small, ("sparse " + stateNum + " 5 0 100.0 1\n"
+                + (stateNum * ACTION_NUM) + " 1.0\n").getBytes());
+        expectIOException("malformed pair", small, ("sparse " + stateNum + " 5 0 100.0 1\n1.0\n").getBytes());
+        check("kept after malformed reads", small.get(1, 1) == 7 && small.getEntryNum() == 1);
+
+        System.out.println("SparseLUTTest passed");
+    }
+
+    /**
+     * Check every pair of the model, dropping the ones the table evicted.
+     */
+    static void checkAgainst(SparseLUT lut, SparseLUT initial, Map<Long, double[]> model) {
+        Iterator<Map.Entry<Long, double[]>> iterator = model.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, double[]> entry = iterator.next();
+            int state = (int) (entry.getKey() / ACTION_NUM);
+            int action = (int) (entry.getKey() % ACTION_NUM);
+            double[] expected = entry.getValue();
+            int visits = lut.getAccess(state, action);
+            if (visits == 0) {
+                if (lut.maxEntries == 0) {
+                    throw new AssertionError("Pair (" + state + ", " + action + ") lost without a limit");
+                }
+                if (lut.get(state, action) != initial.get(state, action)) {
+                    throw new AssertionError("Evicted pair (" + state + ", " + action + ") is "
+                            + lut.get(state, action) + ", its initial value " + initial.get(state, action) + " expected");
+                }
+                iterator.remove();
+            } else if (visits != expected[1] || lut.get(state, action) != expected[0]) {
+                throw new AssertionError("Pair (" + state + ", " + action + ") is " + lut.get(state, action)
+                        + " with " + visits + " visits, " + expected[0] + " with " + (int) expected[1] + " expected");
+            }
+        }
+        check("entry count", lut.getEntryNum() == model.size());
+        check("within maxEntries", lut.maxEntries == 0 || lut.getEntryNum() <= lut.maxEntries);
+    }
+
+    static void checkSameValues(String name, SparseLUT expected, SparseLUT actual) {
+        int pairNum = expected.getStateNum() * ACTION_NUM;
+        check(name, Arrays.equals(expected.copyValues(new double[pairNum]),
+                actual.copyValues(new double[pairNum])));
+    }
+
+    static byte[] write(QTable table) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(out);
+        table.write(ps);
+        ps.flush();
+        return out.toByteArray();
+    }
+
+    static byte[] writeDense(double[] values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(out);
+        for (double value : values) {
+            ps.println(value);
+        }
+        ps.flush();
+        return out.toByteArray();
+    }
+
+    static BufferedReader reader(byte[] file) {
+        return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(file)));
+    }
+
+    static void expectIOException(String name, QTable table, byte[] file) {
+        try {
+            table.read(reader(file));
+        } catch (IOException e) {
+            return;
+        }
+        throw new AssertionError(name + ": read did not fail");
+    }
+
+    static void check(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package cpen502.LUT;
+
+import java.util.Arrays;
+
+/**
+ * Binary tree of priorities over a fixed number of slots, stored in one array like a heap:
+ * node i has the children 2i and 2i+1, and the leaves start at the first power of two
+ * that fits the slots. Every inner node holds the sum of its subtree, so a slot can be
+ * picked with a probability proportional to its priority in O(log n), and a priority
+ * changed in O(log n). A second tree keeps the minimum for the importance sampling weights.
+ */
+public class SumTree {
+    final int capacity;
+    final int leafOffset;
+    final double[] sums;
+    final double[] mins;
+
+    public SumTree(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive, got " + capacity);
+        }
+        this.capacity = capacity;
+        int leafNum = Integer.highestOneBit(capacity);
+        if (leafNum < capacity) {
+            leafNum <<= 1;
+        }
+        leafOffset = leafNum;
+        sums = new double[2 * leafNum];
+        mins = new double[2 * leafNum];
+        clear();
+    }
+
+    /**
+     * Set the priority of a slot, non negative.
+     */
+    public void update(int slot, double priority) {
+        int node = leafOffset + slot;
+        sums[node] = priority;
+        mins[node] = priority;
+        for (node >>= 1; node > 0; node >>= 1) {
+            sums[node] = sums[2 * node] + sums[2 * node + 1];
+            mins[node] = Math.min(mins[2 * node], mins[2 * node + 1]);
+        }
+    }
+
+    public double get(int slot) {
+        return sums[leafOffset + slot];
+    }
+
+    /**
+     * @return The sum of all priorities
+     */
+    public double total() {
+        return sums[1];
+    }
+
+    /**
+     * @return The smallest priority of the slots set since the last clear
+     */
+    public double min() {
+        return mins[1];
+    }
+
+    /**
+     * Find the slot whose range of the cumulative priorities contains value.
+     * @param value In [0, total())
+     */
+    public int find(double value) {
+        int node = 1;
+        while (node < leafOffset) {
+            int left = 2 * node;
+            // rounding may leave value past the last non-empty subtree, stay left of empty ones
+            if (value < sums[left] || sums[left + 1] == 0) {
+                node = left;
+            } else {
+                value -= sums[left];
+                node = left + 1;
+            }
+        }
+        return Math.min(node - leafOffset, capacity - 1);
+    }
+
+    public void clear() {
+        Arrays.fill(sums, 0);
+        Arrays.fill(mins, Double.POSITIVE_INFINITY);
+    }
+}
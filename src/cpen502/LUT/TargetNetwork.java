@@ -0,0 +1,56 @@
+package cpen502.LUT;
+
+import cpen502.nerualnetwork.NeuralNet;
+import cpen502.robots.QLearningRobot.Action;
+
+/**
+ * Frozen copy of the Q network that replayed transitions bootstrap from, as in DQN.
+ *
+ * The copy only changes on sync, so its Q values are served from a QValueCache: the first
+ * lookup of a state after a sync runs the actionDim forward passes, every further lookup
+ * is an array read.
+ */
+public class TargetNetwork {
+    private final NeuralNet source;
+    private final NeuralNet frozen;
+    private final QValueCache cache;
+
+    public TargetNetwork(NeuralNet source) throws Exception {
+        this.source = source;
+        this.frozen = NeuralNet.create(source.getNeuronNums(), source.getActivation(), 0, 0,
+                source.getPrecision());
+        this.cache = new QValueCache(frozen);
+        sync();
+    }
+
+    /**
+     * Copy the weights of the source network, which bumps the weight version of the copy and
+     * so outdates the cached Q values.
+     */
+    public void sync() {
+        frozen.copyWeightsFrom(source);
+    }
+
+    /**
+     * @param stateCode See RoboCodeLUT.stateCode
+     * @return The largest Q value of a state
+     */
+    public double maxQ(int stateCode) {
+        return cache.maxQ(stateCode);
+    }
+
+    /**
+     * @return The Q value of a state-action pair
+     */
+    public double q(int stateCode, Action action) {
+        return cache.q(stateCode, action);
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+}
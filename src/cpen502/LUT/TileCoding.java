@@ -0,0 +1,205 @@
+package cpen502.LUT;
+
+import cpen502.robots.QLearningRobot.Action;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Q-learning agent with a linear approximation of Q over tile codings of the continuous
+ * features of QLearningRobot.evaluateFeatures, each in [0, 1].
+ *
+ * Each of the tilingNum tilings cuts feature d into tileNums[d] tiles, shifted against the
+ * other tilings by (2d + 1) * t / tilingNum of a tile in tiling t, so nearby observations share
+ * most of their tiles. A state-action pair activates one tile per tiling, hashed with the
+ * action into a weight array of 2^hashBits entries, and its Q value is the sum of their
+ * weights. An update moves each of them by alpha / tilingNum of the TD error, so a lookup
+ * costs tilingNum hashes and an update tilingNum additions, against a full forward and
+ * backward pass of the network.
+ *
+ * The API follows RoboCodeLUT.updateValue on feature arrays instead of state codes.
+ */
+public class TileCoding {
+    private final static Action[] actions = Action.values();
+
+    final int tilingNum;
+    final int[] tileNums;
+    final int featureNum;
+    final int mask;
+    final double[] weights;
+    // shift of every tiling in every feature, in tiles
+    final double[] offsets;
+
+    private double alpha; // learning rate, spread over the tilings
+    private double gamma; // feature discount factor (0,1)
+    private double e;     // exploration rate
+    private boolean useOffPolicy;
+
+    private Random rand = new Random();
+
+    // workspaces so a decision does not allocate
+    private final int[] tiles;
+    private final double[] qValues = new double[actions.length];
+
+    /**
+     * @param tileNums Number of tiles of every feature per tiling
+     * @param hashBits log2 of the number of weights
+     */
+    public TileCoding(int tilingNum, int[] tileNums, int hashBits, double learningRate, double featureFactor,
+                      double explorationRate, boolean useOffPolicy) {
+        if (tilingNum < 1 || hashBits < 1 || hashBits > 30) {
+            throw new IllegalArgumentException("Invalid tiling number " + tilingNum + " or hash bits " + hashBits);
+        }
+        this.tilingNum = tilingNum;
+        this.tileNums = tileNums.clone();
+        this.featureNum = tileNums.length;
+        this.mask = (1 << hashBits) - 1;
+        this.weights = new double[1 << hashBits];
+        this.offsets = new double[tilingNum * featureNum];
+        for (int t = 0; t < tilingNum; t ++) {
+            for (int d = 0; d < featureNum; d ++) {
+                offsets[t * featureNum + d] = (double) (t * (2 * d + 1) % tilingNum) / tilingNum;
+            }
+        }
+        this.tiles = new int[tilingNum];
+        this.alpha = learningRate;
+        this.gamma = featureFactor;
+        this.e = explorationRate;
+        this.useOffPolicy = useOffPolicy;
+    }
+
+    /**
+     * Find the weight of every tiling for a state-action pair.
+     * @param features Features in [0, 1], of size tileNums.length
+     * @param tiles Receives the indices of the weights, of size tilingNum
+     * @return tiles
+     */
+    public int[] activeTiles(double[] features, int action, int[] tiles) {
+        for (int t = 0; t < tilingNum; t ++) {
+            long h = t;
+            for (int d = 0; d < featureNum; d ++) {
+                int coordinate = (int) (features[d] * tileNums[d] + offsets[t * featureNum + d]);
+                h = h * 0x9E3779B97F4A7C15L + coordinate;
+            }
+            h = h * 0x9E3779B97F4A7C15L + action;
+            h ^= h >>> 32;
+            h *= 0xD6E8FEB86659FD93L;
+            h ^= h >>> 32;
+            tiles[t] = (int) h & mask;
+        }
+        return tiles;
+    }
+
+    public double q(double[] features, Action action) {
+        activeTiles(features, action.getValue(), tiles);
+        double q = 0;
+        for (int tile : tiles) {
+            q += weights[tile];
+        }
+        return q;
+    }
+
+    /**
+     * Move the Q value of a state-action pair towards target.
+     */
+    public void train(double[] features, Action action, double target) {
+        double step = alpha / tilingNum * (target - q(features, action));
+        // q left the tiles of the pair in the workspace
+        for (int tile : tiles) {
+            weights[tile] += step;
+        }
+    }
+
+    /**
+     * @return The greedy action of a state, the first one on ties, with the Q values of all
+     * actions in qValues
+     */
+    private Action evaluate(double[] features) {
+        int optimal = 0;
+        for (int i = 0; i < actions.length; i ++) {
+            qValues[i] = q(features, actions[i]);
+            if (qValues[i] > qValues[optimal]) {
+                optimal = i;
+            }
+        }
+        return actions[optimal];
+    }
+
+    public Action getOptimalAction(double[] features) {
+        return evaluate(features);
+    }
+
+    /**
+     * Update the Q value of the previous state-action pair given the current state and the
+     * reward since, like RoboCodeLUT.updateValue, and pick the action of the current state.
+     * @param prevFeatures null on the first step
+     */
+    public Action updateValue(double[] curFeatures, double[] prevFeatures, Action prevAction, double reward) {
+        Action optimalAction = evaluate(curFeatures);
+
+        boolean takeExploration = rand.nextDouble() <= e;
+        Action randomAction = null;
+        if (takeExploration) {
+            randomAction = actions[rand.nextInt(actions.length)];
+        }
+
+        if (prevFeatures != null) {
+            double curQ = qValues[(useOffPolicy || !takeExploration ? optimalAction : randomAction).getValue()];
+            train(prevFeatures, prevAction, reward + gamma * curQ);
+        }
+
+        return takeExploration ? randomAction : optimalAction;
+    }
+
+    /**
+     * Reseed the exploration and start over from zero weights.
+     */
+    public void initialize(long seed) {
+        rand.setSeed(seed);
+        initialize();
+    }
+
+    public void initialize() {
+        Arrays.fill(weights, 0);
+    }
+
+    public double[] getWeights() {
+        return weights;
+    }
+
+    public int getTilingNum() {
+        return tilingNum;
+    }
+
+    public double getAlpha() {
+        return alpha;
+    }
+
+    public double getGamma() {
+        return gamma;
+    }
+
+    public double getE() {
+        return e;
+    }
+
+    public boolean getUseOffPolicy() {
+        return useOffPolicy;
+    }
+
+    public void setAlpha(double alpha) {
+        this.alpha = alpha;
+    }
+
+    public void setGamma(double gamma) {
+        this.gamma = gamma;
+    }
+
+    public void setE(double e) {
+        this.e = e;
+    }
+
+    public void setUseOffPolicy(boolean useOffPolicy) {
+        this.useOffPolicy = useOffPolicy;
+    }
+}
@@ -1,12 +1,13 @@
 package cpen502.models;
 
+import cpen502.LUT.FlatLUT;
+import cpen502.nerualnetwork.Activation;
 import cpen502.nerualnetwork.NeuralNetwork;
+import cpen502.nerualnetwork.ParallelTrainer;
 import cpen502.robots.QLearningRobot;
-import cpen502.utils.Functions;
 
 import java.io.*;
 import java.util.Map;
-import java.util.function.Function;
 
 public class RobocodeNN {
     // some parameters for lut dimensions
@@ -22,27 +23,21 @@ public class RobocodeNN {
     public final static int gunHeatDim = stateDim.get(QLearningRobot.StateCategory.GunHeated);
 
 
-    static double[][][][][][] lut = new double[posXDim][posYDim][energyDim]
-            [enemyDistanceDim][gunHeatDim][actionDim];
+    static FlatLUT lut = new FlatLUT(FlatLUT.radicesOf(stateDim), actionDim);
     static String lutFilename = "result/assignment3/LUT.txt";
 
-    public static void main(String[] args) throws IOException {
+    static double[][] inputs;
+    static double[][] targets;
+
+    /**
+     * Load the LUT from a file and turn it into the training set: one bipolar one hot input
+     * per state-action pair, and its Q value normalized to [-1, 1] as target.
+     */
+    static void loadTrainingSet(String filename) {
         // Load the training set
         try {
-            BufferedReader reader = new BufferedReader(new FileReader(new File(lutFilename)));
-            for (int a = 0; a < posXDim; a ++) {
-                for (int b = 0; b < posYDim; b ++) {
-                    for (int c = 0; c < energyDim; c ++) {
-                        for (int d = 0; d < enemyDistanceDim; d ++) {
-                            for (int e = 0; e < gunHeatDim; e ++) {
-                                for (int f = 0; f < actionDim; f ++) {
-                                    lut[a][b][c][d][e][f] = Double.parseDouble(reader.readLine());
-                                }
-                            }
-                        }
-                    }
-                }
-            }
+            BufferedReader reader = new BufferedReader(new FileReader(new File(filename)));
+            lut.read(reader);
             reader.close();
         } catch (FileNotFoundException fileNotFoundException) {
             fileNotFoundException.printStackTrace();
@@ -51,42 +46,49 @@ public class RobocodeNN {
         }
 
         // normalize training set output values
-        double maxQ = Double.NEGATIVE_INFINITY;
-        double minQ = Double.POSITIVE_INFINITY;
-        for (int a = 0; a < posXDim; a ++) {
-            for (int b = 0; b < posYDim; b ++) {
-                for (int c = 0; c < energyDim; c ++) {
-                    for (int d = 0; d < enemyDistanceDim; d ++) {
-                        for (int e = 0; e < gunHeatDim; e ++) {
-                            for (int f = 0; f < actionDim; f ++) {
-                                if (maxQ < lut[a][b][c][d][e][f]) {
-                                    maxQ = lut[a][b][c][d][e][f];
-                                }
-                                if (minQ > lut[a][b][c][d][e][f]) {
-                                    minQ = lut[a][b][c][d][e][f];
-                                }
-                            }
-                        }
-                    }
-                }
+        double maxQ = lut.maxValue();
+        double minQ = lut.minValue();
+
+        // flatten the training set, one row per state-action pair
+        inputs = new double[lut.size()][];
+        targets = new double[inputs.length][1];
+        int[] state = new int[lutDepth];
+        for (int stateCode = 0; stateCode < lut.getStateNum(); stateCode ++) {
+            lut.decodeState(stateCode, state);
+            for (int action = 0; action < actionDim; action ++) {
+                int sample = lut.index(stateCode, action);
+                inputs[sample] = SAToOneHot(state[0], state[1], state[2], state[3], state[4], action);
+                targets[sample][0] = normalizeQ(maxQ, minQ, lut.get(stateCode, action));
             }
         }
+    }
 
-        Function<Double, Double> activationFunction = Functions.sigmoidBipolar;
-        Function<Double, Double> activationDerivativeFunction = Functions.sigmoidDerivativeBipolar;
+    public static void main(String[] args) throws IOException {
+        loadTrainingSet(lutFilename);
+
+        Activation activation = Activation.SIGMOID_BIPOLAR;
         int hiddenNeuronNum = 80;
         double momentums = 0.6;
         double learningRates = 0.01;
         int[] neuronNums = new int[] {20, hiddenNeuronNum, 1};
         NeuralNetwork neuralnet;
         try {
-            neuralnet = new NeuralNetwork(neuronNums, activationFunction,
-                    activationDerivativeFunction, momentums, learningRates);
+            neuralnet = new NeuralNetwork(neuronNums, activation, momentums, learningRates);
         } catch (Exception e) {
             e.printStackTrace();
             return;
         }
 
+        double[] output1 = new double[1];
+
+        // 1 trains sample by sample, larger sizes use mini-batch updates
+        int batchSize = 1;
+        neuralnet.setBatchSize(batchSize);
+        // SERIAL trains on this thread, SYNCHRONOUS and HOGWILD use parallelism threads
+        ParallelTrainer.Mode trainMode = ParallelTrainer.Mode.SERIAL;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        ParallelTrainer trainer = new ParallelTrainer(neuralnet, parallelism);
+
         int runNum = 1;
         int totalEpochNum = 0;
         int epochNum;
@@ -117,40 +119,12 @@ public class RobocodeNN {
             while (epochNum < maxEpochNum) {
                 totalError = 0;
                 // Train 1 epoch
-                for (int a = 0; a < posXDim; a ++) {
-                    for (int b = 0; b < posYDim; b ++) {
-                        for (int c = 0; c < energyDim; c ++) {
-                            for (int d = 0; d < enemyDistanceDim; d ++) {
-                                for (int e = 0; e < gunHeatDim; e ++) {
-                                    for (int f = 0; f < actionDim; f ++) {
-                                        double[] sa = SAToOneHot(a, b, c, d, e, f);
-                                        double[] q = new double[1];
-                                        q[0] = normalizeQ(maxQ, minQ,
-                                                lut[a][b][c][d][e][f]);
-                                        neuralnet.train(sa, q);
-                                    }
-                                }
-                            }
-                        }
-                    }
-                }
+                trainer.trainEpoch(inputs, targets, trainMode);
 
-                for (int a = 0; a < posXDim; a ++) {
-                    for (int b = 0; b < posYDim; b ++) {
-                        for (int c = 0; c < energyDim; c ++) {
-                            for (int d = 0; d < enemyDistanceDim; d ++) {
-                                for (int e = 0; e < gunHeatDim; e ++) {
-                                    for (int f = 0; f < actionDim; f ++) {
-                                        double[] sa = SAToOneHot(a, b, c, d, e, f);
-                                        double output = neuralnet.outputFor(sa)[0];
-                                        double q = normalizeQ(maxQ, minQ, lut[a][b][c][d][e][f]);
-                                        double error = Math.pow(output - q, 2) / 2.0;
-                                        totalError += error;
-                                    }
-                                }
-                            }
-                        }
-                    }
+                for (int i = 0; i < inputs.length; i ++) {
+                    double output = neuralnet.outputInto(inputs[i], output1)[0];
+                    double error = Math.pow(output - targets[i][0], 2) / 2.0;
+                    totalError += error;
                 }
 
                 epochNum ++;
@@ -163,6 +137,7 @@ public class RobocodeNN {
             System.out.println("Last error " + totalError);
             if (saveLog) writer.close();
         }
+        trainer.shutdown();
         if (saveFile) neuralnet.save(new File(saveFileName));
         System.out.println("Avg epoch number needed to converge: " + totalEpochNum / runNum);
     }
@@ -173,8 +148,8 @@ public class RobocodeNN {
         return (Q - mid)/halfSpace;
     }
 
-    static double[] SAToOneHot(int posX, int posY, int energy, int enemyDistance,
-                               int gunHeat, int action) {
+    public static double[] SAToOneHot(int posX, int posY, int energy, int enemyDistance,
+                                      int gunHeat, int action) {
         double[] oneHot = new double[20];
         int ofs = 0;
         for (int i = 0; i < posXDim; i ++) {
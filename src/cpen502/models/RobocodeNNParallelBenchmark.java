@@ -0,0 +1,53 @@
+package cpen502.models;
+
+import cpen502.nerualnetwork.Activation;
+import cpen502.nerualnetwork.NeuralNetwork;
+import cpen502.nerualnetwork.ParallelTrainer;
+
+/**
+ * Fits the LUT with every training mode of ParallelTrainer at the hidden layer sizes
+ * we keep results for, and reports epochs/s and the final error so a mode can be picked
+ * per size. Every mode starts from the same initial weights.
+ */
+public class RobocodeNNParallelBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] hiddenNeuronNums = new int[]{20, 30, 40, 60, 80};
+        int epochNum = 200;
+        int batchSize = 8;
+        double momentums = 0.6;
+        double learningRates = 0.01;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+
+        RobocodeNN.loadTrainingSet(RobocodeNN.lutFilename);
+        System.out.println("Training " + RobocodeNN.inputs.length + " samples for " + epochNum
+                + " epochs, batch size " + batchSize + ", " + parallelism + " threads");
+
+        for (int hiddenNeuronNum : hiddenNeuronNums) {
+            int[] neuronNums = new int[]{20, hiddenNeuronNum, 1};
+            NeuralNetwork initial = new NeuralNetwork(neuronNums, Activation.SIGMOID_BIPOLAR,
+                    momentums, learningRates);
+            initial.initializeWeights();
+
+            System.out.println("NN-" + hiddenNeuronNum);
+            ParallelTrainer.Result best = null;
+            for (ParallelTrainer.Mode mode : ParallelTrainer.Mode.values()) {
+                NeuralNetwork neuralnet = new NeuralNetwork(neuronNums, Activation.SIGMOID_BIPOLAR,
+                        momentums, learningRates);
+                neuralnet.copyWeightsFrom(initial);
+                neuralnet.setBatchSize(mode == ParallelTrainer.Mode.HOGWILD ? 1 : batchSize);
+
+                ParallelTrainer trainer = new ParallelTrainer(neuralnet, parallelism);
+                ParallelTrainer.Result result = trainer.train(RobocodeNN.inputs, RobocodeNN.targets,
+                        mode, epochNum);
+                trainer.shutdown();
+
+                System.out.println("    " + result);
+                if (best == null || result.getEpochsPerSecond() > best.getEpochsPerSecond()) {
+                    best = result;
+                }
+            }
+            System.out.println("    fastest: " + best.mode);
+        }
+    }
+}
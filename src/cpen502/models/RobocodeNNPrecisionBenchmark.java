@@ -0,0 +1,79 @@
+package cpen502.models;
+
+import cpen502.nerualnetwork.Activation;
+import cpen502.nerualnetwork.FloatNeuralNetwork;
+import cpen502.nerualnetwork.NeuralNet;
+import cpen502.nerualnetwork.NeuralNetwork;
+
+/**
+ * Fits the LUT with a double and a float network starting from the same weights, and
+ * reports the error every few epochs together with the epochs/s of each precision,
+ * so we can tell whether the float network converges as well as the double one.
+ */
+public class RobocodeNNPrecisionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int[] hiddenNeuronNums = new int[]{20, 80};
+        int[] batchSizes = new int[]{1, 32};
+        int epochNum = 300;
+        int reportEvery = 50;
+        double momentums = 0.6;
+        double learningRates = 0.01;
+
+        RobocodeNN.loadTrainingSet(RobocodeNN.lutFilename);
+        System.out.println("Training " + RobocodeNN.inputs.length + " samples for " + epochNum + " epochs");
+
+        for (int hiddenNeuronNum : hiddenNeuronNums) {
+            int[] neuronNums = new int[]{20, hiddenNeuronNum, 1};
+            for (int batchSize : batchSizes) {
+                NeuralNetwork doubleNet = new NeuralNetwork(neuronNums, Activation.SIGMOID_BIPOLAR,
+                        momentums, learningRates);
+                doubleNet.initializeWeights();
+                FloatNeuralNetwork floatNet = new FloatNeuralNetwork(neuronNums, Activation.SIGMOID_BIPOLAR,
+                        momentums, learningRates);
+                floatNet.copyWeightsFrom(doubleNet);
+                doubleNet.setBatchSize(batchSize);
+                floatNet.setBatchSize(batchSize);
+
+                System.out.println("NN-" + hiddenNeuronNum + ", batch size " + batchSize);
+                double doubleSeconds = 0;
+                double floatSeconds = 0;
+                for (int epoch = 1; epoch <= epochNum; epoch ++) {
+                    doubleSeconds += trainEpoch(doubleNet);
+                    floatSeconds += trainEpoch(floatNet);
+                    if (epoch % reportEvery == 0) {
+                        System.out.printf("    epoch %4d   double error: %.6f   float error: %.6f%n",
+                                epoch, totalError(doubleNet), totalError(floatNet));
+                    }
+                }
+                System.out.printf("    double epochs/s: %8.2f   float epochs/s: %8.2f   speedup: %.2fx%n",
+                        epochNum / doubleSeconds, epochNum / floatSeconds, doubleSeconds / floatSeconds);
+            }
+        }
+    }
+
+    /**
+     * @return The seconds spent training one epoch
+     */
+    static double trainEpoch(NeuralNet neuralnet) {
+        long start = System.nanoTime();
+        if (neuralnet.getBatchSize() > 1) {
+            neuralnet.trainBatch(RobocodeNN.inputs, RobocodeNN.targets);
+        } else {
+            for (int i = 0; i < RobocodeNN.inputs.length; i ++) {
+                neuralnet.train(RobocodeNN.inputs[i], RobocodeNN.targets[i][0]);
+            }
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    static double totalError(NeuralNet neuralnet) {
+        double error = 0;
+        double[] output = new double[1];
+        for (int i = 0; i < RobocodeNN.inputs.length; i ++) {
+            double diff = RobocodeNN.targets[i][0] - neuralnet.outputInto(RobocodeNN.inputs[i], output)[0];
+            error += 0.5 * diff * diff;
+        }
+        return error;
+    }
+}
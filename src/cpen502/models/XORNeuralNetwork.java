@@ -1,12 +1,11 @@
 package cpen502.models;
 
+import cpen502.nerualnetwork.Activation;
 import cpen502.nerualnetwork.NeuralNetwork;
-import cpen502.utils.Functions;
 import cpen502.utils.Utilities;
 
 import java.io.*;
 import java.util.Arrays;
-import java.util.function.Function;
 
 public class XORNeuralNetwork {
 
@@ -32,10 +31,7 @@ public class XORNeuralNetwork {
 
         int[] nueronNums = new int[]{2, 4, 1};
 
-        Function<Double, Double> activationFunction = useBipolar ?
-                Functions.sigmoidBipolar : Functions.sigmoidBinary;
-        Function<Double, Double> activationDerivativeFunction = useBipolar ?
-                Functions.sigmoidDerivativeBipolar : Functions.sigmoidDerivativeBinary;
+        Activation activation = useBipolar ? Activation.SIGMOID_BIPOLAR : Activation.SIGMOID_BINARY;
 
         double momentums = 0.9;
         double learningRates = 0.2;
@@ -43,8 +39,7 @@ public class XORNeuralNetwork {
         // Initialize neural network
         NeuralNetwork neuralnet;
         try {
-            neuralnet = new NeuralNetwork(nueronNums, activationFunction,
-                    activationDerivativeFunction, momentums, learningRates);
+            neuralnet = new NeuralNetwork(nueronNums, activation, momentums, learningRates);
         } catch (Exception e) {
             e.printStackTrace();
             return;
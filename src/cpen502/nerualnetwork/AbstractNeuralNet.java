@@ -0,0 +1,124 @@
+package cpen502.nerualnetwork;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The part of NeuralNetwork and FloatNeuralNetwork that does not depend on the precision of
+ * the weights: the topology, the activation, the kernels, the batch size, the generator of
+ * the initial weights, the weight version and the bookkeeping of the "all -1" baseline of the
+ * encoded first layer.
+ *
+ * The propagations are written once per precision, every row of them going through the
+ * double or the float methods of MatrixKernels.
+ */
+public abstract class AbstractNeuralNet implements NeuralNet {
+    final static int MIN_NEURAL_LAYER_NUM = 2;
+    final static int DEFAULT_BATCH_SIZE = 32;
+    final static int BASELINE_REFRESH_UPDATES = 1 << 12;
+    final Random random = new Random();
+
+    final int layerNum;
+    final int[] neuronNums;
+    final Activation activation;
+    MatrixKernels kernels = MatrixKernels.DEFAULT;
+
+    // whether the first layer pre-activation of an input of all -1 is up to date
+    boolean baselineValid = false;
+    int baselineUpdates;
+
+    // bumped whenever the weights change, see NeuralNet.getWeightVersion
+    long weightVersion;
+
+    // samples per update of trainBatch
+    int batchSize = DEFAULT_BATCH_SIZE;
+
+    AbstractNeuralNet(int[] neuronNums, Activation activation) throws Exception {
+        if (neuronNums.length < MIN_NEURAL_LAYER_NUM) {
+            throw new Exception("Neural Network must have at least " + MIN_NEURAL_LAYER_NUM + " layers");
+        }
+        this.layerNum = neuronNums.length;
+        this.neuronNums = neuronNums;
+        this.activation = activation;
+    }
+
+    /**
+     * Take the topology and the settings of another network, for a replica of it.
+     */
+    AbstractNeuralNet(AbstractNeuralNet shared) {
+        this.layerNum = shared.layerNum;
+        this.neuronNums = shared.neuronNums;
+        this.activation = shared.activation;
+        this.kernels = shared.kernels;
+        this.batchSize = shared.batchSize;
+    }
+
+    /**
+     * Index of the weight connecting a neuron of a layer to a neuron of the next layer.
+     * @param layer The lower layer of the weight
+     * @param input The neuron index in the lower layer, neuronNums[layer] for the bias
+     * @param output The neuron index in the upper layer
+     */
+    int weightIndex(int layer, int input, int output) {
+        return output * (neuronNums[layer] + 1) + input;
+    }
+
+    /**
+     * Must be called when the weights are changed by anything but updateWeights.
+     */
+    void invalidateFirstLayerBaseline() {
+        baselineValid = false;
+        weightVersion ++;
+    }
+
+    /**
+     * Count an update the baseline was moved by, and drop the baseline every
+     * BASELINE_REFRESH_UPDATES of them so it is recomputed without the rounding drift.
+     */
+    void baselineMoved() {
+        baselineUpdates ++;
+        if (baselineUpdates >= BASELINE_REFRESH_UPDATES) {
+            baselineValid = false;
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize The number of samples averaged into one update by trainBatch
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive, got " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    public int[] getNeuronNums() {
+        return neuronNums.clone();
+    }
+
+    public Activation getActivation() {
+        return activation;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the topology of other differs from this one
+     */
+    void checkTopology(AbstractNeuralNet other) {
+        if (!Arrays.equals(neuronNums, other.neuronNums)) {
+            throw new IllegalArgumentException("Topology " + Arrays.toString(other.neuronNums)
+                    + " does not match " + Arrays.toString(neuronNums));
+        }
+    }
+
+    public long getWeightVersion() {
+        return weightVersion;
+    }
+}
@@ -0,0 +1,142 @@
+package cpen502.nerualnetwork;
+
+import cpen502.utils.Functions;
+
+/**
+ * Activation functions available to a neural network.
+ * Each activation pairs its value with its derivative and works on primitive doubles,
+ * so neither the forward nor the backward propagation boxes a value.
+ * The derivative takes the activation output y = f(x) rather than x, since the output
+ * is what the network caches during the forward propagation.
+ *
+ * The FAST_ variants replace Math.exp by a lookup table with linear interpolation over
+ * [-16, 16] (8192 intervals) and clamp outside of it. Their absolute error against the
+ * exact function is below 2e-7 for FAST_SIGMOID_BINARY and below 4e-7 for
+ * FAST_SIGMOID_BIPOLAR: the interpolation error is bounded by h^2/8 * max|f''|
+ * (about 1.8e-7 for h = 1/256) and the clamped tail by 1 - f(16) (about 1.1e-7).
+ */
+public enum Activation {
+    SIGMOID_BINARY(0) {
+        public double apply(double x) {
+            return Functions.sigmoidBinary(x);
+        }
+
+        public double derivative(double y) {
+            return Functions.sigmoidDerivativeBinary(y);
+        }
+    },
+    SIGMOID_BIPOLAR(1) {
+        public double apply(double x) {
+            return Functions.sigmoidBipolar(x);
+        }
+
+        public double derivative(double y) {
+            return Functions.sigmoidDerivativeBipolar(y);
+        }
+    },
+    TANH(2) {
+        public double apply(double x) {
+            return Functions.tanh(x);
+        }
+
+        public double derivative(double y) {
+            return Functions.tanhDerivative(y);
+        }
+    },
+    RELU(3) {
+        public double apply(double x) {
+            return Functions.relu(x);
+        }
+
+        public double derivative(double y) {
+            return Functions.reluDerivative(y);
+        }
+    },
+    FAST_SIGMOID_BINARY(4) {
+        public double apply(double x) {
+            return SigmoidTable.sigmoidBinary(x);
+        }
+
+        public double derivative(double y) {
+            return Functions.sigmoidDerivativeBinary(y);
+        }
+    },
+    FAST_SIGMOID_BIPOLAR(5) {
+        public double apply(double x) {
+            return 2.0 * SigmoidTable.sigmoidBinary(x) - 1.0;
+        }
+
+        public double derivative(double y) {
+            return Functions.sigmoidDerivativeBipolar(y);
+        }
+    };
+
+    private final int id;
+
+    private Activation(int id) {
+        this.id = id;
+    }
+
+    /**
+     * @param x The weighted sum of a neuron
+     * @return f(x)
+     */
+    public abstract double apply(double x);
+
+    /**
+     * @param y The output of this activation, i.e. f(x)
+     * @return f'(x) expressed with y
+     */
+    public abstract double derivative(double y);
+
+    /**
+     * Stable id of this activation, used when the network is written to a file.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public static Activation fromId(int id) {
+        for (Activation activation : values()) {
+            if (activation.id == id) {
+                return activation;
+            }
+        }
+        throw new IllegalArgumentException("Unknown activation id " + id);
+    }
+
+    /**
+     * Lookup table of the binary sigmoid used by the FAST_ activations.
+     */
+    static final class SigmoidTable {
+        static final double RANGE = 16.0;
+        static final int INTERVALS = 8192;
+        static final double STEP = 2 * RANGE / INTERVALS;
+        static final double INV_STEP = INTERVALS / (2 * RANGE);
+        static final double[] TABLE = new double[INTERVALS + 1];
+
+        static {
+            for (int i = 0; i <= INTERVALS; i ++) {
+                TABLE[i] = Functions.sigmoidBinary(-RANGE + i * STEP);
+            }
+        }
+
+        private SigmoidTable() {}
+
+        static double sigmoidBinary(double x) {
+            if (x <= -RANGE) {
+                return TABLE[0];
+            }
+            if (x >= RANGE) {
+                return TABLE[INTERVALS];
+            }
+            double t = (x + RANGE) * INV_STEP;
+            int index = (int) t;
+            if (index >= INTERVALS) {
+                return TABLE[INTERVALS];
+            }
+            double fraction = t - index;
+            return TABLE[index] + fraction * (TABLE[index + 1] - TABLE[index]);
+        }
+    }
+}
@@ -0,0 +1,557 @@
+package cpen502.nerualnetwork;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Single precision version of NeuralNetwork.
+ * Weights, momentum terms, corrections and every workspace are floats, which halves
+ * the memory every propagation streams through. Inputs, targets and outputs stay doubles
+ * and are narrowed or widened at the boundary of the network. The Q values we fit are
+ * normalized to [-1, 1], where the 24 bit mantissa of a float is far below the error
+ * the network converges to.
+ *
+ * The layout and the algorithms are the ones of NeuralNetwork: flat weight rows with the
+ * bias last, the "all -1" baseline of the encoded first layer, and the matrix form of
+ * trainBatch. What does not depend on the precision is shared in AbstractNeuralNet, and
+ * the rows go through the float methods of MatrixKernels, so the vector kernels process
+ * twice as many weights per instruction as in double.
+ *
+ * save and load use the text format of NeuralNetwork, with float values.
+ */
+public class FloatNeuralNetwork extends AbstractNeuralNet {
+    final float bias = 1.0f;
+
+    final float[][] weights;
+    final float[][] weightDeltas;
+    final float[][] weightCorrections;
+
+    final float[][] neuronOutputs;
+    final float[][] neuronDeltas;
+    final float[] outputErrors;
+
+    // first layer pre-activation of an input of all -1, kept in sync by updateWeights
+    float[] firstLayerBaseline;
+
+    // workspaces of trainBatch, [layer][sample * neuronNums[layer] + neuron]
+    float[][] batchOutputs;
+    float[][] batchDeltas;
+
+    final float momentum;
+    final float learningRate;
+
+    public FloatNeuralNetwork (int[] neuronNums, Activation activation,
+                               double momentum, double learningRate) throws Exception {
+        super(neuronNums, activation);
+        this.momentum = (float) momentum;
+        this.learningRate = (float) learningRate;
+
+        // create all weights
+        this.weights = new float[layerNum - 1][];
+        this.weightDeltas = new float[layerNum - 1][];
+        this.weightCorrections = new float[layerNum - 1][];
+        for (int i = 0; i < layerNum - 1; i ++) {
+            int size = (neuronNums[i] + 1) * neuronNums[i+1];
+            this.weights[i] = new float[size];
+            this.weightDeltas[i] = new float[size];
+            this.weightCorrections[i] = new float[size];
+        }
+
+        // cache to remember the last output
+        this.neuronOutputs = new float[layerNum][];
+        this.neuronDeltas = new float[layerNum][];
+        for (int i = 0; i < layerNum; i ++) {
+            this.neuronOutputs[i] = new float[neuronNums[i]];
+            this.neuronDeltas[i] = new float[neuronNums[i]];
+        }
+        this.outputErrors = new float[neuronNums[layerNum - 1]];
+    }
+
+    public double[] train(double[] X, double[] argValue) {
+        float[] output = propagate(X);
+        double[] prevOutput = new double[output.length];
+        for (int i = 0; i < outputErrors.length; i ++) {
+            prevOutput[i] = output[i];
+            outputErrors[i] = (float) (argValue[i] - output[i]);
+        }
+        backwardPropagation(outputErrors);
+
+        return prevOutput;
+    }
+
+    public double train(double[] X, double argValue) {
+        if (outputErrors.length != 1) {
+            throw new IllegalStateException("Scalar training needs a single output neuron, found "
+                    + outputErrors.length);
+        }
+        float output = propagate(X)[0];
+        outputErrors[0] = (float) (argValue - output);
+        backwardPropagation(outputErrors);
+
+        return output;
+    }
+
+    public double trainEncoded(int[] active, double argValue) {
+        if (outputErrors.length != 1) {
+            throw new IllegalStateException("Scalar training needs a single output neuron, found "
+                    + outputErrors.length);
+        }
+        float output = propagateEncoded(active)[0];
+        outputErrors[0] = (float) (argValue - output);
+        backwardPropagation(outputErrors);
+
+        return output;
+    }
+
+    public double[] outputFor(double[] X) {
+        return outputInto(X, new double[neuronNums[layerNum - 1]]);
+    }
+
+    public double[] outputInto(double[] X, double[] output) {
+        float[] result = propagate(X);
+        for (int i = 0; i < output.length; i ++) {
+            output[i] = result[i];
+        }
+        return output;
+    }
+
+    public double[] outputIntoEncoded(int[] active, double[] output) {
+        float[] result = propagateEncoded(active);
+        for (int i = 0; i < output.length; i ++) {
+            output[i] = result[i];
+        }
+        return output;
+    }
+
+    /**
+     * Perform a forward propagation into the cached neuron outputs.
+     * @param input A vector of size [firstLayerNeuron#]
+     * @return The cached output of the last layer. It is overwritten by the next propagation.
+     */
+    float[] propagate(double[] input) {
+        // process through the input layer
+        float[] inputLayer = neuronOutputs[0];
+        for (int i = 0; i < neuronNums[0]; i ++) {
+            inputLayer[i] = (float) input[i];
+        }
+
+        // process through the hidden layers and output layers
+        for (int i = 1; i < layerNum; i ++) {
+            propagateLayer(i);
+        }
+
+        // output
+        return neuronOutputs[layerNum - 1];
+    }
+
+    /**
+     * Perform a forward propagation of a bipolar one hot input into the cached neuron outputs.
+     * @param active The indices of the +1 inputs, every other input is -1
+     * @return The cached output of the last layer. It is overwritten by the next propagation.
+     */
+    float[] propagateEncoded(int[] active) {
+        // the input layer is still cached for the backward propagation
+        float[] input = neuronOutputs[0];
+        Arrays.fill(input, -1);
+        for (int index : active) {
+            input[index] = 1;
+        }
+
+        // first layer from the all -1 baseline, flipping the active inputs from -1 to +1
+        if (!baselineValid) {
+            computeFirstLayerBaseline();
+        }
+        float[] weight = weights[0];
+        float[] neuronOutput = neuronOutputs[1];
+        int stride = neuronNums[0] + 1;
+        for (int outputIndex = 0, row = 0; outputIndex < neuronNums[1]; outputIndex ++, row += stride) {
+            float sum = 0;
+            for (int index : active) {
+                sum += weight[row + index];
+            }
+            neuronOutput[outputIndex] = (float) activation.apply(firstLayerBaseline[outputIndex] + 2 * sum);
+        }
+
+        // process through the rest of the layers
+        for (int i = 2; i < layerNum; i ++) {
+            propagateLayer(i);
+        }
+
+        return neuronOutputs[layerNum - 1];
+    }
+
+    /**
+     * Compute the cached outputs of a layer from the cached outputs of the layer below.
+     */
+    private void propagateLayer(int i) {
+        float[] weight = weights[i-1];
+        float[] prevNeuronOutput = neuronOutputs[i-1];
+        float[] neuronOutput = neuronOutputs[i];
+        int inputNum = neuronNums[i-1];
+        int stride = inputNum + 1;
+
+        for (int outputIndex = 0, row = 0; outputIndex < neuronNums[i]; outputIndex ++, row += stride) {
+            // weight sum
+            float sum = kernels.dot(weight, row, prevNeuronOutput, 0, inputNum);
+            // bias neuron
+            sum += weight[row + inputNum] * bias;
+            // activate and cache output
+            neuronOutput[outputIndex] = (float) activation.apply(sum);
+        }
+    }
+
+    private void computeFirstLayerBaseline() {
+        if (firstLayerBaseline == null) {
+            firstLayerBaseline = new float[neuronNums[1]];
+        }
+        float[] weight = weights[0];
+        int inputNum = neuronNums[0];
+        int stride = inputNum + 1;
+        for (int outputIndex = 0, row = 0; outputIndex < neuronNums[1]; outputIndex ++, row += stride) {
+            float sum = 0;
+            for (int inputIndex = 0; inputIndex < inputNum; inputIndex ++) {
+                sum -= weight[row + inputIndex];
+            }
+            firstLayerBaseline[outputIndex] = sum + weight[row + inputNum] * bias;
+        }
+        baselineValid = true;
+        baselineUpdates = 0;
+    }
+
+    /**
+     * Perform a backward propagation from a vector of errors (C_i - y_i) and update the weights.
+     */
+    void backwardPropagation(float[] input) {
+        // process through the output layer and hidden layers
+        for (int i = layerNum - 1; i >= 1; i --) {
+            float[] weightCorrection = weightCorrections[i-1]; // correct weight below this layer
+            float[] neuronDelta = neuronDeltas[i];
+            float[] neuronOutput = neuronOutputs[i];
+            float[] prevNeuronOutput = neuronOutputs[i-1];
+            int neuronNum = neuronNums[i];
+
+            // calculate deltas for this layer's neurons
+            if (i == layerNum - 1) {
+                // output layer delta
+                for (int neuronIndex = 0; neuronIndex < neuronNum; neuronIndex ++) {
+                    neuronDelta[neuronIndex] = (float) (input[neuronIndex] * activation.derivative(neuronOutput[neuronIndex]));
+                }
+            } else {
+                // hidden layers, sum the weighted next layer delta row by row
+                float[] weight = weights[i]; // use weight above this layer
+                float[] nextNeuronDelta = neuronDeltas[i+1];
+                int stride = neuronNum + 1;
+                Arrays.fill(neuronDelta, 0);
+                for (int nextNeuronIndex = 0, row = 0; nextNeuronIndex < neuronNums[i+1];
+                     nextNeuronIndex ++, row += stride) {
+                    kernels.axpy(nextNeuronDelta[nextNeuronIndex], weight, row, neuronDelta, 0, neuronNum);
+                }
+                for (int neuronIndex = 0; neuronIndex < neuronNum; neuronIndex ++) {
+                    neuronDelta[neuronIndex] *= (float) activation.derivative(neuronOutput[neuronIndex]);
+                }
+            }
+
+            // calculate weight correction terms
+            int prevNeuronNum = neuronNums[i-1];
+            int stride = prevNeuronNum + 1;
+            for (int neuronIndex = 0, row = 0; neuronIndex < neuronNum; neuronIndex ++, row += stride) {
+                float step = learningRate * neuronDelta[neuronIndex];
+                kernels.scale(step, prevNeuronOutput, 0, weightCorrection, row, prevNeuronNum);
+                // bias neuron
+                weightCorrection[row + prevNeuronNum] = step;
+            }
+        }
+
+        updateWeights();
+    }
+
+    /**
+     * Apply the weight corrections together with the momentum term, then clear the corrections.
+     */
+    void updateWeights() {
+        weightVersion ++;
+        for (int i = 0; i < weights.length; i ++) {
+            if (i == 0 && baselineValid) {
+                updateFirstLayerWeights();
+                continue;
+            }
+            kernels.momentumUpdate(weights[i], weightDeltas[i], weightCorrections[i], momentum, 0, weights[i].length);
+        }
+    }
+
+    /**
+     * Same as updateWeights for the first layer, but also moves the all -1 baseline by the
+     * applied deltas. The baseline is recomputed from time to time to drop rounding drift,
+     * which matters more in single precision.
+     */
+    private void updateFirstLayerWeights() {
+        float[] weight = weights[0];
+        float[] weightDelta = weightDeltas[0];
+        float[] weightCorrection = weightCorrections[0];
+        int inputNum = neuronNums[0];
+        int stride = inputNum + 1;
+        for (int outputIndex = 0, row = 0; outputIndex < neuronNums[1]; outputIndex ++, row += stride) {
+            float inputDeltaSum = kernels.momentumUpdate(weight, weightDelta, weightCorrection,
+                    momentum, row, row + inputNum);
+            int biasIndex = row + inputNum;
+            float biasDelta = weightCorrection[biasIndex] + momentum * weightDelta[biasIndex];
+            weight[biasIndex] += biasDelta;
+            weightDelta[biasIndex] = biasDelta;
+            weightCorrection[biasIndex] = 0;
+
+            firstLayerBaseline[outputIndex] += biasDelta * bias - inputDeltaSum;
+        }
+        baselineMoved();
+    }
+
+    public double trainBatch(double[][] inputs, double[][] targets) {
+        if (inputs.length != targets.length) {
+            throw new IllegalArgumentException("Got " + inputs.length + " inputs but "
+                    + targets.length + " targets");
+        }
+        double error = 0;
+        for (int from = 0; from < inputs.length; from += batchSize) {
+            int count = Math.min(batchSize, inputs.length - from);
+            for (int i = 0; i < weightCorrections.length; i ++) {
+                Arrays.fill(weightCorrections[i], 0);
+            }
+            error += accumulateGradients(inputs, targets, from, count, weightCorrections);
+            float scale = learningRate / count;
+            for (int i = 0; i < weightCorrections.length; i ++) {
+                float[] weightCorrection = weightCorrections[i];
+                kernels.scale(scale, weightCorrection, 0, weightCorrection, 0, weightCorrection.length);
+            }
+            updateWeights();
+        }
+        return error;
+    }
+
+    /**
+     * Propagate a batch forward and backward, and add the summed gradient sum(delta * input)
+     * of every weight to gradients. Weights are not modified.
+     * @return The total squared error of the batch
+     */
+    double accumulateGradients(double[][] inputs, double[][] targets, int from, int count,
+                               float[][] gradients) {
+        ensureBatchWorkspaces();
+
+        // load the input layer
+        int inputNum = neuronNums[0];
+        float[] batchInput = batchOutputs[0];
+        for (int sample = 0; sample < count; sample ++) {
+            double[] input = inputs[from + sample];
+            for (int i = 0; i < inputNum; i ++) {
+                batchInput[sample * inputNum + i] = (float) input[i];
+            }
+        }
+
+        // forward, Z = A * W^T, one weight row at a time
+        for (int i = 1; i < layerNum; i ++) {
+            float[] weight = weights[i-1];
+            float[] prevBatchOutput = batchOutputs[i-1];
+            float[] batchOutput = batchOutputs[i];
+            int prevNeuronNum = neuronNums[i-1];
+            int neuronNum = neuronNums[i];
+            int stride = prevNeuronNum + 1;
+
+            for (int neuronIndex = 0, row = 0; neuronIndex < neuronNum; neuronIndex ++, row += stride) {
+                float biasWeight = weight[row + prevNeuronNum] * bias;
+                for (int sample = 0; sample < count; sample ++) {
+                    float sum = kernels.dot(weight, row, prevBatchOutput, sample * prevNeuronNum, prevNeuronNum);
+                    batchOutput[sample * neuronNum + neuronIndex] = (float) activation.apply(sum + biasWeight);
+                }
+            }
+        }
+
+        // output layer deltas
+        double error = 0;
+        int outputNum = neuronNums[layerNum - 1];
+        float[] outputLayer = batchOutputs[layerNum - 1];
+        float[] outputDelta = batchDeltas[layerNum - 1];
+        for (int sample = 0; sample < count; sample ++) {
+            double[] target = targets[from + sample];
+            for (int neuronIndex = 0; neuronIndex < outputNum; neuronIndex ++) {
+                int index = sample * outputNum + neuronIndex;
+                double diff = target[neuronIndex] - outputLayer[index];
+                error += 0.5 * diff * diff;
+                outputDelta[index] = (float) (diff * activation.derivative(outputLayer[index]));
+            }
+        }
+
+        // backward
+        for (int i = layerNum - 1; i >= 1; i --) {
+            float[] weight = weights[i-1];
+            float[] gradient = gradients[i-1];
+            float[] batchDelta = batchDeltas[i];
+            float[] prevBatchOutput = batchOutputs[i-1];
+            int prevNeuronNum = neuronNums[i-1];
+            int neuronNum = neuronNums[i];
+            int stride = prevNeuronNum + 1;
+
+            // G += D^T * A, one gradient row at a time
+            for (int neuronIndex = 0, row = 0; neuronIndex < neuronNum; neuronIndex ++, row += stride) {
+                float biasGradient = 0;
+                for (int sample = 0; sample < count; sample ++) {
+                    float delta = batchDelta[sample * neuronNum + neuronIndex];
+                    kernels.axpy(delta, prevBatchOutput, sample * prevNeuronNum, gradient, row, prevNeuronNum);
+                    biasGradient += delta;
+                }
+                gradient[row + prevNeuronNum] += biasGradient * bias;
+            }
+
+            if (i == 1) {
+                break;
+            }
+
+            // D' = (D * W) .* f'(A), one weight row at a time
+            float[] prevBatchDelta = batchDeltas[i-1];
+            Arrays.fill(prevBatchDelta, 0, count * prevNeuronNum, 0);
+            for (int neuronIndex = 0, row = 0; neuronIndex < neuronNum; neuronIndex ++, row += stride) {
+                for (int sample = 0; sample < count; sample ++) {
+                    float delta = batchDelta[sample * neuronNum + neuronIndex];
+                    kernels.axpy(delta, weight, row, prevBatchDelta, sample * prevNeuronNum, prevNeuronNum);
+                }
+            }
+            for (int index = 0; index < count * prevNeuronNum; index ++) {
+                prevBatchDelta[index] *= (float) activation.derivative(prevBatchOutput[index]);
+            }
+        }
+
+        return error;
+    }
+
+    private void ensureBatchWorkspaces() {
+        if (batchOutputs != null && batchOutputs[0].length == batchSize * neuronNums[0]) {
+            return;
+        }
+        batchOutputs = new float[layerNum][];
+        batchDeltas = new float[layerNum][];
+        for (int i = 0; i < layerNum; i ++) {
+            batchOutputs[i] = new float[batchSize * neuronNums[i]];
+            batchDeltas[i] = new float[batchSize * neuronNums[i]];
+        }
+    }
+
+    public void initializeWeights() {
+        invalidateFirstLayerBaseline();
+        for (int i = 0; i < weights.length; i ++) {
+            float[] weight = weights[i];
+            float[] weightDelta = weightDeltas[i];
+            for (int index = 0; index < weight.length; index ++) {
+                weight[index] = (float) (random.nextDouble() - 0.5);
+                weightDelta[index] = 0;
+            }
+        }
+    }
+
+    /**
+     * Copy the weights and momentum terms of a double network with the same topology,
+     * rounded to the nearest float. Lets both precisions start from the same weights.
+     */
+    public void copyWeightsFrom(NeuralNetwork other) {
+        checkTopology(other);
+        for (int i = 0; i < weights.length; i ++) {
+            for (int index = 0; index < weights[i].length; index ++) {
+                weights[i][index] = (float) other.weights[i][index];
+                weightDeltas[i][index] = (float) other.weightDeltas[i][index];
+            }
+        }
+        invalidateFirstLayerBaseline();
+    }
+
+    /**
+     * Copy the weights and momentum terms of another float network with the same topology.
+     */
+    public void copyWeightsFrom(FloatNeuralNetwork other) {
+        checkTopology(other);
+        for (int i = 0; i < weights.length; i ++) {
+            System.arraycopy(other.weights[i], 0, weights[i], 0, weights[i].length);
+            System.arraycopy(other.weightDeltas[i], 0, weightDeltas[i], 0, weightDeltas[i].length);
+        }
+        invalidateFirstLayerBaseline();
+    }
+
+    public void copyWeightsFrom(NeuralNet other) {
+        if (other instanceof FloatNeuralNetwork) {
+            copyWeightsFrom((FloatNeuralNetwork) other);
+        } else if (other instanceof NeuralNetwork) {
+            copyWeightsFrom((NeuralNetwork) other);
+        } else {
+            throw new IllegalArgumentException("Cannot copy the weights of a " + other.getClass().getSimpleName());
+        }
+    }
+
+    public Precision getPrecision() {
+        return Precision.FLOAT;
+    }
+
+    public void zeroWeights() {
+        invalidateFirstLayerBaseline();
+        for (int i = 0; i < weights.length; i ++) {
+            Arrays.fill(weights[i], 0);
+            Arrays.fill(weightDeltas[i], 0);
+        }
+    }
+
+    /**
+     * Same layout as NeuralNetwork.save, with float values. A file written by a double
+     * network loads here too, rounded to floats.
+     */
+    public void save(File argFile) {
+        PrintStream ps = null;
+        try {
+            ps = new PrintStream((new FileOutputStream(argFile)));
+            for (int i = 0; i < weights.length; i ++) {
+                for (int j = 0; j <= neuronNums[i]; j ++) {
+                    for (int k = 0; k < neuronNums[i+1]; k ++) {
+                        int index = weightIndex(i, j, k);
+                        ps.println(weights[i][index]);
+                        ps.println(weightDeltas[i][index]);
+                        ps.println(weightCorrections[i][index]);
+                    }
+                }
+            }
+
+            for (int i = 0; i < neuronOutputs.length; i ++) {
+                for (int j = 0; j < neuronOutputs[i].length; j ++) {
+                    ps.println(neuronOutputs[i][j]);
+                    ps.println(neuronDeltas[i][j]);
+                }
+            }
+            ps.close();
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void load(File argFile)  {
+        BufferedReader reader = null;
+        try {
+            invalidateFirstLayerBaseline();
+            reader = new BufferedReader(new FileReader(argFile));
+            for (int i = 0; i < weights.length; i ++) {
+                for (int j = 0; j <= neuronNums[i]; j ++) {
+                    for (int k = 0; k < neuronNums[i+1]; k ++) {
+                        int index = weightIndex(i, j, k);
+                        weights[i][index] = Float.parseFloat(reader.readLine());
+                        weightDeltas[i][index] = Float.parseFloat(reader.readLine());
+                        weightCorrections[i][index] = Float.parseFloat(reader.readLine());
+                    }
+                }
+            }
+
+            for (int i = 0; i < neuronOutputs.length; i ++) {
+                for (int j = 0; j < neuronOutputs[i].length; j ++) {
+                    neuronOutputs[i][j] = Float.parseFloat(reader.readLine());
+                    neuronDeltas[i][j] = Float.parseFloat(reader.readLine());
+                }
+            }
+
+            reader.close();
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package cpen502.nerualnetwork;
+
+/**
+ * The vector primitives the neural networks spend their time in.
+ * Every method works on a range of a flat array, so a kernel can walk one weight row.
+ * Each one comes in double, for NeuralNetwork, and in float, for FloatNeuralNetwork.
+ *
+ * Two backends exist: ScalarKernels, plain loops, and VectorKernels, built on the
+ * jdk.incubator.vector module in the separate source root src-vector. The backend is picked
+ * once when this class is loaded. The scalar one is the default: on the 20 input rows of the
+ * robot's networks the vector loops are slower, and only rows of 80 and more gain from them.
+ * Setting the system property cpen502.kernels to "vector" opts in to the vector one, which
+ * needs src-vector on the class path and --add-modules jdk.incubator.vector, and falls back
+ * to the scalar one without them.
+ */
+public interface MatrixKernels {
+
+    MatrixKernels DEFAULT = Selector.select();
+
+    /**
+     * @return sum(a[aOffset + i] * b[bOffset + i]) for i in [0, length)
+     */
+    double dot(double[] a, int aOffset, double[] b, int bOffset, int length);
+
+    /**
+     * y[yOffset + i] += alpha * x[xOffset + i] for i in [0, length)
+     */
+    void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    /**
+     * y[yOffset + i] = alpha * x[xOffset + i] for i in [0, length).
+     * One row of the outer product of the deltas and the inputs.
+     */
+    void scale(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length);
+
+    /**
+     * For every index in [from, to):
+     *      delta = weightCorrection + momentum * weightDelta
+     *      weight += delta, weightDelta = delta, weightCorrection = 0
+     * @return The sum of the applied deltas
+     */
+    double momentumUpdate(double[] weight, double[] weightDelta, double[] weightCorrection,
+                          double momentum, int from, int to);
+
+    /**
+     * Single precision dot, see dot(double[], int, double[], int, int).
+     */
+    float dot(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    /**
+     * Single precision axpy, see axpy(double, double[], int, double[], int, int).
+     */
+    void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    /**
+     * Single precision scale, see scale(double, double[], int, double[], int, int).
+     */
+    void scale(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length);
+
+    /**
+     * Single precision momentumUpdate, see momentumUpdate(double[], double[], double[], double, int, int).
+     */
+    float momentumUpdate(float[] weight, float[] weightDelta, float[] weightCorrection,
+                         float momentum, int from, int to);
+
+    /**
+     * @return The name of the backend
+     */
+    String name();
+
+    final class Selector {
+        static final String PROPERTY = "cpen502.kernels";
+
+        private Selector() {}
+
+        static MatrixKernels select() {
+            if (System.getProperty(PROPERTY, "scalar").equals("vector")) {
+                MatrixKernels vector = vector();
+                if (vector != null) {
+                    return vector;
+                }
+                System.err.println("Vector kernels unavailable, using scalar kernels");
+            }
+            return new ScalarKernels();
+        }
+
+        /**
+         * @return The vector kernels, null when src-vector or the incubator module is missing
+         */
+        static MatrixKernels vector() {
+            try {
+                return (MatrixKernels) Class.forName("cpen502.nerualnetwork.VectorKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (Throwable e) {
+                return null;
+            }
+        }
+    }
+}
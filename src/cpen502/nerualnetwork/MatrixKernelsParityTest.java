@@ -0,0 +1,219 @@
+package cpen502.nerualnetwork;
+
+import java.util.Random;
+
+/**
+ * Checks that the vector kernels agree with the scalar kernels within a tolerance, both
+ * kernel by kernel and over whole training runs of a network, in double and in float.
+ * Run with src-vector on the class path and --add-modules jdk.incubator.vector, otherwise
+ * there is nothing to compare.
+ */
+public class MatrixKernelsParityTest {
+    static final double KERNEL_TOLERANCE = 1e-12;
+    static final double NETWORK_TOLERANCE = 1e-9;
+    // float sums in another order differ by a few units of the 24 bit mantissa
+    static final double FLOAT_KERNEL_TOLERANCE = 1e-5;
+    static final double FLOAT_NETWORK_TOLERANCE = 1e-3;
+    static final int TRAIN_STEPS = 20000;
+
+    public static void main(String[] args) throws Exception {
+        MatrixKernels scalar = new ScalarKernels();
+        MatrixKernels vector = MatrixKernels.Selector.vector();
+        if (vector == null) {
+            System.out.println("Vector kernels unavailable, skipped MatrixKernelsParityTest");
+            return;
+        }
+        System.out.println("Comparing " + scalar.name() + " against " + vector.name());
+
+        checkKernels(scalar, vector);
+        checkFloatKernels(scalar, vector);
+        checkNetworks(scalar, vector);
+        checkFloatNetworks(scalar, vector);
+        System.out.println("MatrixKernelsParityTest passed");
+    }
+
+    static void checkKernels(MatrixKernels scalar, MatrixKernels vector) {
+        Random random = new Random(0);
+        // lengths around and beyond the vector widths, to cover the scalar tails
+        for (int length = 0; length <= 67; length ++) {
+            int offset = random.nextInt(5);
+            double[] a = randomArray(random, length + offset);
+            double[] b = randomArray(random, length + offset);
+            double alpha = random.nextDouble() * 2 - 1;
+
+            check("dot", length, scalar.dot(a, offset, b, offset, length),
+                    vector.dot(a, offset, b, offset, length));
+
+            double[] y1 = b.clone();
+            double[] y2 = b.clone();
+            scalar.axpy(alpha, a, offset, y1, offset, length);
+            vector.axpy(alpha, a, offset, y2, offset, length);
+            checkArrays("axpy", length, y1, y2);
+
+            scalar.scale(alpha, a, offset, y1, offset, length);
+            vector.scale(alpha, a, offset, y2, offset, length);
+            checkArrays("scale", length, y1, y2);
+
+            double[] weight1 = randomArray(random, length + offset);
+            double[] delta1 = randomArray(random, length + offset);
+            double[] correction1 = randomArray(random, length + offset);
+            double[] weight2 = weight1.clone();
+            double[] delta2 = delta1.clone();
+            double[] correction2 = correction1.clone();
+            double sum1 = scalar.momentumUpdate(weight1, delta1, correction1, alpha, offset, offset + length);
+            double sum2 = vector.momentumUpdate(weight2, delta2, correction2, alpha, offset, offset + length);
+            check("momentumUpdate", length, sum1, sum2);
+            checkArrays("momentumUpdate weight", length, weight1, weight2);
+            checkArrays("momentumUpdate weightDelta", length, delta1, delta2);
+            checkArrays("momentumUpdate weightCorrection", length, correction1, correction2);
+        }
+    }
+
+    static void checkFloatKernels(MatrixKernels scalar, MatrixKernels vector) {
+        Random random = new Random(0);
+        // float vectors are twice as wide, so go further to cover their tails
+        for (int length = 0; length <= 131; length ++) {
+            int offset = random.nextInt(5);
+            float[] a = randomFloats(random, length + offset);
+            float[] b = randomFloats(random, length + offset);
+            float alpha = random.nextFloat() * 2 - 1;
+
+            check("float dot", length, scalar.dot(a, offset, b, offset, length),
+                    vector.dot(a, offset, b, offset, length), FLOAT_KERNEL_TOLERANCE);
+
+            float[] y1 = b.clone();
+            float[] y2 = b.clone();
+            scalar.axpy(alpha, a, offset, y1, offset, length);
+            vector.axpy(alpha, a, offset, y2, offset, length);
+            checkFloats("float axpy", length, y1, y2, FLOAT_KERNEL_TOLERANCE);
+
+            scalar.scale(alpha, a, offset, y1, offset, length);
+            vector.scale(alpha, a, offset, y2, offset, length);
+            checkFloats("float scale", length, y1, y2, FLOAT_KERNEL_TOLERANCE);
+
+            float[] weight1 = randomFloats(random, length + offset);
+            float[] delta1 = randomFloats(random, length + offset);
+            float[] correction1 = randomFloats(random, length + offset);
+            float[] weight2 = weight1.clone();
+            float[] delta2 = delta1.clone();
+            float[] correction2 = correction1.clone();
+            float sum1 = scalar.momentumUpdate(weight1, delta1, correction1, alpha, offset, offset + length);
+            float sum2 = vector.momentumUpdate(weight2, delta2, correction2, alpha, offset, offset + length);
+            check("float momentumUpdate", length, sum1, sum2, FLOAT_KERNEL_TOLERANCE);
+            checkFloats("float momentumUpdate weight", length, weight1, weight2, FLOAT_KERNEL_TOLERANCE);
+            checkFloats("float momentumUpdate weightDelta", length, delta1, delta2, FLOAT_KERNEL_TOLERANCE);
+            checkFloats("float momentumUpdate weightCorrection", length, correction1, correction2, 0);
+        }
+    }
+
+    static void checkNetworks(MatrixKernels scalar, MatrixKernels vector) throws Exception {
+        int[] neuronNums = new int[]{20, 80, 80, 1};
+        NeuralNetwork scalarNet = new NeuralNetwork(neuronNums, Activation.SIGMOID_BIPOLAR, 0.6, 0.01);
+        NeuralNetwork vectorNet = new NeuralNetwork(neuronNums, Activation.SIGMOID_BIPOLAR, 0.6, 0.01);
+        scalarNet.kernels = scalar;
+        vectorNet.kernels = vector;
+        scalarNet.initializeWeights();
+        vectorNet.copyWeightsFrom(scalarNet);
+
+        Random random = new Random(1);
+        double[][] inputs = new double[64][20];
+        double[][] targets = new double[64][1];
+        for (int i = 0; i < inputs.length; i ++) {
+            inputs[i] = randomArray(random, 20);
+            targets[i][0] = random.nextDouble() * 2 - 1;
+        }
+
+        double[] output1 = new double[1];
+        double[] output2 = new double[1];
+        for (int step = 0; step < TRAIN_STEPS; step ++) {
+            int sample = step % inputs.length;
+            scalarNet.train(inputs[sample], targets[sample][0]);
+            vectorNet.train(inputs[sample], targets[sample][0]);
+        }
+        scalarNet.trainBatch(inputs, targets);
+        vectorNet.trainBatch(inputs, targets);
+
+        for (int i = 0; i < scalarNet.weights.length; i ++) {
+            checkArrays("network weights of layer " + i, scalarNet.weights[i].length,
+                    scalarNet.weights[i], vectorNet.weights[i]);
+        }
+        for (double[] input : inputs) {
+            check("network output", neuronNums[0], scalarNet.outputInto(input, output1)[0],
+                    vectorNet.outputInto(input, output2)[0], NETWORK_TOLERANCE);
+        }
+    }
+
+    static void checkFloatNetworks(MatrixKernels scalar, MatrixKernels vector) throws Exception {
+        int[] neuronNums = new int[]{20, 80, 80, 1};
+        NeuralNetwork initial = new NeuralNetwork(neuronNums, Activation.SIGMOID_BIPOLAR, 0.6, 0.01);
+        initial.initializeWeights();
+        FloatNeuralNetwork scalarNet = new FloatNeuralNetwork(neuronNums, Activation.SIGMOID_BIPOLAR, 0.6, 0.01);
+        FloatNeuralNetwork vectorNet = new FloatNeuralNetwork(neuronNums, Activation.SIGMOID_BIPOLAR, 0.6, 0.01);
+        scalarNet.kernels = scalar;
+        vectorNet.kernels = vector;
+        scalarNet.copyWeightsFrom(initial);
+        vectorNet.copyWeightsFrom(initial);
+
+        Random random = new Random(1);
+        double[][] inputs = new double[64][20];
+        double[][] targets = new double[64][1];
+        for (int i = 0; i < inputs.length; i ++) {
+            inputs[i] = randomArray(random, 20);
+            targets[i][0] = random.nextDouble() * 2 - 1;
+        }
+
+        double[] output1 = new double[1];
+        double[] output2 = new double[1];
+        for (int step = 0; step < TRAIN_STEPS; step ++) {
+            int sample = step % inputs.length;
+            scalarNet.train(inputs[sample], targets[sample][0]);
+            vectorNet.train(inputs[sample], targets[sample][0]);
+        }
+        scalarNet.trainBatch(inputs, targets);
+        vectorNet.trainBatch(inputs, targets);
+
+        for (double[] input : inputs) {
+            check("float network output", neuronNums[0], scalarNet.outputInto(input, output1)[0],
+                    vectorNet.outputInto(input, output2)[0], FLOAT_NETWORK_TOLERANCE);
+        }
+    }
+
+    static void check(String name, int length, double expected, double actual) {
+        check(name, length, expected, actual, KERNEL_TOLERANCE);
+    }
+
+    static void check(String name, int length, double expected, double actual, double tolerance) {
+        if (Math.abs(expected - actual) > tolerance * Math.max(1, Math.abs(expected))) {
+            throw new AssertionError(name + " at length " + length + ": expected " + expected
+                    + " but was " + actual);
+        }
+    }
+
+    static void checkArrays(String name, int length, double[] expected, double[] actual) {
+        for (int i = 0; i < expected.length; i ++) {
+            check(name + "[" + i + "]", length, expected[i], actual[i], NETWORK_TOLERANCE);
+        }
+    }
+
+    static void checkFloats(String name, int length, float[] expected, float[] actual, double tolerance) {
+        for (int i = 0; i < expected.length; i ++) {
+            check(name + "[" + i + "]", length, expected[i], actual[i], tolerance);
+        }
+    }
+
+    static float[] randomFloats(Random random, int length) {
+        float[] array = new float[length];
+        for (int i = 0; i < length; i ++) {
+            array[i] = random.nextFloat() * 2 - 1;
+        }
+        return array;
+    }
+
+    static double[] randomArray(Random random, int length) {
+        double[] array = new double[length];
+        for (int i = 0; i < length; i ++) {
+            array[i] = random.nextDouble() * 2 - 1;
+        }
+        return array;
+    }
+}
@@ -0,0 +1,109 @@
+package cpen502.nerualnetwork;
+
+import java.io.File;
+
+/**
+ * The operations shared by the double and the float neural networks.
+ * Inputs, targets and outputs are doubles whatever the precision of the network,
+ * so callers can switch precision without changing anything else.
+ */
+public interface NeuralNet {
+
+    /**
+     * Create a network of the given precision.
+     * @param neuronNums The number of neurons of every layer, input layer first
+     * @param precision DOUBLE for NeuralNetwork, FLOAT for FloatNeuralNetwork
+     */
+    static NeuralNet create(int[] neuronNums, Activation activation, double momentum,
+                            double learningRate, Precision precision) throws Exception {
+        switch (precision) {
+            case DOUBLE:
+                return new NeuralNetwork(neuronNums, activation, momentum, learningRate);
+            case FLOAT:
+                return new FloatNeuralNetwork(neuronNums, activation, momentum, learningRate);
+            default:
+                throw new IllegalArgumentException("Invalid precision " + precision);
+        }
+    }
+
+    /**
+     * Learn the expected value based on the input vector.
+     * @return The output using the neural network before it updated
+     */
+    double[] train(double[] X, double[] argValue);
+
+    /**
+     * Learn the expected value of a network with a single output neuron, without allocating.
+     * @return The output using the neural network before it updated
+     */
+    double train(double[] X, double argValue);
+
+    /**
+     * Learn the expected value of a bipolar one hot input on a network with a single
+     * output neuron, without allocating.
+     * @param active The indices of the +1 inputs, every other input is -1
+     * @return The output using the neural network before it updated
+     */
+    double trainEncoded(int[] active, double argValue);
+
+    /**
+     * Learn a set of samples with mini-batch gradient descent of getBatchSize() samples.
+     * @return The total squared error 0.5 * sum((C - y)^2) of the outputs before each update
+     */
+    double trainBatch(double[][] inputs, double[][] targets);
+
+    /**
+     * Compute the output based on the input vector.
+     */
+    double[] outputFor(double[] X);
+
+    /**
+     * Compute the output based on the input vector into output without allocating.
+     * @return output
+     */
+    double[] outputInto(double[] X, double[] output);
+
+    /**
+     * Compute the output of a bipolar one hot input into output without allocating.
+     * @param active The indices of the +1 inputs, every other input is -1
+     * @return output
+     */
+    double[] outputIntoEncoded(int[] active, double[] output);
+
+    int getBatchSize();
+
+    void setBatchSize(int batchSize);
+
+    /**
+     * Seed the generator of initializeWeights, for repeatable runs.
+     */
+    void setSeed(long seed);
+
+    void initializeWeights();
+
+    void zeroWeights();
+
+    int[] getNeuronNums();
+
+    Activation getActivation();
+
+    Precision getPrecision();
+
+    /**
+     * Copy the weights and momentum terms of a network with the same topology, without
+     * serializing them. A float network narrows the weights of a double one.
+     * @throws IllegalArgumentException If the topology differs or a double network is given
+     *                                  a float one
+     */
+    void copyWeightsFrom(NeuralNet other);
+
+    /**
+     * @return A counter that changes whenever the weights do, by training, initializing,
+     *         copying or loading them, so results computed from the weights can be cached
+     */
+    long getWeightVersion();
+
+    void save(File argFile);
+
+    void load(File argFile);
+}
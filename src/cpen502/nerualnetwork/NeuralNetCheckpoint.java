@@ -0,0 +1,462 @@
+package cpen502.nerualnetwork;
+
+import cpen502.utils.CheckpointService;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Binary checkpoints of a neural network, the fast alternative to the text files of
+ * NeuralNet.save and NeuralNet.load.
+ *
+ * Layout, little endian:
+ *      int    magic            MAGIC
+ *      int    version          VERSION
+ *      int    precision id     Precision.getId(), the type of every payload value
+ *      int    activation id    Activation.getId()
+ *      int    flags            FLAG_TRANSIENT when the neuron outputs and deltas are included
+ *      int    layer number
+ *      int[]  neuronNums
+ *      payload, for every layer i: weights[i], weightDeltas[i], weightCorrections[i] in the
+ *               flat layout of the network (one row per upper neuron, bias last), then with
+ *               FLAG_TRANSIENT, for every layer: neuronOutputs[i], neuronDeltas[i]
+ *
+ * The payload is copied in bulk between the arrays of the network and a ByteBuffer, and
+ * goes through NIO channels in one piece. A checkpoint loads into a network of the other
+ * precision too, the values are widened or narrowed on the way. Loading rejects a file of
+ * another topology or activation with an IOException.
+ *
+ * Inference checkpoints leave out the neuron outputs and deltas, which only cache the last
+ * propagation. Loading such a checkpoint clears them.
+ */
+public class NeuralNetCheckpoint {
+    public final static int MAGIC = 0x4E4E434B; // "NNCK"
+    public final static int VERSION = 1;
+    public final static int FLAG_TRANSIENT = 1;
+
+    final static int FIXED_HEADER_BYTES = 6 * Integer.BYTES;
+
+    private NeuralNetCheckpoint() {}
+
+    /**
+     * The header of a checkpoint.
+     */
+    public static class Header {
+        public final int version;
+        public final Precision precision;
+        public final Activation activation;
+        public final boolean includesTransient;
+        public final int[] neuronNums;
+
+        Header(int version, Precision precision, Activation activation, boolean includesTransient,
+               int[] neuronNums) {
+            this.version = version;
+            this.precision = precision;
+            this.activation = activation;
+            this.includesTransient = includesTransient;
+            this.neuronNums = neuronNums;
+        }
+
+        int headerBytes() {
+            return FIXED_HEADER_BYTES + neuronNums.length * Integer.BYTES;
+        }
+
+        /**
+         * @throws ArithmeticException When the size overflows a long, only for a corrupted header
+         */
+        long payloadBytes() {
+            long values = 0;
+            for (int i = 0; i < neuronNums.length - 1; i ++) {
+                values = Math.addExact(values, Math.multiplyExact(3L * (neuronNums[i] + 1), neuronNums[i+1]));
+            }
+            if (includesTransient) {
+                for (int neuronNum : neuronNums) {
+                    values = Math.addExact(values, 2L * neuronNum);
+                }
+            }
+            return Math.multiplyExact(values, precision.getBytes());
+        }
+
+        @Override
+        public String toString() {
+            return "version " + version + ", " + precision + ", " + activation + ", topology "
+                    + Arrays.toString(neuronNums) + (includesTransient ? ", with transient state" : "");
+        }
+    }
+
+    /**
+     * Write a checkpoint of a network to a file.
+     * @param includeTransient Whether to write the neuron outputs and deltas as well
+     */
+    public static void save(NeuralNet neuralnet, File file, boolean includeTransient) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            write(neuralnet, channel, includeTransient);
+        }
+    }
+
+    /**
+     * Write a checkpoint of a network to a stream, e.g. a RobocodeFileOutputStream.
+     * The stream is flushed but not closed.
+     */
+    public static void save(NeuralNet neuralnet, OutputStream out, boolean includeTransient) throws IOException {
+        write(neuralnet, Channels.newChannel(out), includeTransient);
+        out.flush();
+    }
+
+    /**
+     * Load a checkpoint into a network of the same topology and activation.
+     * A file of another size than its header announces is rejected before the network is touched.
+     */
+    public static void load(NeuralNet neuralnet, File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Header header = readHeader(channel);
+            checkFileSize(file, header, channel.size());
+            read(neuralnet, header, channel);
+        }
+    }
+
+    /**
+     * Load a checkpoint from a stream into a network of the same topology and activation.
+     * The checkpoint must end the stream, which is not closed.
+     */
+    public static void load(NeuralNet neuralnet, InputStream in) throws IOException {
+        ReadableByteChannel channel = Channels.newChannel(in);
+        read(neuralnet, readHeader(channel), channel);
+    }
+
+    /**
+     * Create a network of the precision, activation and topology of a checkpoint and load it.
+     * The size of the file is checked against its header before the network is allocated.
+     */
+    public static NeuralNet load(File file, double momentum, double learningRate) throws Exception {
+        Header header;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            header = readHeader(channel);
+            checkFileSize(file, header, channel.size());
+        }
+        NeuralNet neuralnet = NeuralNet.create(header.neuronNums, header.activation, momentum,
+                learningRate, header.precision);
+        load(neuralnet, file);
+        return neuralnet;
+    }
+
+    public static Header readHeader(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readHeader(channel);
+        }
+    }
+
+    /**
+     * Convert a text file written by NeuralNet.save into a checkpoint. The text format has no
+     * header, so the topology and activation of the network have to be given.
+     */
+    public static void textToBinary(File text, File binary, int[] neuronNums, Activation activation,
+                                    Precision precision, boolean includeTransient) throws Exception {
+        NeuralNet neuralnet = NeuralNet.create(neuronNums, activation, 0, 0, precision);
+        neuralnet.load(text);
+        save(neuralnet, binary, includeTransient);
+    }
+
+    /**
+     * Convert a checkpoint into the text format of NeuralNet.save.
+     */
+    public static void binaryToText(File binary, File text) throws Exception {
+        load(binary, 0, 0).save(text);
+    }
+
+    private static void write(NeuralNet neuralnet, WritableByteChannel channel,
+                              boolean includeTransient) throws IOException {
+        new Snapshot(neuralnet, includeTransient, false).write(channel);
+    }
+
+    /**
+     * Copy the state of a network for a checkpoint written later, e.g. by a CheckpointService
+     * on another thread. Only the arrays are copied here, the serialization happens in writeTo.
+     * @param includeTransient Whether to copy the neuron outputs and deltas as well
+     */
+    public static Snapshot snapshot(NeuralNet neuralnet, boolean includeTransient) {
+        return new Snapshot(neuralnet, includeTransient, true);
+    }
+
+    /**
+     * The arrays of a network in payload order, either copied or referenced.
+     */
+    public static class Snapshot implements CheckpointService.Snapshot {
+        final Header header;
+        final double[][] doubles;
+        final float[][] floats;
+
+        Snapshot(NeuralNet neuralnet, boolean includeTransient, boolean copy) {
+            header = new Header(VERSION, neuralnet.getPrecision(), neuralnet.getActivation(),
+                    includeTransient, neuralnet.getNeuronNums());
+            int layerNum = header.neuronNums.length;
+            int arrayNum = 3 * (layerNum - 1) + (includeTransient ? 2 * layerNum : 0);
+            if (neuralnet instanceof NeuralNetwork) {
+                NeuralNetwork network = (NeuralNetwork) neuralnet;
+                doubles = new double[arrayNum][];
+                floats = null;
+                int next = 0;
+                for (int i = 0; i < network.weights.length; i ++) {
+                    doubles[next ++] = copy ? network.weights[i].clone() : network.weights[i];
+                    doubles[next ++] = copy ? network.weightDeltas[i].clone() : network.weightDeltas[i];
+                    doubles[next ++] = copy ? network.weightCorrections[i].clone() : network.weightCorrections[i];
+                }
+                if (includeTransient) {
+                    for (int i = 0; i < network.neuronOutputs.length; i ++) {
+                        doubles[next ++] = copy ? network.neuronOutputs[i].clone() : network.neuronOutputs[i];
+                        doubles[next ++] = copy ? network.neuronDeltas[i].clone() : network.neuronDeltas[i];
+                    }
+                }
+            } else {
+                FloatNeuralNetwork network = (FloatNeuralNetwork) neuralnet;
+                doubles = null;
+                floats = new float[arrayNum][];
+                int next = 0;
+                for (int i = 0; i < network.weights.length; i ++) {
+                    floats[next ++] = copy ? network.weights[i].clone() : network.weights[i];
+                    floats[next ++] = copy ? network.weightDeltas[i].clone() : network.weightDeltas[i];
+                    floats[next ++] = copy ? network.weightCorrections[i].clone() : network.weightCorrections[i];
+                }
+                if (includeTransient) {
+                    for (int i = 0; i < network.neuronOutputs.length; i ++) {
+                        floats[next ++] = copy ? network.neuronOutputs[i].clone() : network.neuronOutputs[i];
+                        floats[next ++] = copy ? network.neuronDeltas[i].clone() : network.neuronDeltas[i];
+                    }
+                }
+            }
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            write(Channels.newChannel(out));
+            out.flush();
+        }
+
+        void write(WritableByteChannel channel) throws IOException {
+            int[] neuronNums = header.neuronNums;
+            ByteBuffer buffer = ByteBuffer.allocate(checkedSize(header.headerBytes() + header.payloadBytes()))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(header.precision.getId());
+            buffer.putInt(header.activation.getId());
+            buffer.putInt(header.includesTransient ? FLAG_TRANSIENT : 0);
+            buffer.putInt(neuronNums.length);
+            for (int neuronNum : neuronNums) {
+                buffer.putInt(neuronNum);
+            }
+
+            if (doubles != null) {
+                for (double[] values : doubles) {
+                    putDoubles(buffer, values);
+                }
+            } else {
+                for (float[] values : floats) {
+                    putFloats(buffer, values);
+                }
+            }
+
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Read the payload of a checkpoint whose header was read, and copy it into the network once
+     * it is complete and followed by nothing, so a rejected checkpoint leaves the network as it was.
+     */
+    private static void read(NeuralNet neuralnet, Header header, ReadableByteChannel channel) throws IOException {
+        if (!Arrays.equals(header.neuronNums, neuralnet.getNeuronNums())) {
+            throw new IOException("Checkpoint topology " + Arrays.toString(header.neuronNums)
+                    + " does not match " + Arrays.toString(neuralnet.getNeuronNums()));
+        }
+        if (header.activation != neuralnet.getActivation()) {
+            throw new IOException("Checkpoint activation " + header.activation
+                    + " does not match " + neuralnet.getActivation());
+        }
+
+        ByteBuffer buffer = readFully(channel, checkedSize(header.payloadBytes()));
+        if (channel.read(ByteBuffer.allocate(1)) >= 0) {
+            throw new IOException("Checkpoint has data after its " + header.payloadBytes() + " payload bytes");
+        }
+        boolean doubles = header.precision == Precision.DOUBLE;
+        if (neuralnet instanceof NeuralNetwork) {
+            NeuralNetwork network = (NeuralNetwork) neuralnet;
+            network.invalidateFirstLayerBaseline();
+            for (int i = 0; i < network.weights.length; i ++) {
+                getDoubles(buffer, network.weights[i], doubles);
+                getDoubles(buffer, network.weightDeltas[i], doubles);
+                getDoubles(buffer, network.weightCorrections[i], doubles);
+            }
+            for (int i = 0; i < network.neuronOutputs.length; i ++) {
+                if (header.includesTransient) {
+                    getDoubles(buffer, network.neuronOutputs[i], doubles);
+                    getDoubles(buffer, network.neuronDeltas[i], doubles);
+                } else {
+                    Arrays.fill(network.neuronOutputs[i], 0);
+                    Arrays.fill(network.neuronDeltas[i], 0);
+                }
+            }
+        } else {
+            FloatNeuralNetwork network = (FloatNeuralNetwork) neuralnet;
+            network.invalidateFirstLayerBaseline();
+            for (int i = 0; i < network.weights.length; i ++) {
+                getFloats(buffer, network.weights[i], doubles);
+                getFloats(buffer, network.weightDeltas[i], doubles);
+                getFloats(buffer, network.weightCorrections[i], doubles);
+            }
+            for (int i = 0; i < network.neuronOutputs.length; i ++) {
+                if (header.includesTransient) {
+                    getFloats(buffer, network.neuronOutputs[i], doubles);
+                    getFloats(buffer, network.neuronDeltas[i], doubles);
+                } else {
+                    Arrays.fill(network.neuronOutputs[i], 0);
+                    Arrays.fill(network.neuronDeltas[i], 0);
+                }
+            }
+        }
+    }
+
+    private static Header readHeader(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = readFully(channel, FIXED_HEADER_BYTES);
+        int magic = buffer.getInt();
+        if (magic != MAGIC) {
+            throw new IOException("Not a neural network checkpoint, magic " + Integer.toHexString(magic));
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version + ", expected " + VERSION);
+        }
+        Precision precision;
+        Activation activation;
+        try {
+            precision = Precision.fromId(buffer.getInt());
+            activation = Activation.fromId(buffer.getInt());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupted checkpoint header", e);
+        }
+        int flags = buffer.getInt();
+        int layerNum = buffer.getInt();
+        if (layerNum < NeuralNetwork.MIN_NEURAL_LAYER_NUM || layerNum > 1024) {
+            throw new IOException("Corrupted checkpoint header, " + layerNum + " layers");
+        }
+
+        buffer = readFully(channel, layerNum * Integer.BYTES);
+        int[] neuronNums = new int[layerNum];
+        for (int i = 0; i < layerNum; i ++) {
+            neuronNums[i] = buffer.getInt();
+            if (neuronNums[i] < 1) {
+                throw new IOException("Corrupted checkpoint header, layer " + i + " has "
+                        + neuronNums[i] + " neurons");
+            }
+        }
+        Header header = new Header(version, precision, activation, (flags & FLAG_TRANSIENT) != 0, neuronNums);
+        try {
+            checkedSize(header.headerBytes() + header.payloadBytes());
+        } catch (ArithmeticException e) {
+            throw new IOException("Corrupted checkpoint header, topology " + Arrays.toString(neuronNums), e);
+        }
+        return header;
+    }
+
+    private static void checkFileSize(File file, Header header, long fileSize) throws IOException {
+        long size = header.headerBytes() + header.payloadBytes();
+        if (fileSize != size) {
+            throw new IOException("Checkpoint " + file + " has " + fileSize + " bytes, expected " + size);
+        }
+    }
+
+    private static ByteBuffer readFully(ReadableByteChannel channel, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Checkpoint truncated, missing " + buffer.remaining() + " bytes");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int checkedSize(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Checkpoint of " + size + " bytes is too large");
+        }
+        return (int) size;
+    }
+
+    private static void putDoubles(ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Double.BYTES);
+    }
+
+    private static void putFloats(ByteBuffer buffer, float[] values) {
+        buffer.asFloatBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Float.BYTES);
+    }
+
+    /**
+     * @param doubles Whether the payload holds doubles, floats otherwise
+     */
+    private static void getDoubles(ByteBuffer buffer, double[] values, boolean doubles) {
+        if (doubles) {
+            buffer.asDoubleBuffer().get(values);
+            buffer.position(buffer.position() + values.length * Double.BYTES);
+        } else {
+            for (int i = 0; i < values.length; i ++) {
+                values[i] = buffer.getFloat();
+            }
+        }
+    }
+
+    private static void getFloats(ByteBuffer buffer, float[] values, boolean doubles) {
+        if (doubles) {
+            for (int i = 0; i < values.length; i ++) {
+                values[i] = (float) buffer.getDouble();
+            }
+        } else {
+            buffer.asFloatBuffer().get(values);
+            buffer.position(buffer.position() + values.length * Float.BYTES);
+        }
+    }
+
+    /**
+     * Converts between the text and the binary format.
+     *      to-binary <text> <binary> <neuronNums, e.g. 20,80,1> [activation] [precision] [--inference]
+     *      to-text   <binary> <text>
+     *      info      <binary>
+     */
+    public static void main(String[] args) throws Exception {
+        boolean includeTransient = !Arrays.asList(args).contains("--inference");
+        args = Arrays.stream(args).filter(arg -> !arg.startsWith("--")).toArray(String[]::new);
+        if (args.length >= 4 && args[0].equals("to-binary")) {
+            String[] sizes = args[3].split(",");
+            int[] neuronNums = new int[sizes.length];
+            for (int i = 0; i < sizes.length; i ++) {
+                neuronNums[i] = Integer.parseInt(sizes[i].trim());
+            }
+            Activation activation = args.length > 4 ? Activation.valueOf(args[4]) : Activation.SIGMOID_BIPOLAR;
+            Precision precision = args.length > 5 ? Precision.valueOf(args[5]) : Precision.DOUBLE;
+            textToBinary(new File(args[1]), new File(args[2]), neuronNums, activation, precision, includeTransient);
+            System.out.println("Wrote " + readHeader(new File(args[2])));
+        } else if (args.length == 3 && args[0].equals("to-text")) {
+            binaryToText(new File(args[1]), new File(args[2]));
+        } else if (args.length == 2 && args[0].equals("info")) {
+            System.out.println(readHeader(new File(args[1])));
+        } else {
+            System.out.println("Usage:");
+            System.out.println("    to-binary <text> <binary> <neuronNums, e.g. 20,80,1> [activation] [precision] [--inference]");
+            System.out.println("    to-text   <binary> <text>");
+            System.out.println("    info      <binary>");
+        }
+    }
+}
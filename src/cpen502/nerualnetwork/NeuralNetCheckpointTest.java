@@ -0,0 +1,165 @@
+package cpen502.nerualnetwork;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Round trips of NeuralNetCheckpoint, its checks on mismatching files, and the load time
+ * of a checkpoint against the text format.
+ */
+public class NeuralNetCheckpointTest {
+    static final int[] NEURON_NUMS = new int[]{20, 80, 1};
+    static final int TIMING_ROUNDS = 50;
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        File binary = new File(dir, "NeuralNetCheckpointTest.bin");
+        File text = new File(dir, "NeuralNetCheckpointTest.txt");
+        File text2 = new File(dir, "NeuralNetCheckpointTest2.txt");
+
+        NeuralNetwork trained = trainedNetwork();
+
+        // double round trip, with transient state
+        NeuralNetCheckpoint.save(trained, binary, true);
+        NeuralNetwork loaded = new NeuralNetwork(NEURON_NUMS, Activation.SIGMOID_BIPOLAR, 0.6, 0.01);
+        NeuralNetCheckpoint.load(loaded, binary);
+        for (int i = 0; i < trained.weights.length; i ++) {
+            check("weights", Arrays.equals(trained.weights[i], loaded.weights[i]));
+            check("weightDeltas", Arrays.equals(trained.weightDeltas[i], loaded.weightDeltas[i]));
+            check("weightCorrections", Arrays.equals(trained.weightCorrections[i], loaded.weightCorrections[i]));
+        }
+        for (int i = 0; i < trained.neuronOutputs.length; i ++) {
+            check("neuronOutputs", Arrays.equals(trained.neuronOutputs[i], loaded.neuronOutputs[i]));
+            check("neuronDeltas", Arrays.equals(trained.neuronDeltas[i], loaded.neuronDeltas[i]));
+        }
+
+        // inference checkpoint leaves the transient state out
+        NeuralNetCheckpoint.save(trained, binary, false);
+        check("inference header", !NeuralNetCheckpoint.readHeader(binary).includesTransient);
+        NeuralNetCheckpoint.load(loaded, binary);
+        check("inference neuronOutputs cleared", loaded.neuronOutputs[1][0] == 0);
+        double[] input = new double[NEURON_NUMS[0]];
+        Arrays.fill(input, -1);
+        input[3] = 1;
+        check("inference output", trained.outputFor(input)[0] == loaded.outputFor(input)[0]);
+
+        // text -> binary -> text is lossless
+        trained.save(text);
+        NeuralNetCheckpoint.textToBinary(text, binary, NEURON_NUMS, Activation.SIGMOID_BIPOLAR,
+                Precision.DOUBLE, true);
+        NeuralNetCheckpoint.binaryToText(binary, text2);
+        check("text conversion", Arrays.equals(readLines(text), readLines(text2)));
+
+        // double checkpoint into a float network and back
+        FloatNeuralNetwork floatNet = new FloatNeuralNetwork(NEURON_NUMS, Activation.SIGMOID_BIPOLAR, 0.6, 0.01);
+        NeuralNetCheckpoint.load(floatNet, binary);
+        check("narrowed weight", floatNet.weights[0][7] == (float) trained.weights[0][7]);
+        NeuralNetCheckpoint.save(floatNet, binary, true);
+        NeuralNet created = NeuralNetCheckpoint.load(binary, 0.6, 0.01);
+        check("float precision", created.getPrecision() == Precision.FLOAT);
+        check("float payload", binary.length() == NeuralNetCheckpoint.readHeader(binary).headerBytes()
+                + NeuralNetCheckpoint.readHeader(binary).payloadBytes());
+
+        // mismatching topology, activation, truncated and foreign files are rejected
+        NeuralNetCheckpoint.save(trained, binary, true);
+        expectIOException("topology", new NeuralNetwork(new int[]{20, 40, 1}, Activation.SIGMOID_BIPOLAR, 0, 0), binary);
+        expectIOException("activation", new NeuralNetwork(NEURON_NUMS, Activation.TANH, 0, 0), binary);
+        truncate(binary, binary.length() - 5);
+        expectIOException("truncated", new NeuralNetwork(NEURON_NUMS, Activation.SIGMOID_BIPOLAR, 0, 0), binary);
+
+        // trailing data is rejected before the weights are overwritten, from a file and a stream
+        NeuralNetCheckpoint.save(trained, binary, true);
+        truncate(binary, binary.length() + 3);
+        NeuralNetwork untouched = new NeuralNetwork(NEURON_NUMS, Activation.SIGMOID_BIPOLAR, 0, 0);
+        expectIOException("trailing data", untouched, binary);
+        check("weights kept after trailing data", untouched.weights[0][7] == 0);
+        try (InputStream in = new FileInputStream(binary)) {
+            NeuralNetCheckpoint.load(untouched, in);
+            throw new AssertionError("trailing data in a stream: load did not fail");
+        } catch (IOException e) {
+            check("weights kept after trailing stream data", untouched.weights[0][7] == 0);
+        }
+        expectIOException("text file", new NeuralNetwork(NEURON_NUMS, Activation.SIGMOID_BIPOLAR, 0, 0), text);
+
+        // a header announcing huge layers is rejected before a network is allocated for it,
+        // also when the size of the payload overflows
+        for (int neuronNum : new int[]{1 << 30, Integer.MAX_VALUE}) {
+            NeuralNetCheckpoint.save(trained, binary, true);
+            try (RandomAccessFile raf = new RandomAccessFile(binary, "rw")) {
+                raf.seek(NeuralNetCheckpoint.FIXED_HEADER_BYTES);
+                raf.writeInt(Integer.reverseBytes(neuronNum));
+                raf.writeInt(Integer.reverseBytes(neuronNum));
+            }
+            try {
+                NeuralNetCheckpoint.load(binary, 0.6, 0.01);
+                throw new AssertionError("huge layers of " + neuronNum + ": load did not fail");
+            } catch (IOException e) {
+                check("huge layers rejected by the header", e.getMessage().startsWith("Corrupted")
+                        || e.getMessage().contains("too large"));
+            }
+        }
+
+        // load time
+        NeuralNetCheckpoint.save(trained, binary, true);
+        long textNanos = 0;
+        long binaryNanos = 0;
+        for (int round = 0; round < TIMING_ROUNDS; round ++) {
+            long start = System.nanoTime();
+            loaded.load(text);
+            textNanos += System.nanoTime() - start;
+            start = System.nanoTime();
+            NeuralNetCheckpoint.load(loaded, binary);
+            binaryNanos += System.nanoTime() - start;
+        }
+        System.out.printf("Load %s: text %d bytes %.3f ms, binary %d bytes %.3f ms%n",
+                Arrays.toString(NEURON_NUMS), text.length(), textNanos / 1e6 / TIMING_ROUNDS,
+                binary.length(), binaryNanos / 1e6 / TIMING_ROUNDS);
+
+        binary.delete();
+        text.delete();
+        text2.delete();
+        System.out.println("NeuralNetCheckpointTest passed");
+    }
+
+    static NeuralNetwork trainedNetwork() throws Exception {
+        NeuralNetwork neuralnet = new NeuralNetwork(NEURON_NUMS, Activation.SIGMOID_BIPOLAR, 0.6, 0.01);
+        neuralnet.initializeWeights();
+        Random random = new Random(0);
+        double[] input = new double[NEURON_NUMS[0]];
+        for (int step = 0; step < 1000; step ++) {
+            for (int i = 0; i < input.length; i ++) {
+                input[i] = random.nextBoolean() ? 1 : -1;
+            }
+            neuralnet.train(input, random.nextDouble() * 2 - 1);
+        }
+        return neuralnet;
+    }
+
+    static void expectIOException(String name, NeuralNet neuralnet, File file) {
+        try {
+            NeuralNetCheckpoint.load(neuralnet, file);
+        } catch (IOException e) {
+            return;
+        }
+        throw new AssertionError(name + ": load did not fail");
+    }
+
+    static void truncate(File file, long size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(size);
+        }
+    }
+
+    static String[] readLines(File file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            return reader.lines().toArray(String[]::new);
+        }
+    }
+
+    static void check(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
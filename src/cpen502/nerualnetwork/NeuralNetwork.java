@@ -2,10 +2,7 @@ package cpen502.nerualnetwork;
 
 import javax.annotation.processing.Filer;
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
-import java.util.function.Function;
+import java.util.Arrays;
 
 /**
  * Neural network class that implements CommonInterface
@@ -13,57 +10,101 @@ import java.util.function.Function;
  * and one for the output.
  * This class also contains some functions that delivers the stats of this neural
  * network and its trainings.
+ *
+ * Weights between two layers are stored in one contiguous array per layer.
+ * The array holds one row per neuron of the upper layer, and each row holds the
+ * weights from every neuron of the lower layer followed by the bias weight:
+ *      weights[layer][output * (neuronNums[layer] + 1) + input]
+ * Both the forward and the backward propagation walk these rows sequentially.
+ *
+ * The network owns all the workspaces the propagations need, so outputInto and
+ * train(double[], double) do not allocate once the network is constructed.
+ *
+ * outputIntoEncoded and trainEncoded take a bipolar one hot input as the indices of its
+ * +1 entries, every other entry being -1. The first layer then starts from a cached
+ * "all -1" pre-activation and adds twice the weights of the active inputs, so a lookup
+ * reads only those weights instead of the whole first layer.
+ *
+ * Dot products, row updates and the momentum update run through MatrixKernels, scalar
+ * loops unless the SIMD ones are asked for at startup.
+ *
+ * trainBatch propagates a whole mini-batch layer by layer. Activations and deltas of
+ * a batch are stored as [sample][neuron] matrices, so every pass is a matrix-matrix
+ * product in which each weight row is loaded once and reused for every sample.
  */
-public class NeuralNetwork{
+public class NeuralNetwork extends AbstractNeuralNet {
     final double bias = 1.0;
-    final static int MIN_NEURAL_LAYER_NUM = 2;
-    final Random random = new Random();
 
-    final int layerNum;
-    final int[] neuronNums;
-    final List<double[][]> weights;
-    final List<double[][]> weightDeltas;
-    final List<double[][]> weightCorrections;
+    final double[][] weights;
+    final double[][] weightDeltas;
+    final double[][] weightCorrections;
 
-    final List<double[]> neuronOutputs;
-    final List<double[]> neuronDeltas;
+    final double[][] neuronOutputs;
+    final double[][] neuronDeltas;
+    final double[] outputErrors;
+
+    // first layer pre-activation of an input of all -1, kept in sync by updateWeights
+    double[] firstLayerBaseline;
+
+    // workspaces of trainBatch, [layer][sample * neuronNums[layer] + neuron]
+    double[][] batchOutputs;
+    double[][] batchDeltas;
 
     final double momentum;
     final double learningRate;
 
-    final Function<Double, Double> activationFunction;
-    final Function<Double, Double> activationDerivativeFunction;
-
-    public NeuralNetwork (int[] neuronNums, Function<Double, Double> activationFunction,
-                          Function<Double, Double> activationDerivativeFunction,
+    public NeuralNetwork (int[] neuronNums, Activation activation,
                           double momentum, double learningRate) throws Exception {
-        if (neuronNums.length < MIN_NEURAL_LAYER_NUM) {
-            throw new Exception("Neural Network must have at least " + MIN_NEURAL_LAYER_NUM + " layers");
-        }
-        layerNum = neuronNums.length;
-        this.neuronNums = neuronNums;
-        this.activationFunction = activationFunction;
-        this.activationDerivativeFunction = activationDerivativeFunction;
+        super(neuronNums, activation);
         this.momentum = momentum;
         this.learningRate = learningRate;
 
         // create all weights
-        this.weights = new ArrayList<>();
-        this.weightDeltas = new ArrayList<>();
-        this.weightCorrections = new ArrayList<>();
+        this.weights = new double[layerNum - 1][];
+        this.weightDeltas = new double[layerNum - 1][];
+        this.weightCorrections = new double[layerNum - 1][];
         for (int i = 0; i < layerNum - 1; i ++) {
-            this.weights.add(new double [neuronNums[i] + 1][neuronNums[i+1]]);
-            this.weightDeltas.add(new double [neuronNums[i] + 1][neuronNums[i+1]]);
-            this.weightCorrections.add(new double [neuronNums[i] + 1][neuronNums[i+1]]);
+            int size = (neuronNums[i] + 1) * neuronNums[i+1];
+            this.weights[i] = new double[size];
+            this.weightDeltas[i] = new double[size];
+            this.weightCorrections[i] = new double[size];
         }
 
         // cache to remember the last output
-        this.neuronOutputs = new ArrayList<>();
-        this.neuronDeltas = new ArrayList<>();
+        this.neuronOutputs = new double[layerNum][];
+        this.neuronDeltas = new double[layerNum][];
+        for (int i = 0; i < layerNum; i ++) {
+            this.neuronOutputs[i] = new double[neuronNums[i]];
+            this.neuronDeltas[i] = new double[neuronNums[i]];
+        }
+        this.outputErrors = new double[neuronNums[layerNum - 1]];
+    }
+
+    /**
+     * Create a replica that reads and writes the weights of another network but has its own
+     * momentum terms and workspaces, so both can propagate on different threads.
+     * Used by ParallelTrainer.
+     */
+    NeuralNetwork (NeuralNetwork shared) {
+        super(shared);
+        momentum = shared.momentum;
+        learningRate = shared.learningRate;
+
+        weights = shared.weights;
+        weightDeltas = new double[layerNum - 1][];
+        weightCorrections = new double[layerNum - 1][];
+        for (int i = 0; i < layerNum - 1; i ++) {
+            weightDeltas[i] = new double[weights[i].length];
+            weightCorrections[i] = new double[weights[i].length];
+        }
+
+        neuronOutputs = new double[layerNum][];
+        neuronDeltas = new double[layerNum][];
         for (int i = 0; i < layerNum; i ++) {
-            this.neuronOutputs.add(new double[neuronNums[i]]);
-            this.neuronDeltas.add(new double[neuronNums[i]]);
+            neuronOutputs[i] = new double[neuronNums[i]];
+            neuronDeltas[i] = new double[neuronNums[i]];
         }
+        outputErrors = new double[neuronNums[layerNum - 1]];
     }
 
     /**
@@ -76,13 +117,31 @@ public class NeuralNetwork{
      * @return The output using the neural network before it updated
      */
     public double[] train(double[] X, double[] argValue) {
-        double[] output = forwardPropagation(X);
+        double[] output = propagate(X);
+        for (int i = 0; i < outputErrors.length; i ++) {
+            outputErrors[i] = argValue[i] - output[i];
+        }
+        double[] prevOutput = output.clone();
+        backwardPropagation(outputErrors);
+
+        return prevOutput;
+    }
 
-        double[] input = new double[output.length];
-        for (int i = 0; i < input.length; i ++) {
-            input[i] = argValue[i] - output[i];
+    /**
+     * Learn the expected value of a network with a single output neuron.
+     * Same as train(double[], double[]) but does not allocate.
+     * @param X The input vector. The length should match the layer 1 size.
+     * @param argValue The new value to learn
+     * @return The output using the neural network before it updated
+     */
+    public double train(double[] X, double argValue) {
+        if (outputErrors.length != 1) {
+            throw new IllegalStateException("Scalar training needs a single output neuron, found "
+                    + outputErrors.length);
         }
-        backwardPropagation(input);
+        double output = propagate(X)[0];
+        outputErrors[0] = argValue - output;
+        backwardPropagation(outputErrors);
 
         return output;
     }
@@ -98,6 +157,49 @@ public class NeuralNetwork{
         return output;
     }
 
+    /**
+     * Compute the output based on the input vector without allocating.
+     * This method will not update the neural network.
+     * @param X The input vector. The length should match the layer 1 size.
+     * @param output Receives the output vector. The length should match the last layer size.
+     * @return output
+     */
+    public double[] outputInto(double[] X, double[] output) {
+        System.arraycopy(propagate(X), 0, output, 0, output.length);
+        return output;
+    }
+
+    /**
+     * Compute the output of a bipolar one hot input without allocating.
+     * This method will not update the neural network.
+     * @param active The indices of the +1 inputs, every other input is -1
+     * @param output Receives the output vector. The length should match the last layer size.
+     * @return output
+     */
+    public double[] outputIntoEncoded(int[] active, double[] output) {
+        System.arraycopy(propagateEncoded(active), 0, output, 0, output.length);
+        return output;
+    }
+
+    /**
+     * Learn the expected value of a bipolar one hot input on a network with a single
+     * output neuron, without allocating.
+     * @param active The indices of the +1 inputs, every other input is -1
+     * @param argValue The new value to learn
+     * @return The output using the neural network before it updated
+     */
+    public double trainEncoded(int[] active, double argValue) {
+        if (outputErrors.length != 1) {
+            throw new IllegalStateException("Scalar training needs a single output neuron, found "
+                    + outputErrors.length);
+        }
+        double output = propagateEncoded(active)[0];
+        outputErrors[0] = argValue - output;
+        backwardPropagation(outputErrors);
+
+        return output;
+    }
+
     /**
      * Perform a forward propagation from a matrix of input. The output is generated at the
      * end of the neural network;
@@ -105,42 +207,99 @@ public class NeuralNetwork{
      * @return A vector from last layer of size [lastLayerNeuron#]
      */
     double[] forwardPropagation(double[] input) {
-        // process through the input layer
-        double[] output = input.clone();
-        for (int i = 0; i < input.length; i ++) {
-            // output[i] = activationFunction.apply(input[i]);
-            neuronOutputs.get(0)[i] = output[i];
-        }
+        return propagate(input).clone();
+    }
 
+    /**
+     * Perform a forward propagation into the cached neuron outputs.
+     * @param input A vector of size [firstLayerNeuron#]
+     * @return The cached output of the last layer. It is overwritten by the next propagation.
+     */
+    double[] propagate(double[] input) {
+        // process through the input layer
+        System.arraycopy(input, 0, neuronOutputs[0], 0, neuronNums[0]);
 
         // process through the hidden layers and output layers
         for (int i = 1; i < layerNum; i ++) {
-            double[][] weight = weights.get(i-1);
-            double[] neuronOutput = neuronOutputs.get(i);
-
-            double[] nextOutput = new double[neuronNums[i]];
-
-            for (int outputIndex = 0; outputIndex < neuronNums[i]; outputIndex ++) {
-                // weight sum
-                for (int inputIndex = 0; inputIndex < weight.length; inputIndex ++) {
-                    // bias neuron
-                    if (inputIndex == weight.length - 1){
-                        nextOutput[outputIndex] += weight[inputIndex][outputIndex] * bias;
-                    } else {
-                        nextOutput[outputIndex] += weight[inputIndex][outputIndex] * output[inputIndex];
-                    }
-                }
-                // activate
-                nextOutput[outputIndex] = activationFunction.apply(nextOutput[outputIndex]);
-                // cache output
-                neuronOutput[outputIndex] = nextOutput[outputIndex];
+            propagateLayer(i);
+        }
+
+        // output
+        return neuronOutputs[layerNum - 1];
+    }
+
+    /**
+     * Perform a forward propagation of a bipolar one hot input into the cached neuron outputs.
+     * @param active The indices of the +1 inputs, every other input is -1
+     * @return The cached output of the last layer. It is overwritten by the next propagation.
+     */
+    double[] propagateEncoded(int[] active) {
+        // the input layer is still cached for the backward propagation
+        double[] input = neuronOutputs[0];
+        Arrays.fill(input, -1);
+        for (int index : active) {
+            input[index] = 1;
+        }
+
+        // first layer from the all -1 baseline, flipping the active inputs from -1 to +1
+        if (!baselineValid) {
+            computeFirstLayerBaseline();
+        }
+        double[] weight = weights[0];
+        double[] neuronOutput = neuronOutputs[1];
+        int stride = neuronNums[0] + 1;
+        for (int outputIndex = 0, row = 0; outputIndex < neuronNums[1]; outputIndex ++, row += stride) {
+            double sum = 0;
+            for (int index : active) {
+                sum += weight[row + index];
             }
+            neuronOutput[outputIndex] = activation.apply(firstLayerBaseline[outputIndex] + 2 * sum);
+        }
 
-            output = nextOutput;
+        // process through the rest of the layers
+        for (int i = 2; i < layerNum; i ++) {
+            propagateLayer(i);
         }
 
-        // output
-        return output;
+        return neuronOutputs[layerNum - 1];
+    }
+
+    /**
+     * Compute the cached outputs of a layer from the cached outputs of the layer below.
+     */
+    private void propagateLayer(int i) {
+        double[] weight = weights[i-1];
+        double[] prevNeuronOutput = neuronOutputs[i-1];
+        double[] neuronOutput = neuronOutputs[i];
+        int inputNum = neuronNums[i-1];
+        int stride = inputNum + 1;
+
+        for (int outputIndex = 0, row = 0; outputIndex < neuronNums[i]; outputIndex ++, row += stride) {
+            // weight sum
+            double sum = kernels.dot(weight, row, prevNeuronOutput, 0, inputNum);
+            // bias neuron
+            sum += weight[row + inputNum] * bias;
+            // activate and cache output
+            neuronOutput[outputIndex] = activation.apply(sum);
+        }
+    }
+
+    private void computeFirstLayerBaseline() {
+        if (firstLayerBaseline == null) {
+            firstLayerBaseline = new double[neuronNums[1]];
+        }
+        double[] weight = weights[0];
+        int inputNum = neuronNums[0];
+        int stride = inputNum + 1;
+        for (int outputIndex = 0, row = 0; outputIndex < neuronNums[1]; outputIndex ++, row += stride) {
+            double sum = 0;
+            for (int inputIndex = 0; inputIndex < inputNum; inputIndex ++) {
+                sum -= weight[row + inputIndex];
+            }
+            firstLayerBaseline[outputIndex] = sum + weight[row + inputNum] * bias;
+        }
+        baselineValid = true;
+        baselineUpdates = 0;
     }
 
     /**
@@ -153,114 +312,295 @@ public class NeuralNetwork{
     void backwardPropagation(double[] input) {
         // process through the output layer and hidden layers
         for (int i = layerNum - 1; i >= 1; i --) {
-            double[][] weight = i == layerNum - 1 ? null : weights.get(i); // use weight above this layer
-            double[][] weightCorrection = weightCorrections.get(i-1); // correct weight below this layer
-            double[] neuronDelta = neuronDeltas.get(i);
-            double[] nextNeuronDelta = i == layerNum - 1 ? null : neuronDeltas.get(i+1);
-            double[] neuronOutput = neuronOutputs.get(i);
-            double[] prevNeuronOutput = neuronOutputs.get(i-1);
-
-            for (int neuronIndex = 0; neuronIndex < neuronNums[i]; neuronIndex ++) {
-                // calculate deltas for this layer's neurons
-                neuronDelta[neuronIndex] = 0;
-                if (i == layerNum - 1) {
-                    // output layer delta
-                    neuronDelta[neuronIndex] = input[neuronIndex] *
-                            activationDerivativeFunction.apply(neuronOutput[neuronIndex]);
-                } else {
-                    // hidden layers, sum the weighted next layer delta
-                    for (int nextNeuronIndex = 0; nextNeuronIndex < neuronNums[i+1]; nextNeuronIndex ++) {
-                        neuronDelta[neuronIndex] += nextNeuronDelta[nextNeuronIndex] *
-                                weight[neuronIndex][nextNeuronIndex];
-                    }
-                    neuronDelta[neuronIndex] *= activationDerivativeFunction.apply(neuronOutput[neuronIndex]);
+            double[] weightCorrection = weightCorrections[i-1]; // correct weight below this layer
+            double[] neuronDelta = neuronDeltas[i];
+            double[] neuronOutput = neuronOutputs[i];
+            double[] prevNeuronOutput = neuronOutputs[i-1];
+            int neuronNum = neuronNums[i];
+
+            // calculate deltas for this layer's neurons
+            if (i == layerNum - 1) {
+                // output layer delta
+                for (int neuronIndex = 0; neuronIndex < neuronNum; neuronIndex ++) {
+                    neuronDelta[neuronIndex] = input[neuronIndex] * activation.derivative(neuronOutput[neuronIndex]);
                 }
+            } else {
+                // hidden layers, sum the weighted next layer delta row by row
+                double[] weight = weights[i]; // use weight above this layer
+                double[] nextNeuronDelta = neuronDeltas[i+1];
+                int stride = neuronNum + 1;
+                for (int neuronIndex = 0; neuronIndex < neuronNum; neuronIndex ++) {
+                    neuronDelta[neuronIndex] = 0;
+                }
+                for (int nextNeuronIndex = 0, row = 0; nextNeuronIndex < neuronNums[i+1];
+                     nextNeuronIndex ++, row += stride) {
+                    kernels.axpy(nextNeuronDelta[nextNeuronIndex], weight, row, neuronDelta, 0, neuronNum);
+                }
+                for (int neuronIndex = 0; neuronIndex < neuronNum; neuronIndex ++) {
+                    neuronDelta[neuronIndex] *= activation.derivative(neuronOutput[neuronIndex]);
+                }
+            }
 
-                // calculate weight correction terms
-                for (int weightIndex = 0; weightIndex < weightCorrection.length; weightIndex ++) {
-                    // bias neuron
-                    if (weightIndex == weightCorrection.length - 1) {
-                        weightCorrection[weightIndex][neuronIndex] = learningRate * neuronDelta[neuronIndex];
-                    } else {
-                        weightCorrection[weightIndex][neuronIndex] =
-                                learningRate * neuronDelta[neuronIndex] * prevNeuronOutput[weightIndex];
-                    }
+            // calculate weight correction terms
+            int prevNeuronNum = neuronNums[i-1];
+            int stride = prevNeuronNum + 1;
+            for (int neuronIndex = 0, row = 0; neuronIndex < neuronNum; neuronIndex ++, row += stride) {
+                double step = learningRate * neuronDelta[neuronIndex];
+                kernels.scale(step, prevNeuronOutput, 0, weightCorrection, row, prevNeuronNum);
+                // bias neuron
+                weightCorrection[row + prevNeuronNum] = step;
+            }
+        }
+
+        updateWeights();
+    }
+
+    /**
+     * Apply the weight corrections together with the momentum term, then clear the corrections.
+     */
+    void updateWeights() {
+        weightVersion ++;
+        for (int i = 0; i < weights.length; i ++) {
+            double[] weight = weights[i];
+            double[] weightDelta = weightDeltas[i];
+            double[] weightCorrection = weightCorrections[i];
+            if (i == 0 && baselineValid) {
+                updateFirstLayerWeights();
+                continue;
+            }
+            kernels.momentumUpdate(weight, weightDelta, weightCorrection, momentum, 0, weight.length);
+        }
+    }
+
+    /**
+     * Same as updateWeights for the first layer, but also moves the all -1 baseline by the
+     * applied deltas. The baseline is recomputed from time to time to drop rounding drift.
+     */
+    private void updateFirstLayerWeights() {
+        double[] weight = weights[0];
+        double[] weightDelta = weightDeltas[0];
+        double[] weightCorrection = weightCorrections[0];
+        int inputNum = neuronNums[0];
+        int stride = inputNum + 1;
+        for (int outputIndex = 0, row = 0; outputIndex < neuronNums[1]; outputIndex ++, row += stride) {
+            double inputDeltaSum = kernels.momentumUpdate(weight, weightDelta, weightCorrection,
+                    momentum, row, row + inputNum);
+            int biasIndex = row + inputNum;
+            double biasDelta = weightCorrection[biasIndex] + momentum * weightDelta[biasIndex];
+            weight[biasIndex] += biasDelta;
+            weightDelta[biasIndex] = biasDelta;
+            weightCorrection[biasIndex] = 0;
+
+            firstLayerBaseline[outputIndex] += biasDelta * bias - inputDeltaSum;
+        }
+        baselineMoved();
+    }
+
+    /**
+     * Learn a set of samples with mini-batch gradient descent.
+     * The samples are split into batches of getBatchSize() samples. The gradients of a batch
+     * are averaged and applied in a single momentum update, so a batch of 1 is the same as train.
+     * @param inputs The input vectors, one per row
+     * @param targets The expected output vectors, one per row
+     * @return The total squared error 0.5 * sum((C - y)^2) of the outputs before each update
+     */
+    public double trainBatch(double[][] inputs, double[][] targets) {
+        if (inputs.length != targets.length) {
+            throw new IllegalArgumentException("Got " + inputs.length + " inputs but "
+                    + targets.length + " targets");
+        }
+        double error = 0;
+        for (int from = 0; from < inputs.length; from += batchSize) {
+            int count = Math.min(batchSize, inputs.length - from);
+            for (int i = 0; i < weightCorrections.length; i ++) {
+                Arrays.fill(weightCorrections[i], 0);
+            }
+            error += accumulateGradients(inputs, targets, from, count, weightCorrections);
+            double scale = learningRate / count;
+            for (int i = 0; i < weightCorrections.length; i ++) {
+                double[] weightCorrection = weightCorrections[i];
+                kernels.scale(scale, weightCorrection, 0, weightCorrection, 0, weightCorrection.length);
+            }
+            updateWeights();
+        }
+        return error;
+    }
+
+    /**
+     * Propagate a batch forward and backward, and add the summed gradient sum(delta * input)
+     * of every weight to gradients. Weights are not modified.
+     * @param from The first sample of the batch
+     * @param count The number of samples, at most getBatchSize()
+     * @param gradients Receives the gradients, shaped like the weights
+     * @return The total squared error of the batch
+     */
+    double accumulateGradients(double[][] inputs, double[][] targets, int from, int count,
+                               double[][] gradients) {
+        ensureBatchWorkspaces();
+
+        // load the input layer
+        int inputNum = neuronNums[0];
+        double[] batchInput = batchOutputs[0];
+        for (int sample = 0; sample < count; sample ++) {
+            System.arraycopy(inputs[from + sample], 0, batchInput, sample * inputNum, inputNum);
+        }
+
+        // forward, Z = A * W^T, one weight row at a time
+        for (int i = 1; i < layerNum; i ++) {
+            double[] weight = weights[i-1];
+            double[] prevBatchOutput = batchOutputs[i-1];
+            double[] batchOutput = batchOutputs[i];
+            int prevNeuronNum = neuronNums[i-1];
+            int neuronNum = neuronNums[i];
+            int stride = prevNeuronNum + 1;
+
+            for (int neuronIndex = 0, row = 0; neuronIndex < neuronNum; neuronIndex ++, row += stride) {
+                double biasWeight = weight[row + prevNeuronNum] * bias;
+                for (int sample = 0; sample < count; sample ++) {
+                    double sum = kernels.dot(weight, row, prevBatchOutput, sample * prevNeuronNum, prevNeuronNum);
+                    batchOutput[sample * neuronNum + neuronIndex] = activation.apply(sum + biasWeight);
+                }
+            }
+        }
+
+        // output layer deltas
+        double error = 0;
+        int outputNum = neuronNums[layerNum - 1];
+        double[] outputLayer = batchOutputs[layerNum - 1];
+        double[] outputDelta = batchDeltas[layerNum - 1];
+        for (int sample = 0; sample < count; sample ++) {
+            double[] target = targets[from + sample];
+            for (int neuronIndex = 0; neuronIndex < outputNum; neuronIndex ++) {
+                int index = sample * outputNum + neuronIndex;
+                double diff = target[neuronIndex] - outputLayer[index];
+                error += 0.5 * diff * diff;
+                outputDelta[index] = diff * activation.derivative(outputLayer[index]);
+            }
+        }
+
+        // backward
+        for (int i = layerNum - 1; i >= 1; i --) {
+            double[] weight = weights[i-1];
+            double[] gradient = gradients[i-1];
+            double[] batchDelta = batchDeltas[i];
+            double[] prevBatchOutput = batchOutputs[i-1];
+            int prevNeuronNum = neuronNums[i-1];
+            int neuronNum = neuronNums[i];
+            int stride = prevNeuronNum + 1;
+
+            // G += D^T * A, one gradient row at a time
+            for (int neuronIndex = 0, row = 0; neuronIndex < neuronNum; neuronIndex ++, row += stride) {
+                double biasGradient = 0;
+                for (int sample = 0; sample < count; sample ++) {
+                    double delta = batchDelta[sample * neuronNum + neuronIndex];
+                    kernels.axpy(delta, prevBatchOutput, sample * prevNeuronNum, gradient, row, prevNeuronNum);
+                    biasGradient += delta;
                 }
+                gradient[row + prevNeuronNum] += biasGradient * bias;
             }
-//            // try update weight here
-//            weight = weights.get(i-1);
-//            double[][] weightDelta = weightDeltas.get(i-1);
-//            for (int row = 0; row < weight.length; row ++) {
-//                for (int column = 0; column < weight[0].length; column ++) {
-//                    double delta = weightCorrection[row][column] + momentum * weightDelta[row][column];
-//                    weight[row][column] += delta;
-//                    weightDelta[row][column] = delta;
-//                }
-//            }
-        }
-
-        // update weights
-        for (int i = 0; i < weights.size(); i ++) {
-            double[][] weight = weights.get(i);
-            double[][] weightDelta = weightDeltas.get(i);
-            double[][] weightCorrection = weightCorrections.get(i);
-            for (int row = 0; row < weight.length; row ++) {
-                for (int column = 0; column < weight[0].length; column ++) {
-                    double delta = weightCorrection[row][column] + momentum * weightDelta[row][column];
-                    weight[row][column] += delta;
-                    weightDelta[row][column] = delta;
-                    weightCorrection[row][column] = 0;
+
+            if (i == 1) {
+                break;
+            }
+
+            // D' = (D * W) .* f'(A), one weight row at a time
+            double[] prevBatchDelta = batchDeltas[i-1];
+            Arrays.fill(prevBatchDelta, 0, count * prevNeuronNum, 0);
+            for (int neuronIndex = 0, row = 0; neuronIndex < neuronNum; neuronIndex ++, row += stride) {
+                for (int sample = 0; sample < count; sample ++) {
+                    double delta = batchDelta[sample * neuronNum + neuronIndex];
+                    kernels.axpy(delta, weight, row, prevBatchDelta, sample * prevNeuronNum, prevNeuronNum);
                 }
             }
+            for (int index = 0; index < count * prevNeuronNum; index ++) {
+                prevBatchDelta[index] *= activation.derivative(prevBatchOutput[index]);
+            }
         }
+
+        return error;
     }
 
+    private void ensureBatchWorkspaces() {
+        if (batchOutputs != null && batchOutputs[0].length == batchSize * neuronNums[0]) {
+            return;
+        }
+        batchOutputs = new double[layerNum][];
+        batchDeltas = new double[layerNum][];
+        for (int i = 0; i < layerNum; i ++) {
+            batchOutputs[i] = new double[batchSize * neuronNums[i]];
+            batchDeltas[i] = new double[batchSize * neuronNums[i]];
+        }
+    }
 
     public void initializeWeights() {
-        for (int i = 0; i < weights.size(); i ++) {
-            double[][] weight = weights.get(i);
-            double[][] weightDelta = weightDeltas.get(i);
-            for (int row = 0; row < weight.length; row ++) {
-                for (int column = 0; column < weight[0].length; column ++) {
-                    weight[row][column] = random.nextDouble() - 0.5;
-                    weightDelta[row][column] = 0;
-                }
+        invalidateFirstLayerBaseline();
+        for (int i = 0; i < weights.length; i ++) {
+            double[] weight = weights[i];
+            double[] weightDelta = weightDeltas[i];
+            for (int index = 0; index < weight.length; index ++) {
+                weight[index] = random.nextDouble() - 0.5;
+                weightDelta[index] = 0;
             }
         }
     }
 
+    /**
+     * Copy the weights and momentum terms of a network with the same topology.
+     */
+    public void copyWeightsFrom(NeuralNetwork other) {
+        checkTopology(other);
+        for (int i = 0; i < weights.length; i ++) {
+            System.arraycopy(other.weights[i], 0, weights[i], 0, weights[i].length);
+            System.arraycopy(other.weightDeltas[i], 0, weightDeltas[i], 0, weightDeltas[i].length);
+        }
+        invalidateFirstLayerBaseline();
+    }
+
+    public void copyWeightsFrom(NeuralNet other) {
+        if (!(other instanceof NeuralNetwork)) {
+            throw new IllegalArgumentException("Cannot copy the weights of a " + other.getPrecision()
+                    + " network into a DOUBLE one");
+        }
+        copyWeightsFrom((NeuralNetwork) other);
+    }
+
+    public Precision getPrecision() {
+        return Precision.DOUBLE;
+    }
+
     public void zeroWeights() {
-        for (int i = 0; i < weights.size(); i ++) {
-            double[][] weight = weights.get(i);
-            double[][] weightDelta = weightDeltas.get(i);
-            for (int row = 0; row < weight.length; row ++) {
-                for (int column = 0; column < weight[0].length; column ++) {
-                    weight[row][column] = 0;
-                    weightDelta[row][column] = 0;
-                }
-            }
+        invalidateFirstLayerBaseline();
+        for (int i = 0; i < weights.length; i ++) {
+            Arrays.fill(weights[i], 0);
+            Arrays.fill(weightDeltas[i], 0);
         }
     }
 
 
+    /**
+     * Writes every weight as [weight, weightDelta, weightCorrection] per line, ordered by
+     * lower layer neuron (bias last) and then by upper layer neuron, followed by the
+     * cached [neuronOutput, neuronDelta] of every neuron.
+     */
     public void save(File argFile) {
         PrintStream ps = null;
         try {
             ps = new PrintStream((new FileOutputStream(argFile)));
-            for (int i = 0; i < weights.size(); i ++) {
-                for (int j = 0; j < weights.get(i).length; j ++) {
-                    for (int k = 0; k < weights.get(i)[j].length; k ++) {
-                        ps.println(weights.get(i)[j][k]);
-                        ps.println(weightDeltas.get(i)[j][k]);
-                        ps.println(weightCorrections.get(i)[j][k]);
+            for (int i = 0; i < weights.length; i ++) {
+                for (int j = 0; j <= neuronNums[i]; j ++) {
+                    for (int k = 0; k < neuronNums[i+1]; k ++) {
+                        int index = weightIndex(i, j, k);
+                        ps.println(weights[i][index]);
+                        ps.println(weightDeltas[i][index]);
+                        ps.println(weightCorrections[i][index]);
                     }
                 }
             }
 
-            for (int i = 0; i < neuronOutputs.size(); i ++) {
-                for (int j = 0; j < neuronOutputs.get(i).length; j ++) {
-                    ps.println(neuronOutputs.get(i)[j]);
-                    ps.println(neuronDeltas.get(i)[j]);
+            for (int i = 0; i < neuronOutputs.length; i ++) {
+                for (int j = 0; j < neuronOutputs[i].length; j ++) {
+                    ps.println(neuronOutputs[i][j]);
+                    ps.println(neuronDeltas[i][j]);
                 }
             }
             ps.close();
@@ -272,21 +612,23 @@ public class NeuralNetwork{
     public void load(File argFile)  {
         BufferedReader reader = null;
         try {
+            invalidateFirstLayerBaseline();
             reader = new BufferedReader(new FileReader(argFile));
-            for (int i = 0; i < weights.size(); i ++) {
-                for (int j = 0; j < weights.get(i).length; j ++) {
-                    for (int k = 0; k < weights.get(i)[j].length; k ++) {
-                        weights.get(i)[j][k] = Double.parseDouble(reader.readLine());
-                        weightDeltas.get(i)[j][k] = Double.parseDouble(reader.readLine());
-                        weightCorrections.get(i)[j][k] = Double.parseDouble(reader.readLine());
+            for (int i = 0; i < weights.length; i ++) {
+                for (int j = 0; j <= neuronNums[i]; j ++) {
+                    for (int k = 0; k < neuronNums[i+1]; k ++) {
+                        int index = weightIndex(i, j, k);
+                        weights[i][index] = Double.parseDouble(reader.readLine());
+                        weightDeltas[i][index] = Double.parseDouble(reader.readLine());
+                        weightCorrections[i][index] = Double.parseDouble(reader.readLine());
                     }
                 }
             }
 
-            for (int i = 0; i < neuronOutputs.size(); i ++) {
-                for (int j = 0; j < neuronOutputs.get(i).length; j ++) {
-                    neuronOutputs.get(i)[j] = Double.parseDouble(reader.readLine());
-                    neuronDeltas.get(i)[j] = Double.parseDouble(reader.readLine());
+            for (int i = 0; i < neuronOutputs.length; i ++) {
+                for (int j = 0; j < neuronOutputs[i].length; j ++) {
+                    neuronOutputs[i][j] = Double.parseDouble(reader.readLine());
+                    neuronDeltas[i][j] = Double.parseDouble(reader.readLine());
                 }
             }
 
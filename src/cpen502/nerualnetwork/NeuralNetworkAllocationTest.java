@@ -0,0 +1,63 @@
+package cpen502.nerualnetwork;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Checks that steady state inference and training through outputInto and
+ * train(double[], double) allocate nothing on the heap.
+ * Relies on com.sun.management.ThreadMXBean to read the per-thread allocation counter.
+ */
+public class NeuralNetworkAllocationTest {
+    static final int WARMUP_ROUNDS = 6;
+    static final int MEASURE_ROUNDS = 3;
+    static final int ROUND_STEPS = 50000;
+
+    public static void main(String[] args) throws Exception {
+        com.sun.management.ThreadMXBean threadBean =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        NeuralNetwork neuralnet = new NeuralNetwork(new int[]{20, 80, 1}, Activation.SIGMOID_BIPOLAR, 0.6, 0.01);
+        neuralnet.initializeWeights();
+
+        Random random = new Random(0);
+        double[][] inputs = new double[16][20];
+        double[] targets = new double[16];
+        for (int i = 0; i < inputs.length; i ++) {
+            for (int j = 0; j < inputs[i].length; j ++) {
+                inputs[i][j] = random.nextBoolean() ? 1 : -1;
+            }
+            targets[i] = random.nextDouble() * 2 - 1;
+        }
+        double[] output = new double[1];
+
+        // let the JIT settle, recompilations allocate a few bytes once
+        for (int round = 0; round < WARMUP_ROUNDS; round ++) {
+            run(neuralnet, inputs, targets, output, ROUND_STEPS);
+        }
+
+        for (int round = 0; round < MEASURE_ROUNDS; round ++) {
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            double checksum = run(neuralnet, inputs, targets, output, ROUND_STEPS);
+            long allocated = threadBean.getThreadAllocatedBytes(threadId) - before;
+
+            System.out.println("Allocated " + allocated + " bytes in " + ROUND_STEPS
+                    + " steps (checksum " + checksum + ")");
+            if (allocated != 0) {
+                throw new AssertionError("Steady state training allocated " + allocated + " bytes");
+            }
+        }
+        System.out.println("NeuralNetworkAllocationTest passed");
+    }
+
+    static double run(NeuralNetwork neuralnet, double[][] inputs, double[] targets, double[] output, int steps) {
+        double sum = 0;
+        for (int i = 0; i < steps; i ++) {
+            int sample = i % inputs.length;
+            sum += neuralnet.outputInto(inputs[sample], output)[0];
+            sum += neuralnet.train(inputs[sample], targets[sample]);
+        }
+        return sum;
+    }
+}
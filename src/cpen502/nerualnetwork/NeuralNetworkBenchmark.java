@@ -0,0 +1,100 @@
+package cpen502.nerualnetwork;
+
+import java.util.Random;
+
+/**
+ * Measures the forward and forward+backward throughput of the neural network
+ * on the topologies used by the Q-learning robot.
+ */
+public class NeuralNetworkBenchmark {
+    static final int WARMUP_STEPS = 50000;
+    static final int MEASURE_STEPS = 300000;
+    static final int SAMPLE_NUM = 960;
+    static final int[] BATCH_SIZES = new int[]{1, 8, 32, 128};
+
+    public static void main(String[] args) throws Exception {
+        int[][] topologies = new int[][]{{20, 20, 1}, {20, 80, 1}, {20, 80, 80, 1}};
+        System.out.println("Kernels: " + MatrixKernels.DEFAULT.name());
+        for (int[] topology : topologies) {
+            NeuralNetwork neuralnet = new NeuralNetwork(topology, Activation.SIGMOID_BIPOLAR, 0.6, 0.01);
+            neuralnet.initializeWeights();
+
+            double[][] inputs = randomInputs(topology[0]);
+            double[][] targets = new double[SAMPLE_NUM][1];
+            Random random = new Random(1);
+            for (int i = 0; i < SAMPLE_NUM; i ++) {
+                targets[i][0] = random.nextDouble() * 2 - 1;
+            }
+
+            runForward(neuralnet, inputs, WARMUP_STEPS);
+            long start = System.nanoTime();
+            double checksum = runForward(neuralnet, inputs, MEASURE_STEPS);
+            double forwardRate = MEASURE_STEPS / ((System.nanoTime() - start) / 1e9);
+
+            runTrain(neuralnet, inputs, targets, WARMUP_STEPS);
+            start = System.nanoTime();
+            checksum += runTrain(neuralnet, inputs, targets, MEASURE_STEPS);
+            double trainRate = MEASURE_STEPS / ((System.nanoTime() - start) / 1e9);
+
+            System.out.printf("%-12s forward: %10.0f samples/s   forward+backward: %10.0f samples/s   (checksum %.3f)%n",
+                    topologyString(topology), forwardRate, trainRate, checksum);
+
+            for (int batchSize : BATCH_SIZES) {
+                neuralnet.setBatchSize(batchSize);
+                runBatch(neuralnet, inputs, targets, WARMUP_STEPS);
+                start = System.nanoTime();
+                double error = runBatch(neuralnet, inputs, targets, MEASURE_STEPS);
+                double batchRate = MEASURE_STEPS / ((System.nanoTime() - start) / 1e9);
+                System.out.printf("%-12s trainBatch(%3d): %10.0f samples/s   (error %.3f)%n",
+                        topologyString(topology), batchSize, batchRate, error);
+            }
+        }
+    }
+
+    static double runForward(NeuralNetwork neuralnet, double[][] inputs, int steps) {
+        double sum = 0;
+        for (int i = 0; i < steps; i ++) {
+            sum += neuralnet.outputFor(inputs[i % SAMPLE_NUM])[0];
+        }
+        return sum;
+    }
+
+    static double runTrain(NeuralNetwork neuralnet, double[][] inputs, double[][] targets, int steps) {
+        double sum = 0;
+        for (int i = 0; i < steps; i ++) {
+            sum += neuralnet.train(inputs[i % SAMPLE_NUM], targets[i % SAMPLE_NUM])[0];
+        }
+        return sum;
+    }
+
+    static double runBatch(NeuralNetwork neuralnet, double[][] inputs, double[][] targets, int steps) {
+        double error = 0;
+        for (int i = 0; i < steps; i += SAMPLE_NUM) {
+            error = neuralnet.trainBatch(inputs, targets);
+        }
+        return error;
+    }
+
+    /**
+     * Bipolar inputs shaped like the robot's one hot encoding.
+     */
+    static double[][] randomInputs(int inputNum) {
+        Random random = new Random(0);
+        double[][] inputs = new double[SAMPLE_NUM][inputNum];
+        for (int i = 0; i < SAMPLE_NUM; i ++) {
+            for (int j = 0; j < inputNum; j ++) {
+                inputs[i][j] = random.nextInt(4) == 0 ? 1 : -1;
+            }
+        }
+        return inputs;
+    }
+
+    static String topologyString(int[] topology) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < topology.length; i ++) {
+            if (i > 0) builder.append('-');
+            builder.append(topology[i]);
+        }
+        return builder.toString();
+    }
+}
@@ -1,17 +1,13 @@
 package cpen502.nerualnetwork;
 
-import cpen502.utils.Functions;
-
 import java.util.Arrays;
-import java.util.function.Function;
 
 public class NeuralNetworkTest {
 
     public static void main(String[] args) {
         int[] nueronNums = new int[]{2, 4, 1};
 
-        Function<Double, Double> activationFunction = Functions.sigmoidBinary;
-        Function<Double, Double> activationDerivativeFunction = Functions.sigmoidDerivativeBinary;
+        Activation activation = Activation.SIGMOID_BINARY;
 
         double momentums = 0;
         double learningRates = 0.02;
@@ -19,8 +15,7 @@ public class NeuralNetworkTest {
         // Initialize neural network
         NeuralNetwork neuralnet;
         try {
-            neuralnet = new NeuralNetwork(nueronNums, activationFunction,
-                    activationDerivativeFunction, momentums, learningRates);
+            neuralnet = new NeuralNetwork(nueronNums, activation, momentums, learningRates);
         } catch (Exception e) {
             e.printStackTrace();
             return;
@@ -28,13 +23,13 @@ public class NeuralNetworkTest {
 
         for (int i = 0; i < 3; i ++) {
             for (int j = 0; j < 4; j ++) {
-                neuralnet.weights.get(0)[i][j] = j + 1;
+                neuralnet.weights[0][neuralnet.weightIndex(0, i, j)] = j + 1;
             }
-            Arrays.fill(neuralnet.neuronOutputs.get(i), 1);
+            Arrays.fill(neuralnet.neuronOutputs[i], 1);
         }
 
         for (int i = 0; i < 5; i ++) {
-            neuralnet.weights.get(1)[i][0] = i + 1;
+            neuralnet.weights[1][neuralnet.weightIndex(1, i, 0)] = i + 1;
         }
 
 
@@ -0,0 +1,264 @@
+package cpen502.nerualnetwork;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Trains a neural network on a fixed data set with several threads.
+ *
+ * Modes:
+ *      SERIAL      : the network trains alone, sample by sample or with trainBatch
+ *                    when its batch size is larger than 1.
+ *      SYNCHRONOUS : every step takes batchSize samples per worker. Workers compute the
+ *                    gradients of their shard on replicas sharing the weights, the gradients
+ *                    are summed pairwise up the fork-join tree, and the network applies one
+ *                    averaged momentum update. This is trainBatch with a batch of
+ *                    batchSize * parallelism samples.
+ *      HOGWILD     : every worker runs per-sample SGD on its shard of the data set and writes
+ *                    the shared weights without any lock. Updates may race, which Hogwild
+ *                    tolerates because every sample touches only a small part of the error.
+ */
+public class ParallelTrainer {
+    public enum Mode {
+        SERIAL, SYNCHRONOUS, HOGWILD
+    }
+
+    final NeuralNetwork neuralnet;
+    final int parallelism;
+    final ForkJoinPool pool;
+
+    final NeuralNetwork[] replicas;
+    final double[][][] gradients; // [worker][layer][weight]
+
+    public ParallelTrainer(NeuralNetwork neuralnet, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive, got " + parallelism);
+        }
+        this.neuralnet = neuralnet;
+        this.parallelism = parallelism;
+        this.pool = new ForkJoinPool(parallelism);
+
+        this.replicas = new NeuralNetwork[parallelism];
+        this.gradients = new double[parallelism][][];
+        for (int worker = 0; worker < parallelism; worker ++) {
+            replicas[worker] = new NeuralNetwork(neuralnet);
+            gradients[worker] = new double[neuralnet.weights.length][];
+            for (int i = 0; i < neuralnet.weights.length; i ++) {
+                gradients[worker][i] = new double[neuralnet.weights[i].length];
+            }
+        }
+    }
+
+    /**
+     * Train the network for one epoch over the data set.
+     * @param inputs The input vectors, one per row
+     * @param targets The expected output vectors, one per row
+     * @param mode How the epoch is distributed over the workers
+     */
+    public void trainEpoch(double[][] inputs, double[][] targets, Mode mode) {
+        switch (mode) {
+            case SERIAL:
+                if (neuralnet.getBatchSize() > 1) {
+                    neuralnet.trainBatch(inputs, targets);
+                } else if (targets[0].length == 1) {
+                    // the scalar train does not allocate an output per sample
+                    for (int i = 0; i < inputs.length; i ++) {
+                        neuralnet.train(inputs[i], targets[i][0]);
+                    }
+                } else {
+                    for (int i = 0; i < inputs.length; i ++) {
+                        neuralnet.train(inputs[i], targets[i]);
+                    }
+                }
+                break;
+            case SYNCHRONOUS:
+                trainSynchronous(inputs, targets);
+                break;
+            case HOGWILD:
+                pool.invoke(new HogwildTask(inputs, targets, 0, parallelism));
+                // the replicas changed the weights behind the network's back
+                neuralnet.invalidateFirstLayerBaseline();
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid mode " + mode);
+        }
+    }
+
+    /**
+     * Train the network for a number of epochs and measure the throughput.
+     */
+    public Result train(double[][] inputs, double[][] targets, Mode mode, int epochNum) {
+        long start = System.nanoTime();
+        for (int epoch = 0; epoch < epochNum; epoch ++) {
+            trainEpoch(inputs, targets, mode);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return new Result(mode, parallelism, epochNum, seconds, totalError(inputs, targets));
+    }
+
+    /**
+     * @return 0.5 * sum((C - y)^2) over the data set with the current weights
+     */
+    public double totalError(double[][] inputs, double[][] targets) {
+        double error = 0;
+        double[] output = new double[targets[0].length];
+        for (int i = 0; i < inputs.length; i ++) {
+            neuralnet.outputInto(inputs[i], output);
+            for (int j = 0; j < output.length; j ++) {
+                double diff = targets[i][j] - output[j];
+                error += 0.5 * diff * diff;
+            }
+        }
+        return error;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private void trainSynchronous(double[][] inputs, double[][] targets) {
+        int shardSize = neuralnet.getBatchSize();
+        int stepSize = shardSize * parallelism;
+        for (NeuralNetwork replica : replicas) {
+            replica.setBatchSize(shardSize);
+        }
+        for (int from = 0; from < inputs.length; from += stepSize) {
+            int count = Math.min(stepSize, inputs.length - from);
+            pool.invoke(new GradientTask(inputs, targets, from, count, shardSize, 0, parallelism));
+
+            // the reduced gradient ends up in the first worker
+            double scale = neuralnet.learningRate / count;
+            double[][] gradient = gradients[0];
+            for (int i = 0; i < gradient.length; i ++) {
+                double[] weightCorrection = neuralnet.weightCorrections[i];
+                neuralnet.kernels.scale(scale, gradient[i], 0, weightCorrection, 0, weightCorrection.length);
+            }
+            neuralnet.updateWeights();
+        }
+    }
+
+    /**
+     * Compute the gradients of workers [firstWorker, lastWorker) and sum them into firstWorker.
+     */
+    private class GradientTask extends RecursiveAction {
+        private final static long serialVersionUID = 1L;
+
+        final double[][] inputs;
+        final double[][] targets;
+        final int from;
+        final int count;
+        final int shardSize;
+        final int firstWorker;
+        final int lastWorker;
+
+        GradientTask(double[][] inputs, double[][] targets, int from, int count, int shardSize,
+                     int firstWorker, int lastWorker) {
+            this.inputs = inputs;
+            this.targets = targets;
+            this.from = from;
+            this.count = count;
+            this.shardSize = shardSize;
+            this.firstWorker = firstWorker;
+            this.lastWorker = lastWorker;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastWorker - firstWorker == 1) {
+                double[][] gradient = gradients[firstWorker];
+                for (int i = 0; i < gradient.length; i ++) {
+                    Arrays.fill(gradient[i], 0);
+                }
+                int shardFrom = from + firstWorker * shardSize;
+                int shardCount = Math.min(shardSize, from + count - shardFrom);
+                if (shardCount > 0) {
+                    replicas[firstWorker].accumulateGradients(inputs, targets, shardFrom, shardCount, gradient);
+                }
+                return;
+            }
+
+            int middle = (firstWorker + lastWorker) >>> 1;
+            invokeAll(new GradientTask(inputs, targets, from, count, shardSize, firstWorker, middle),
+                    new GradientTask(inputs, targets, from, count, shardSize, middle, lastWorker));
+
+            // reduce the right half into the left half
+            double[][] left = gradients[firstWorker];
+            double[][] right = gradients[middle];
+            for (int i = 0; i < left.length; i ++) {
+                neuralnet.kernels.axpy(1.0, right[i], 0, left[i], 0, left[i].length);
+            }
+        }
+    }
+
+    /**
+     * Per-sample training of the shards of workers [firstWorker, lastWorker) on the shared weights.
+     */
+    private class HogwildTask extends RecursiveAction {
+        private final static long serialVersionUID = 1L;
+
+        final double[][] inputs;
+        final double[][] targets;
+        final int firstWorker;
+        final int lastWorker;
+
+        HogwildTask(double[][] inputs, double[][] targets, int firstWorker, int lastWorker) {
+            this.inputs = inputs;
+            this.targets = targets;
+            this.firstWorker = firstWorker;
+            this.lastWorker = lastWorker;
+        }
+
+        @Override
+        protected void compute() {
+            if (lastWorker - firstWorker == 1) {
+                NeuralNetwork replica = replicas[firstWorker];
+                int shardFrom = (int) ((long) inputs.length * firstWorker / parallelism);
+                int shardTo = (int) ((long) inputs.length * (firstWorker + 1) / parallelism);
+                if (targets[0].length == 1) {
+                    for (int i = shardFrom; i < shardTo; i ++) {
+                        replica.train(inputs[i], targets[i][0]);
+                    }
+                } else {
+                    for (int i = shardFrom; i < shardTo; i ++) {
+                        replica.train(inputs[i], targets[i]);
+                    }
+                }
+                return;
+            }
+
+            int middle = (firstWorker + lastWorker) >>> 1;
+            invokeAll(new HogwildTask(inputs, targets, firstWorker, middle),
+                    new HogwildTask(inputs, targets, middle, lastWorker));
+        }
+    }
+
+    /**
+     * Throughput and final error of a training run.
+     */
+    public static class Result {
+        public final Mode mode;
+        public final int parallelism;
+        public final int epochNum;
+        public final double seconds;
+        public final double finalError;
+
+        Result(Mode mode, int parallelism, int epochNum, double seconds, double finalError) {
+            this.mode = mode;
+            this.parallelism = parallelism;
+            this.epochNum = epochNum;
+            this.seconds = seconds;
+            this.finalError = finalError;
+        }
+
+        public double getEpochsPerSecond() {
+            return epochNum / seconds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-11s threads: %2d   epochs/s: %9.2f   final error: %.6f",
+                    mode, parallelism, getEpochsPerSecond(), finalError);
+        }
+    }
+}
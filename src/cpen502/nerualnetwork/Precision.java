@@ -0,0 +1,42 @@
+package cpen502.nerualnetwork;
+
+/**
+ * Floating point precision of the weights and workspaces of a neural network.
+ * The inputs, targets and outputs of a network are always doubles, only the values
+ * the network stores are narrowed.
+ */
+public enum Precision {
+    DOUBLE(0, Double.BYTES),
+    FLOAT(1, Float.BYTES);
+
+    private final int id;
+    private final int bytes;
+
+    private Precision(int id, int bytes) {
+        this.id = id;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Stable id of this precision, used when the network is written to a file.
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return The size of a stored value in bytes
+     */
+    public int getBytes() {
+        return bytes;
+    }
+
+    public static Precision fromId(int id) {
+        for (Precision precision : values()) {
+            if (precision.id == id) {
+                return precision;
+            }
+        }
+        throw new IllegalArgumentException("Unknown precision id " + id);
+    }
+}
@@ -0,0 +1,77 @@
+package cpen502.nerualnetwork;
+
+/**
+ * Plain loop implementation of the matrix kernels, available on every JVM.
+ */
+public class ScalarKernels implements MatrixKernels {
+
+    public double dot(double[] a, int aOffset, double[] b, int bOffset, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i ++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    public void axpy(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i ++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    public void scale(double alpha, double[] x, int xOffset, double[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i ++) {
+            y[yOffset + i] = alpha * x[xOffset + i];
+        }
+    }
+
+    public double momentumUpdate(double[] weight, double[] weightDelta, double[] weightCorrection,
+                                 double momentum, int from, int to) {
+        double sum = 0;
+        for (int index = from; index < to; index ++) {
+            double delta = weightCorrection[index] + momentum * weightDelta[index];
+            weight[index] += delta;
+            weightDelta[index] = delta;
+            weightCorrection[index] = 0;
+            sum += delta;
+        }
+        return sum;
+    }
+
+    public float dot(float[] a, int aOffset, float[] b, int bOffset, int length) {
+        float sum = 0;
+        for (int i = 0; i < length; i ++) {
+            sum += a[aOffset + i] * b[bOffset + i];
+        }
+        return sum;
+    }
+
+    public void axpy(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i ++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    public void scale(float alpha, float[] x, int xOffset, float[] y, int yOffset, int length) {
+        for (int i = 0; i < length; i ++) {
+            y[yOffset + i] = alpha * x[xOffset + i];
+        }
+    }
+
+    public float momentumUpdate(float[] weight, float[] weightDelta, float[] weightCorrection,
+                                float momentum, int from, int to) {
+        float sum = 0;
+        for (int index = from; index < to; index ++) {
+            float delta = weightCorrection[index] + momentum * weightDelta[index];
+            weight[index] += delta;
+            weightDelta[index] = delta;
+            weightCorrection[index] = 0;
+            sum += delta;
+        }
+        return sum;
+    }
+
+    public String name() {
+        return "scalar";
+    }
+}
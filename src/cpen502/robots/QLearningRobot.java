@@ -1,6 +1,13 @@
 package cpen502.robots;
 
+import cpen502.LUT.FlatLUT;
 import cpen502.LUT.RoboCodeLUT;
+import cpen502.LUT.TileCoding;
+import cpen502.nerualnetwork.NeuralNetCheckpoint;
+import cpen502.nerualnetwork.Precision;
+import cpen502.utils.CheckpointService;
+import cpen502.utils.DecisionProfiler;
+import cpen502.utils.DecisionProfiler.Phase;
 import robocode.*;
 
 import java.io.*;
@@ -81,26 +88,34 @@ public class QLearningRobot extends AdvancedRobot {
                put(StateCategory.GunHeated, 2);
             }};
 
+    // stateDim in StateCategory order, so evaluating a state does not look up the map
+    public final static int[] stateRadices = FlatLUT.radicesOf(stateDim);
+
 
     public final static int actionNum = 5;
     public final static int stateNum = 5;
+    // continuous features of evaluateFeatures, in StateCategory order
+    public final static int featureNum = 5;
 
     final static double energyThreshold = 50;
     final static double distanceThreshold1 = 0.2; // 0.2 * max distance
     final static double distanceThreshold2 = 0.4;  // 0.4 * max distance
-
-    final double speed = 40; // pixel/turn
-
-    final boolean interReward = true;
-    final double bulletHitBulletReward = -1;
-    final double bulletHitRobotReward = 5;
-    final double bulletHitWallReward = -1;
-    final double hitByBulletReward = -5;
-    final double hitByRobotReward = -5;
-    final double hitByWallReward = -10;
-    final double deathReward = -50;
-    final double winReward = 50;
-    final double scanRobotReward = 0;
+    final static double maxEnergy = 100;
+    final static double maxGunHeat = 3; // the gun heat at the start of a round
+
+    public final static double speed = 40; // pixel/turn
+
+    // rewards of the events, also used by the headless simulator in cpen502.sim
+    public final static boolean interReward = true;
+    public final static double bulletHitBulletReward = -1;
+    public final static double bulletHitRobotReward = 5;
+    public final static double bulletHitWallReward = -1;
+    public final static double hitByBulletReward = -5;
+    public final static double hitByRobotReward = -5;
+    public final static double hitByWallReward = -10;
+    public final static double deathReward = -50;
+    public final static double winReward = 50;
+    public final static double scanRobotReward = 0;
 
     static double learningRate = 0.001;
     static double featureFactor = 0.8;
@@ -108,15 +123,40 @@ public class QLearningRobot extends AdvancedRobot {
     static double initialERate = explorationRate;
     static boolean useOffPolicy = true;
     static boolean useNN = true;
+    // learn with TileCoding over the continuous features instead of the LUT or the NN
+    static boolean useTiles = false;
+    static int tilingNum = 8;
+    static int[] tileNums = new int[] {8, 8, 4, 6, 3};
+    static int tileHashBits = 18;
+    static double tileLearningRate = 0.1;
+    // Q(lambda) of the LUT, 0 for one-step updates
+    static double lambda = 0;
+    static double traceCutoff = 0.01;
+    // evaluation rounds, the robot plays its greedy policy without learning
+    static boolean learning = true;
+    // transitions replayed after every NN update: the last lastNSize ones in order, or with a
+    // positive replayCapacity lastNSize ones sampled from the last replayCapacity ones
     static int lastNSize = 4;
+    static int replayCapacity = 0;
+    static Precision nnPrecision = Precision.DOUBLE;
     static boolean loadNNFile = false;
     static boolean saveNNFile = false;
+    // binary checkpoint NN.bin instead of the text file NN.txt
+    static boolean binaryNNFile = true;
 
-    final static RoboCodeLUT lut =
+    final static RoboCodeLUT lut = replayCapacity > 0 ?
+            new RoboCodeLUT(learningRate, featureFactor, explorationRate, useOffPolicy,
+                    useNN, lastNSize, replayCapacity, nnPrecision) :
             new RoboCodeLUT(learningRate, featureFactor, explorationRate, useOffPolicy,
-                    useNN, lastNSize);
-    int[] prevState = null;
+                    useNN, lastNSize, nnPrecision);
+    final static TileCoding tiles = useTiles ?
+            new TileCoding(tilingNum, tileNums, tileHashBits, tileLearningRate, featureFactor, explorationRate,
+                    useOffPolicy) : null;
+    int prevState = RoboCodeLUT.NO_STATE;
     Action prevAction = null;
+    // features of the current and the previous decision of the tile coding, swapped every scan
+    double[] features = new double[featureNum];
+    double[] prevFeatures = null;
 
     static int roundCount = 0;
     static List<Double> winRates = new ArrayList<>();
@@ -132,19 +172,59 @@ public class QLearningRobot extends AdvancedRobot {
     static boolean saveFile = false;
     static boolean loadFile = false;
 
+    // write the LUT and NN files in the background every checkpointInterval rounds, 0 to disable.
+    // The checkpoints alternate between "<file>.0" and "<file>.1" and are loaded from there.
+    static int checkpointInterval = 0;
+    static int checkpointQueueCapacity = 2;
+    static CheckpointService checkpointService = null;
+
+    // time every decision and append a summary of every round to latencyFile
+    static boolean profileDecisions = false;
+    static String latencyFile = "latency.csv";
+    final static DecisionProfiler profiler = profileDecisions ? new DecisionProfiler() : null;
+
     public void run() {
         setAdjustGunForRobotTurn(true);
         setAdjustRadarForGunTurn(true);
         setAdjustRadarForRobotTurn(true);
         execute();
 
-        // read data from file
+        if (roundCount == 0 && profiler != null) {
+            lut.setProfiler(profiler);
+        }
+        if (roundCount == 0 && !useNN && lambda > 0 && lut.getTraces() == null) {
+            lut.setTraces(lambda, traceCutoff);
+        }
+
+        // read data from file, or from the newest checkpoint when checkpointing
         if (roundCount == 0 && loadFile) {
-            lut.load(getDataFile("LUT.txt"));
+            byte[] checkpoint = readCheckpoint("LUT.txt");
+            if (checkpoint == null) {
+                lut.load(getDataFile("LUT.txt"));
+            } else {
+                try {
+                    lut.load(new ByteArrayInputStream(checkpoint));
+                } catch (IOException e) {
+                    e.printStackTrace(out);
+                }
+            }
         }
 
         if (roundCount == 0 && useNN && loadNNFile) {
-            lut.neuralnet.load(getDataFile("NN.txt"));
+            if (binaryNNFile) {
+                byte[] checkpoint = readCheckpoint("NN.bin");
+                try {
+                    if (checkpoint == null) {
+                        NeuralNetCheckpoint.load(lut.neuralnet, getDataFile("NN.bin"));
+                    } else {
+                        NeuralNetCheckpoint.load(lut.neuralnet, new ByteArrayInputStream(checkpoint));
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace(out);
+                }
+            } else {
+                lut.neuralnet.load(getDataFile("NN.txt"));
+            }
         }
 
         while (true) {
@@ -154,6 +234,9 @@ public class QLearningRobot extends AdvancedRobot {
                 explorationRate -= 0.01;
                 explorationRate = explorationRate < 0 ? 0 : explorationRate;
                 lut.setE(explorationRate);
+                if (tiles != null) {
+                    tiles.setE(explorationRate);
+                }
                 winRates.add((double)winCount/100);
                 rounds.add(roundCount);
                 eRates.add(explorationRate);
@@ -163,26 +246,67 @@ public class QLearningRobot extends AdvancedRobot {
         }
     }
 
+    public void onRoundEnded(RoundEndedEvent event) {
+        if (profiler != null) {
+            writeLatency(event.getRound());
+        }
+        if (checkpointInterval <= 0 || (event.getRound() + 1) % checkpointInterval != 0) {
+            return;
+        }
+        if (checkpointService == null) {
+            // the sandbox only lets a robot write through RobocodeFileOutputStream, no renames
+            checkpointService = new CheckpointService(checkpointQueueCapacity, RobocodeFileOutputStream::new, true);
+        }
+        // only the copies are made on this thread
+        if (saveFile) checkpointService.submit(lut.snapshot(), getDataFile("LUT.txt"));
+        if (useNN && saveNNFile && binaryNNFile) {
+            checkpointService.submit(NeuralNetCheckpoint.snapshot(lut.neuralnet, false), getDataFile("NN.bin"));
+        }
+    }
+
     public void onBattleEnded(BattleEndedEvent event) {
+        if (checkpointService != null) {
+            // let the pending checkpoints land before the final files are written
+            try {
+                checkpointService.shutdown(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            out.println("Checkpoints written: " + checkpointService.getWrittenCount()
+                    + ", dropped: " + checkpointService.getDroppedCount()
+                    + ", failed: " + checkpointService.getFailedCount());
+            checkpointService = null;
+        }
+        if (checkpointInterval > 0) {
+            // the final state is the newest checkpoint, which is what the next battle loads
+            if (saveFile) writeCheckpoint(lut.snapshot(), "LUT.txt");
+            if (useNN && saveNNFile && binaryNNFile) {
+                writeCheckpoint(NeuralNetCheckpoint.snapshot(lut.neuralnet, false), "NN.bin");
+            }
+        }
         if (saveFile) lut.save(getDataFile("LUT.txt"));
-        if (saveNNFile) lut.neuralnet.save(getDataFile("NN.txt"));
+        if (saveNNFile) saveNN();
+        if (profiler != null) {
+            out.println(profiler);
+        }
 
         String policyString = useOffPolicy ? "offPolicy" : "onPolicy";
         String NNString = useNN ? "NN-" : "";
+        String replayString = replayCapacity > 0 ? "sample" + lastNSize + "of" + replayCapacity : "last" + lastNSize;
         PrintStream w = null;
         try {
             out.println("Try writing result to: " + getDataDirectory());
 
             w = new PrintStream(new RobocodeFileOutputStream(
                     getDataFile("./" + NNString + initialERate + "-" +
-                            featureFactor + "-" + lastNSize + "-" + policyString +".txt")));
+                            featureFactor + "-" + replayString + "-" + policyString +".txt")));
             for (int i = 0; i < rounds.size(); i ++) {
                 w.println(rounds.get(i) + "," + eRates.get(i) + "," + winRates.get(i));
             }
 
             w = new PrintStream(new RobocodeFileOutputStream(
                     getDataFile("./" + NNString + initialERate + "-" +
-                            featureFactor + "-" + lastNSize + "-" + policyString + "-rewards.txt")
+                            featureFactor + "-" + replayString + "-" + policyString + "-rewards.txt")
             ));
             for (int i = 0; i < rewards.size(); i++) {
                 w.println(rewards.get(i));
@@ -202,13 +326,98 @@ public class QLearningRobot extends AdvancedRobot {
         }
     }
 
+    /**
+     * Append the latency summary of a round to latencyFile, starting it over in the first round.
+     */
+    private void writeLatency(int round) {
+        String line = profiler.endRound(round);
+        try (PrintStream w = new PrintStream(new RobocodeFileOutputStream(getDataFile(latencyFile).getPath(),
+                round > 0))) {
+            if (round == 0) {
+                w.println(DecisionProfiler.csvHeader());
+            }
+            w.println(line);
+            if (w.checkError()) {
+                out.println("I could not write " + latencyFile);
+            }
+        } catch (IOException e) {
+            out.println("IOException trying to write " + latencyFile + ": ");
+            e.printStackTrace(out);
+        }
+    }
+
+    public void onSkippedTurn(SkippedTurnEvent event) {
+        if (profiler != null) {
+            profiler.skippedTurn(event.getSkippedTurn());
+        }
+    }
+
+    /**
+     * @return The newest complete checkpoint of a data file, null when checkpointing is off or
+     *         none was written
+     */
+    private byte[] readCheckpoint(String name) {
+        if (checkpointInterval <= 0) {
+            return null;
+        }
+        try {
+            return CheckpointService.readLatest(getDataFile(name));
+        } catch (IOException e) {
+            e.printStackTrace(out);
+            return null;
+        }
+    }
+
+    private void writeCheckpoint(CheckpointService.Snapshot snapshot, String name) {
+        try {
+            CheckpointService.writeAlternating(snapshot, getDataFile(name), RobocodeFileOutputStream::new);
+        } catch (IOException e) {
+            out.println("IOException trying to write a checkpoint of " + name + ": ");
+            e.printStackTrace(out);
+        }
+    }
+
+    private void saveNN() {
+        if (!binaryNNFile) {
+            lut.neuralnet.save(getDataFile("NN.txt"));
+            return;
+        }
+        try (RobocodeFileOutputStream stream = new RobocodeFileOutputStream(getDataFile("NN.bin"))) {
+            // the robot only needs the weights to resume, not the cached neuron outputs
+            NeuralNetCheckpoint.save(lut.neuralnet, stream, false);
+        } catch (IOException e) {
+            out.println("IOException trying to write NN.bin: ");
+            e.printStackTrace(out);
+        }
+    }
+
     public void onScannedRobot(ScannedRobotEvent event) {
 //        aimEnemy(event);
         if (interReward) reward += scanRobotReward;
-        int[] state = evaluateState(event);
-        Action action = useNN ? lut.updateValueNN(state, prevState, prevAction, reward) :
-                lut.updateValue(state, prevState, prevAction, reward);
+        long start = profiler == null ? 0 : System.nanoTime();
+        int state = evaluateStateCode(event);
+        if (profiler != null) {
+            profiler.lap(Phase.EVALUATE, start);
+        }
+        Action action;
+        if (useTiles) {
+            evaluateFeatures(getX(), getY(), getBattleFieldWidth(), getBattleFieldHeight(), getEnergy(),
+                    event.getDistance(), getGunHeat(), features);
+            action = learning ? tiles.updateValue(features, prevFeatures, prevAction, reward) :
+                    tiles.getOptimalAction(features);
+            double[] swap = prevFeatures == null ? new double[featureNum] : prevFeatures;
+            prevFeatures = features;
+            features = swap;
+        } else if (!learning) {
+            action = useNN ? lut.getOptimalActionNN(state) : lut.getOptimalAction(state);
+        } else {
+            action = useNN ? lut.updateValueNN(state, prevState, prevAction, reward) :
+                    lut.updateValue(state, prevState, prevAction, reward);
+        }
         performAction(action, event);
+        if (profiler != null) {
+            profiler.decisionDone(getTime(), System.nanoTime() - start);
+        }
 
         if (sumRewardCounter < 200) {
             sumReward += reward;
@@ -287,34 +496,84 @@ public class QLearningRobot extends AdvancedRobot {
         }
     }
 
-    private int[] evaluateState(ScannedRobotEvent event) {
-        int[] state = new int[stateNum];
-        state[StateCategory.PosX.getValue()] = (int) (stateDim.get(StateCategory.PosX) *
-                (getX() / getBattleFieldWidth()));
-        state[StateCategory.PosY.getValue()] = (int) (stateDim.get(StateCategory.PosY) *
-                (getY() / getBattleFieldHeight()));
+    private int evaluateStateCode(ScannedRobotEvent event) {
+        return evaluateStateCode(getX(), getY(), getBattleFieldWidth(), getBattleFieldHeight(),
+                getEnergy(), event.getDistance(), getGunHeat());
+    }
 
-        state[StateCategory.Energy.getValue()] = getEnergy() < energyThreshold ? 0 : 1;
+    /**
+     * Discretize an observation into a state, one index per StateCategory.
+     */
+    public static int[] evaluateState(double x, double y, double battleFieldWidth, double battleFieldHeight,
+                                      double energy, double distance, double gunHeat) {
+        return FlatLUT.decode(stateRadices, evaluateStateCode(x, y, battleFieldWidth, battleFieldHeight,
+                energy, distance, gunHeat), new int[stateNum]);
+    }
 
-        state[StateCategory.EnemyDistance.getValue()] =
-                event.getDistance() < distanceThreshold1 ? 0 :
-                        event.getDistance() < distanceThreshold2 ? 1 : 2;
+    /**
+     * Discretize an observation into the code of its state, see RoboCodeLUT.stateCode,
+     * without allocating.
+     */
+    public static int evaluateStateCode(double x, double y, double battleFieldWidth, double battleFieldHeight,
+                                        double energy, double distance, double gunHeat) {
+        int posX = (int) (stateRadices[StateCategory.PosX.getValue()] * (x / battleFieldWidth));
+        int posY = (int) (stateRadices[StateCategory.PosY.getValue()] * (y / battleFieldHeight));
+
+        int energyLevel = energy < energyThreshold ? 0 : 1;
+
+        int enemyDistance =
+                distance < distanceThreshold1 ? 0 :
+                        distance < distanceThreshold2 ? 1 : 2;
+
+        int gunHeated = gunHeat > 0 ? 1 : 0;
+
+        // mixed radix digits in StateCategory order, the first one most significant
+        int code = posX;
+        code = code * stateRadices[StateCategory.PosY.getValue()] + posY;
+        code = code * stateRadices[StateCategory.Energy.getValue()] + energyLevel;
+        code = code * stateRadices[StateCategory.EnemyDistance.getValue()] + enemyDistance;
+        code = code * stateRadices[StateCategory.GunHeated.getValue()] + gunHeated;
+        return code;
+    }
 
-        state[StateCategory.GunHeated.getValue()] = getGunHeat() > 0 ? 1 : 0;
+    /**
+     * The observation that evaluateStateCode discretizes, as continuous features in [0, 1]
+     * in StateCategory order: position over the battle field size, energy over maxEnergy,
+     * distance over the battle field diagonal and gun heat over maxGunHeat.
+     * @param features Receives the features, of size featureNum
+     * @return features
+     */
+    public static double[] evaluateFeatures(double x, double y, double battleFieldWidth, double battleFieldHeight,
+                                            double energy, double distance, double gunHeat, double[] features) {
+        double diagonal = Math.sqrt(battleFieldWidth * battleFieldWidth + battleFieldHeight * battleFieldHeight);
+        features[StateCategory.PosX.getValue()] = clamp(x / battleFieldWidth);
+        features[StateCategory.PosY.getValue()] = clamp(y / battleFieldHeight);
+        features[StateCategory.Energy.getValue()] = clamp(energy / maxEnergy);
+        features[StateCategory.EnemyDistance.getValue()] = clamp(distance / diagonal);
+        features[StateCategory.GunHeated.getValue()] = clamp(gunHeat / maxGunHeat);
+        return features;
+    }
 
-        return state;
+    private static double clamp(double feature) {
+        return Math.max(0, Math.min(1, feature));
     }
 
     private void actionFire(ScannedRobotEvent event) {
 
         aimEnemy(event);
+        setFire(firePower(event.getDistance()));
+    }
 
-        if (event.getDistance() > 600) {
-            setFire(1.5);
-        } else if (event.getDistance() > 400) {
-            setFire(2);
+    /**
+     * @return The bullet power of the Fire action at a distance from the enemy
+     */
+    public static double firePower(double distance) {
+        if (distance > 600) {
+            return 1.5;
+        } else if (distance > 400) {
+            return 2;
         } else {
-            setFire(3);
+            return 3;
         }
     }
 
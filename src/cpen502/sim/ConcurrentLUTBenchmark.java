@@ -0,0 +1,184 @@
+package cpen502.sim;
+
+import cpen502.LUT.ConcurrentLUT;
+import cpen502.LUT.FlatLUT;
+import cpen502.LUT.RoboCodeLUT;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Compares the throughput of table updates shared by 1, 2, 4, ... 32 threads. Each step is
+ * the table side of RoboCodeLUT.updateValue on random states: argmax of the current state,
+ * the update of the previous pair from the max of the current state, and a visit.
+ *
+ *     lock-free      ConcurrentLUT
+ *     global lock    FlatLUT, every step in one synchronized block
+ *     striped locks  FlatLUT, a lock per group of states held while touching a state
+ *     unsafe         FlatLUT without any synchronization, for reference; it loses updates
+ *
+ * Lost visits, the visits counted by the threads that the table does not hold, are reported
+ * for every variant.
+ *
+ * Usage: ConcurrentLUTBenchmark [steps per thread] [max threads]
+ */
+public class ConcurrentLUTBenchmark {
+    static final double ALPHA = 0.1;
+    static final double GAMMA = 0.8;
+    static final int LOCK_STRIPES = 64;
+
+    interface Table {
+        void step(int prevState, int prevAction, double reward, int curState);
+
+        long visits();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threadSteps = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int maxThreadNum = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int[] radices = RoboCodeLUT.stateRadices;
+        int actionNum = RoboCodeLUT.actionDim;
+
+        System.out.println(threadSteps + " steps per thread, " + Runtime.getRuntime().availableProcessors() + " cores");
+        for (int threadNum = 1; threadNum <= maxThreadNum; threadNum *= 2) {
+            String[] names = new String[]{"lock-free", "global lock", "striped locks", "unsafe"};
+            Table[] tables = new Table[]{lockFree(radices, actionNum, threadNum), globalLock(radices, actionNum),
+                    stripedLocks(radices, actionNum), unsafe(radices, actionNum)};
+            for (int i = 0; i < tables.length; i ++) {
+                run(threadNum, threadSteps, tables[i]);
+                double seconds = run(threadNum, threadSteps, tables[i]);
+                long steps = 2L * threadNum * threadSteps;
+                System.out.printf("threads: %2d   %-13s   steps/s: %11.0f   lost visits: %d%n", threadNum, names[i],
+                        threadNum * threadSteps / seconds, steps - tables[i].visits());
+            }
+        }
+    }
+
+    /**
+     * @return The seconds threadNum threads take for threadSteps steps each
+     */
+    static double run(int threadNum, int threadSteps, Table table) throws InterruptedException {
+        int stateNum = RoboCodeLUT.lutSize / RoboCodeLUT.actionDim;
+        int actionNum = RoboCodeLUT.actionDim;
+        Thread[] threads = new Thread[threadNum];
+        for (int t = 0; t < threadNum; t ++) {
+            SplittableRandom random = new SplittableRandom(t);
+            threads[t] = new Thread(() -> {
+                int prevState = random.nextInt(stateNum);
+                for (int i = 0; i < threadSteps; i ++) {
+                    int curState = random.nextInt(stateNum);
+                    table.step(prevState, random.nextInt(actionNum), random.nextDouble() - 0.5, curState);
+                    prevState = curState;
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return (System.nanoTime() - start) / 1e9;
+    }
+
+    static long visits(FlatLUT lut) {
+        long visits = 0;
+        for (int count : lut.getAccess()) {
+            visits += count;
+        }
+        return visits;
+    }
+
+    static Table lockFree(int[] radices, int actionNum, int threadNum) {
+        ConcurrentLUT lut = new ConcurrentLUT(radices, actionNum, threadNum);
+        lut.initialize(new Random(0), 100);
+        return new Table() {
+            public void step(int prevState, int prevAction, double reward, int curState) {
+                int action = lut.argmax(curState);
+                lut.update(prevState, prevAction, ALPHA, reward + GAMMA * lut.max(curState));
+                lut.visit(curState, action);
+            }
+
+            public long visits() {
+                long visits = 0;
+                for (int state = 0; state < lut.getStateNum(); state ++) {
+                    for (int action = 0; action < actionNum; action ++) {
+                        visits += lut.getAccess(state, action);
+                    }
+                }
+                return visits;
+            }
+        };
+    }
+
+    static Table globalLock(int[] radices, int actionNum) {
+        FlatLUT lut = new FlatLUT(radices, actionNum);
+        lut.initialize(new Random(0), 100);
+        return new Table() {
+            public void step(int prevState, int prevAction, double reward, int curState) {
+                synchronized (lut) {
+                    int action = lut.argmax(curState);
+                    lut.update(prevState, prevAction, ALPHA, reward + GAMMA * lut.max(curState));
+                    lut.visit(curState, action);
+                }
+            }
+
+            public long visits() {
+                return ConcurrentLUTBenchmark.visits(lut);
+            }
+        };
+    }
+
+    static Table stripedLocks(int[] radices, int actionNum) {
+        FlatLUT lut = new FlatLUT(radices, actionNum);
+        lut.initialize(new Random(0), 100);
+        ReentrantLock[] locks = new ReentrantLock[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i ++) {
+            locks[i] = new ReentrantLock();
+        }
+        return new Table() {
+            public void step(int prevState, int prevAction, double reward, int curState) {
+                ReentrantLock curLock = locks[curState % LOCK_STRIPES];
+                int action;
+                double curQ;
+                curLock.lock();
+                try {
+                    action = lut.argmax(curState);
+                    curQ = lut.max(curState);
+                    lut.visit(curState, action);
+                } finally {
+                    curLock.unlock();
+                }
+                ReentrantLock prevLock = locks[prevState % LOCK_STRIPES];
+                prevLock.lock();
+                try {
+                    lut.update(prevState, prevAction, ALPHA, reward + GAMMA * curQ);
+                } finally {
+                    prevLock.unlock();
+                }
+            }
+
+            public long visits() {
+                return ConcurrentLUTBenchmark.visits(lut);
+            }
+        };
+    }
+
+    static Table unsafe(int[] radices, int actionNum) {
+        FlatLUT lut = new FlatLUT(radices, actionNum);
+        lut.initialize(new Random(0), 100);
+        return new Table() {
+            public void step(int prevState, int prevAction, double reward, int curState) {
+                int action = lut.argmax(curState);
+                lut.update(prevState, prevAction, ALPHA, reward + GAMMA * lut.max(curState));
+                lut.visit(curState, action);
+            }
+
+            public long visits() {
+                return ConcurrentLUTBenchmark.visits(lut);
+            }
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package cpen502.sim;
+
+import cpen502.robots.QLearningRobot.Action;
+
+/**
+ * A battle the Q-learning agent can be trained in without Robocode.
+ * The agent sees the same discretized state as QLearningRobot.evaluateStateCode, as a state
+ * code, and picks one of the same five Actions at every decision, like the robot does on
+ * every scan.
+ *
+ * A round goes:
+ *      int state = env.reset();
+ *      while (!env.isRoundOver()) {
+ *          state = env.step(action);
+ *          double reward = env.getReward();
+ *          ...
+ *      }
+ */
+public interface Environment {
+
+    /**
+     * Start a new round.
+     * @return The state of the first decision
+     */
+    int reset();
+
+    /**
+     * Perform an action until the next decision.
+     * @return The state of the next decision, or the last state when the round is over
+     */
+    int step(Action action);
+
+    /**
+     * The continuous features of the current decision, see QLearningRobot.evaluateFeatures.
+     * @param features Receives the features, of size QLearningRobot.featureNum
+     * @return features
+     */
+    double[] getFeatures(double[] features);
+
+    /**
+     * @return The reward of the events since the previous decision
+     */
+    double getReward();
+
+    boolean isRoundOver();
+
+    /**
+     * @return Whether the agent won the round that is over
+     */
+    boolean isWon();
+
+    /**
+     * @return The number of simulated ticks since the environment was created
+     */
+    long getTicks();
+}
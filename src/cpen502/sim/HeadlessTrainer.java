@@ -0,0 +1,208 @@
+package cpen502.sim;
+
+import cpen502.LUT.RoboCodeLUT;
+import cpen502.LUT.TileCoding;
+import cpen502.nerualnetwork.Precision;
+import cpen502.robots.QLearningRobot;
+import cpen502.robots.QLearningRobot.Action;
+import cpen502.utils.DecisionProfiler;
+
+import java.io.*;
+
+/**
+ * Trains RoboCodeLUT in the headless TankEnvironment with the settings of QLearningRobot:
+ * the exploration rate starts at initialERate and drops by 0.01 every 100 rounds, and the
+ * win rate of every 100 rounds is logged as "round,explorationRate,winRate" like the robot's
+ * result files.
+ *
+ * Usage: HeadlessTrainer [rounds] [opponent] [engine] [seed] [output file or -] [table file]
+ *
+ * The engine is lut, nn (or true, like the former useNN argument) or tiles for TileCoding
+ * with the tile settings of QLearningRobot.
+ *
+ * With a table file the LUT is a MappedLUT on it, resumed when the file exists, which
+ * TableMonitor can follow from another JVM while training runs.
+ */
+public class HeadlessTrainer {
+    static double learningRate = 0.001;
+    static double featureFactor = 0.8;
+    static double initialERate = 0.5;
+    static boolean useOffPolicy = true;
+    // transitions replayed after every NN update: the last lastNSize ones in order, as the
+    // robot does, or with a positive replayCapacity lastNSize ones sampled from the last
+    // replayCapacity ones
+    static int lastNSize = 4;
+    static int replayCapacity = 0;
+    // also learn from the reward of the last step of a round, which the robot never sees
+    static boolean terminalUpdate = true;
+    // -1 keeps the Q values in the dense FlatLUT, otherwise in a SparseLUT of at most this
+    // many pairs, 0 for no limit
+    static int sparseEntries = -1;
+    // Q(lambda) of the LUT, 0 for one-step updates
+    static double lambda = 0;
+    static double traceCutoff = 0.01;
+    // time the phases of the LUT's and NN's decisions and print their percentiles at the end
+    static boolean profileDecisions = false;
+    static int tilingNum = 8;
+    static int[] tileNums = new int[] {8, 8, 4, 6, 3};
+    static int tileHashBits = 18;
+    static double tileLearningRate = 0.1;
+
+    /**
+     * @return A learner with the settings above, replaying transitions only with useNN
+     */
+    static RoboCodeLUT newLUT(boolean useNN) {
+        int replaySize = useNN ? lastNSize : 0;
+        if (replayCapacity > 0) {
+            return new RoboCodeLUT(learningRate, featureFactor, initialERate, useOffPolicy, useNN,
+                    replaySize, replayCapacity, Precision.DOUBLE);
+        }
+        return new RoboCodeLUT(learningRate, featureFactor, initialERate, useOffPolicy, useNN,
+                replaySize, Precision.DOUBLE);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int roundNum = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        TankEnvironment.Opponent opponent = args.length > 1 ?
+                TankEnvironment.Opponent.valueOf(args[1]) : TankEnvironment.Opponent.SPIN_BOT;
+        String engine = args.length > 2 ? args[2] : "lut";
+        boolean useNN = engine.equals("nn") || Boolean.parseBoolean(engine);
+        boolean useTiles = engine.equals("tiles");
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 502;
+        String outputFile = args.length > 4 && !args[4].equals("-") ? args[4] : null;
+        String mappedTable = args.length > 5 ? args[5] : null;
+
+        RoboCodeLUT lut = newLUT(useNN);
+        if (!useNN) {
+            lut.setTraces(lambda, traceCutoff);
+        }
+        if (profileDecisions) {
+            lut.setProfiler(new DecisionProfiler());
+        }
+        if (sparseEntries >= 0) {
+            lut.setSparseTable(sparseEntries);
+        }
+        lut.initialize(seed);
+        if (mappedTable != null && !useNN) {
+            boolean created = lut.setMappedTable(new File(mappedTable));
+            System.out.println((created ? "Created " : "Resuming ") + mappedTable);
+        }
+        TileCoding tiles = null;
+        if (useTiles) {
+            tiles = new TileCoding(tilingNum, tileNums, tileHashBits, tileLearningRate, featureFactor,
+                    initialERate, useOffPolicy);
+            tiles.initialize(seed);
+        }
+        TankEnvironment env = new TankEnvironment(opponent, seed);
+
+        PrintStream log = outputFile == null ? null : new PrintStream(new FileOutputStream(outputFile));
+        System.out.println("Training " + (useNN ? "NN" : useTiles ? "tile coding" : "LUT") + " against " + opponent + " for "
+                + roundNum + " rounds");
+
+        long start = System.nanoTime();
+        long steps = 0;
+        int winCount = 0;
+        double explorationRate = initialERate;
+        for (int round = 1; round <= roundNum; round ++) {
+            steps += useTiles ? runRound(tiles, env) : runRound(lut, env, useNN);
+            if (lut.getProfiler() != null) {
+                lut.getProfiler().endRound(round);
+            }
+            if (env.isWon()) {
+                winCount ++;
+            }
+
+            if (round % 100 == 0) {
+                explorationRate = Math.max(0, explorationRate - 0.01);
+                lut.setE(explorationRate);
+                if (tiles != null) {
+                    tiles.setE(explorationRate);
+                }
+                double winRate = winCount / 100.0;
+                if (log != null) {
+                    log.println(round + "," + explorationRate + "," + winRate);
+                }
+                if (round % 1000 == 0) {
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    System.out.printf("round %6d   e: %.2f   win rate: %.2f   steps/s: %.0f   ticks/s: %.0f%n",
+                            round, explorationRate, winRate, steps / seconds, env.getTicks() / seconds);
+                }
+                winCount = 0;
+            }
+        }
+        if (log != null) {
+            log.close();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d decision steps in %.1f s, %.0f steps/s%n", steps, seconds, steps / seconds);
+        if (lut.getProfiler() != null) {
+            System.out.println(lut.getProfiler());
+        }
+        if (!useNN && !useTiles) {
+            System.out.printf("Q table: %s, %d KB%n", lut.getTable().getClass().getSimpleName(),
+                    lut.getTable().getMemoryBytes() / 1024);
+        }
+    }
+
+    /**
+     * Play one round, updating the learner at every decision like QLearningRobot.onScannedRobot.
+     * @return The number of decisions
+     */
+    static int runRound(RoboCodeLUT lut, Environment env, boolean useNN) {
+        int state = env.reset();
+        int prevState = RoboCodeLUT.NO_STATE;
+        Action prevAction = null;
+        double reward = 0;
+        int steps = 0;
+        DecisionProfiler profiler = lut.getProfiler();
+        while (!env.isRoundOver()) {
+            long start = profiler == null ? 0 : System.nanoTime();
+            Action action = useNN ? lut.updateValueNN(state, prevState, prevAction, reward) :
+                    lut.updateValue(state, prevState, prevAction, reward);
+            if (profiler != null) {
+                profiler.decisionDone(steps, System.nanoTime() - start);
+            }
+            prevState = state;
+            prevAction = action;
+            state = env.step(action);
+            reward = env.getReward();
+            steps ++;
+        }
+        if (terminalUpdate) {
+            if (useNN) {
+                lut.updateValueNN(state, prevState, prevAction, reward);
+            } else {
+                lut.updateValue(state, prevState, prevAction, reward);
+            }
+        }
+        return steps;
+    }
+
+    /**
+     * Play one round with tile coding, like runRound does with the LUT.
+     * @return The number of decisions
+     */
+    static int runRound(TileCoding tiles, Environment env) {
+        env.reset();
+        double[] features = env.getFeatures(new double[QLearningRobot.featureNum]);
+        double[] prevFeatures = null;
+        double[] spare = new double[QLearningRobot.featureNum];
+        Action prevAction = null;
+        double reward = 0;
+        int steps = 0;
+        while (!env.isRoundOver()) {
+            Action action = tiles.updateValue(features, prevFeatures, prevAction, reward);
+            prevFeatures = features;
+            prevAction = action;
+            env.step(action);
+            features = env.getFeatures(spare);
+            spare = prevFeatures;
+            reward = env.getReward();
+            steps ++;
+        }
+        if (terminalUpdate) {
+            tiles.updateValue(features, prevFeatures, prevAction, reward);
+        }
+        return steps;
+    }
+}
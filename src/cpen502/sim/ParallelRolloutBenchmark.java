@@ -0,0 +1,43 @@
+package cpen502.sim;
+
+import cpen502.LUT.RoboCodeLUT;
+
+/**
+ * Trains a fresh RoboCodeLUT with RolloutEngine at 1, 2, 4, ... workers up to the number of
+ * cores and reports the decisions per second and the speedup over one worker.
+ *
+ * Usage: ParallelRolloutBenchmark [opponent] [useNN] [phases] [phaseSteps] [seed]
+ */
+public class ParallelRolloutBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        TankEnvironment.Opponent opponent = args.length > 0 ?
+                TankEnvironment.Opponent.valueOf(args[0]) : TankEnvironment.Opponent.SPIN_BOT;
+        boolean useNN = args.length > 1 && Boolean.parseBoolean(args[1]);
+        int phaseNum = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        int phaseSteps = args.length > 3 ? Integer.parseInt(args[3]) : (useNN ? 64 : 1024);
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : 502;
+        int maxWorkerNum = Runtime.getRuntime().availableProcessors();
+
+        System.out.println((useNN ? "NN" : "LUT") + " against " + opponent + ", " + phaseNum
+                + " phases of " + phaseSteps + " steps per worker, " + maxWorkerNum + " cores");
+        double baseline = 0;
+        for (int workerNum = 1; workerNum <= maxWorkerNum; workerNum *= 2) {
+            RoboCodeLUT lut = HeadlessTrainer.newLUT(useNN);
+            lut.initialize(seed);
+            RolloutEngine engine = new RolloutEngine(lut, opponent, workerNum, phaseSteps, seed);
+            // warm up
+            engine.run(Math.max(1, phaseNum / 10));
+            RolloutEngine.Result result = engine.run(phaseNum);
+            engine.shutdown();
+
+            if (workerNum == 1) {
+                baseline = result.getStepsPerSecond();
+            }
+            System.out.printf("    %s   speedup: %.2fx%n", result, result.getStepsPerSecond() / baseline);
+            if (workerNum * 2 > maxWorkerNum && workerNum != maxWorkerNum) {
+                workerNum = maxWorkerNum / 2;
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package cpen502.sim;
+
+import cpen502.LUT.RoboCodeLUT;
+import cpen502.LUT.TargetNetwork;
+import cpen502.nerualnetwork.Precision;
+import cpen502.robots.QLearningRobot.Action;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Trains the neural network in TankEnvironment with each replay setting for the same CPU
+ * time and compares what the time bought: the reward collected per CPU second, and the
+ * reward per round and win rate of the last rounds. With a target network it also reports
+ * how many of the replay's Q lookups were memoized.
+ *
+ * Usage: ReplayBenchmark [opponent] [cpu seconds per setting] [seed]
+ */
+public class ReplayBenchmark {
+    final static int LAST_ROUNDS = 200;
+
+    static class Setting {
+        final String name;
+        // sweep the last replaySize transitions in order instead of sampling the memory
+        final boolean inOrder;
+        final int replaySize;
+        final int replayCapacity;
+        final boolean prioritized;
+        final int targetSyncInterval;
+
+        Setting(String name, boolean inOrder, int replaySize, int replayCapacity, boolean prioritized,
+                int targetSyncInterval) {
+            this.name = name;
+            this.inOrder = inOrder;
+            this.replaySize = replaySize;
+            this.replayCapacity = replayCapacity;
+            this.prioritized = prioritized;
+            this.targetSyncInterval = targetSyncInterval;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        TankEnvironment.Opponent opponent = args.length > 0 ?
+                TankEnvironment.Opponent.valueOf(args[0]) : TankEnvironment.Opponent.TRACKER;
+        double cpuSeconds = args.length > 1 ? Double.parseDouble(args[1]) : 15;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 502;
+        Setting[] settings = new Setting[]{
+                new Setting("last 4 in order", true, 4, 4, false, 0),
+                new Setting("uniform 4 of 100k", false, 4, 100000, false, 0),
+                new Setting("prioritized 4 of 100k", false, 4, 100000, true, 0),
+                new Setting("prioritized 1 of 100k", false, 1, 100000, true, 0),
+                new Setting("uniform 4, target 1000", false, 4, 100000, false, 1000),
+                new Setting("prioritized 4, target 1000", false, 4, 100000, true, 1000),
+        };
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        System.out.println("NN against " + opponent + ", " + cpuSeconds + " CPU seconds per setting");
+        for (Setting setting : settings) {
+            RoboCodeLUT lut = setting.inOrder ?
+                    new RoboCodeLUT(HeadlessTrainer.learningRate, HeadlessTrainer.featureFactor,
+                            HeadlessTrainer.initialERate, HeadlessTrainer.useOffPolicy, true,
+                            setting.replaySize, Precision.DOUBLE) :
+                    new RoboCodeLUT(HeadlessTrainer.learningRate, HeadlessTrainer.featureFactor,
+                            HeadlessTrainer.initialERate, HeadlessTrainer.useOffPolicy, true,
+                            setting.replaySize, setting.replayCapacity, Precision.DOUBLE);
+            lut.initialize(seed);
+            if (setting.prioritized) {
+                lut.setPrioritizedReplay(0.6, 0.4, 100000);
+            }
+            lut.setTargetNetwork(setting.targetSyncInterval);
+            TankEnvironment env = new TankEnvironment(opponent, seed);
+
+            double[] roundRewards = new double[LAST_ROUNDS];
+            boolean[] roundWins = new boolean[LAST_ROUNDS];
+            double totalReward = 0;
+            long steps = 0;
+            int round = 0;
+            double explorationRate = HeadlessTrainer.initialERate;
+            long start = threads.getCurrentThreadCpuTime();
+            while (threads.getCurrentThreadCpuTime() - start < cpuSeconds * 1e9) {
+                double roundReward = 0;
+                int state = env.reset();
+                int prevState = RoboCodeLUT.NO_STATE;
+                Action prevAction = null;
+                double reward = 0;
+                while (!env.isRoundOver()) {
+                    Action action = lut.updateValueNN(state, prevState, prevAction, reward);
+                    prevState = state;
+                    prevAction = action;
+                    state = env.step(action);
+                    reward = env.getReward();
+                    roundReward += reward;
+                    steps ++;
+                }
+                lut.updateValueNN(state, prevState, prevAction, reward);
+
+                totalReward += roundReward;
+                roundRewards[round % LAST_ROUNDS] = roundReward;
+                roundWins[round % LAST_ROUNDS] = env.isWon();
+                round ++;
+                if (round % 100 == 0) {
+                    explorationRate = Math.max(0, explorationRate - 0.01);
+                    lut.setE(explorationRate);
+                }
+            }
+            double seconds = (threads.getCurrentThreadCpuTime() - start) / 1e9;
+
+            int lastRounds = Math.min(round, LAST_ROUNDS);
+            double lastReward = 0;
+            int lastWins = 0;
+            for (int i = 0; i < lastRounds; i ++) {
+                lastReward += roundRewards[i];
+                lastWins += roundWins[i] ? 1 : 0;
+            }
+            System.out.printf("    %-26s steps: %7d   rounds: %5d   reward/CPU s: %8.1f   " +
+                            "last %d rounds: reward/round %6.2f, win rate %.2f",
+                    setting.name, steps, round, totalReward / seconds, lastRounds,
+                    lastReward / lastRounds, (double) lastWins / lastRounds);
+            TargetNetwork target = lut.getTargetNetwork();
+            if (target != null) {
+                System.out.printf("   target hits: %.1f%%",
+                        100.0 * target.getHitCount() / (target.getHitCount() + target.getMissCount()));
+            }
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package cpen502.sim;
+
+import cpen502.LUT.RoboCodeLUT;
+import cpen502.nerualnetwork.NeuralNet;
+import cpen502.robots.QLearningRobot.Action;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Plays many TankEnvironment battles at once and trains one shared RoboCodeLUT with them.
+ *
+ * Training runs in phases. In every phase each worker plays phaseSteps decisions in its own
+ * environment, choosing actions epsilon-greedily from a frozen copy of the learner's policy
+ * (the Q values, or a replica of the network), and records its transitions. Meanwhile the
+ * calling thread feeds the transitions of the previous phase to RoboCodeLUT.learn, worker by
+ * worker. Between phases the workers' copies are refreshed from the learner, so the policy
+ * the workers act with lags the learner by one phase.
+ *
+ * Workers only read their copies and the learner is only touched by the calling thread, so
+ * nothing is locked. Every environment and every exploration stream is split from one seed,
+ * so a run only depends on the seed, the number of workers and phaseSteps, never on the
+ * thread scheduling.
+ */
+public class RolloutEngine {
+    final static Action[] actions = Action.values();
+
+    final RoboCodeLUT lut;
+    final int workerNum;
+    final int phaseSteps;
+    final ForkJoinPool pool;
+    final Worker[] workers;
+
+    // frozen policy of the LUT, shared read-only by the workers during a phase
+    final double[] qValues;
+
+    int phase;
+
+    public RolloutEngine(RoboCodeLUT lut, TankEnvironment.Opponent opponent, int workerNum,
+                         int phaseSteps, long seed) throws Exception {
+        if (workerNum < 1) {
+            throw new IllegalArgumentException("Worker number must be positive, got " + workerNum);
+        }
+        this.lut = lut;
+        this.workerNum = workerNum;
+        this.phaseSteps = phaseSteps;
+        this.pool = new ForkJoinPool(workerNum);
+        this.qValues = lut.getUseNN() ? null : new double[RoboCodeLUT.lutSize];
+
+        SplittableRandom random = new SplittableRandom(seed);
+        workers = new Worker[workerNum];
+        for (int i = 0; i < workerNum; i ++) {
+            SplittableRandom workerRandom = random.split();
+            NeuralNet replica = null;
+            if (lut.getUseNN()) {
+                replica = NeuralNet.create(lut.neuralnet.getNeuronNums(), lut.neuralnet.getActivation(),
+                        0, 0, lut.neuralnet.getPrecision());
+            }
+            workers[i] = new Worker(new TankEnvironment(opponent, workerRandom.nextLong()), workerRandom, replica);
+        }
+        publishPolicy();
+    }
+
+    /**
+     * Run a number of phases and learn from all the transitions they collect.
+     */
+    public Result run(int phaseNum) {
+        long start = System.nanoTime();
+        Stats before = stats();
+        for (int i = 0; i < phaseNum; i ++) {
+            runPhase(true);
+        }
+        // learn from the transitions of the last phase
+        runPhase(false);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Stats after = stats();
+        return new Result(workerNum, after.steps - before.steps, after.ticks - before.ticks,
+                after.rounds - before.rounds, after.wins - before.wins, seconds);
+    }
+
+    /**
+     * Collect one phase on the workers while the learner takes the previous one.
+     */
+    private void runPhase(boolean collect) {
+        int buffer = phase & 1;
+        double explorationRate = lut.getE();
+        Future<?>[] futures = new Future<?>[workerNum];
+        if (collect) {
+            for (int i = 0; i < workerNum; i ++) {
+                Worker worker = workers[i];
+                futures[i] = pool.submit(() -> worker.collect(worker.transitions[buffer], explorationRate));
+            }
+        }
+
+        for (Worker worker : workers) {
+            learn(worker.transitions[buffer ^ 1]);
+        }
+
+        if (collect) {
+            try {
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException("Rollout worker failed", e);
+            }
+        }
+        publishPolicy();
+        phase ++;
+    }
+
+    private void learn(Transitions transitions) {
+        for (int i = 0; i < transitions.count; i ++) {
+            lut.learn(transitions.prevStates[i], actions[transitions.prevActions[i]], transitions.rewards[i],
+                    transitions.curStates[i], actions[transitions.curActions[i]]);
+        }
+        transitions.count = 0;
+    }
+
+    /**
+     * Refresh the workers' copies of the policy from the learner.
+     */
+    private void publishPolicy() {
+        if (!lut.getUseNN()) {
+            lut.copyQValues(qValues);
+            return;
+        }
+        for (Worker worker : workers) {
+            worker.replica.copyWeightsFrom(lut.neuralnet);
+        }
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private Stats stats() {
+        Stats stats = new Stats();
+        for (Worker worker : workers) {
+            stats.steps += worker.steps;
+            stats.ticks += worker.env.getTicks();
+            stats.rounds += worker.rounds;
+            stats.wins += worker.wins;
+        }
+        return stats;
+    }
+
+    private static class Stats {
+        long steps;
+        long ticks;
+        long rounds;
+        long wins;
+    }
+
+    /**
+     * Transitions of one phase of one worker, struct of arrays.
+     */
+    static class Transitions {
+        final int[] prevStates;
+        final byte[] prevActions;
+        final double[] rewards;
+        final int[] curStates;
+        final byte[] curActions;
+        int count;
+
+        Transitions(int capacity) {
+            prevStates = new int[capacity];
+            prevActions = new byte[capacity];
+            rewards = new double[capacity];
+            curStates = new int[capacity];
+            curActions = new byte[capacity];
+        }
+
+        void add(int prevState, Action prevAction, double reward, int curState, Action curAction) {
+            prevStates[count] = prevState;
+            prevActions[count] = (byte) prevAction.getValue();
+            rewards[count] = reward;
+            curStates[count] = curState;
+            curActions[count] = (byte) curAction.getValue();
+            count ++;
+        }
+    }
+
+    /**
+     * One environment with its own exploration stream, acting like the robot does on every
+     * scan: pick an action for the current state, and record the transition that led to it.
+     */
+    class Worker {
+        final TankEnvironment env;
+        final SplittableRandom random;
+        final NeuralNet replica;
+        final Transitions[] transitions;
+
+        final int[] active = new int[RoboCodeLUT.encodedDim];
+        final double[] qOutput = new double[1];
+
+        int state = RoboCodeLUT.NO_STATE;
+        int prevState;
+        Action prevAction;
+        double reward;
+
+        long steps;
+        long rounds;
+        long wins;
+
+        Worker(TankEnvironment env, SplittableRandom random, NeuralNet replica) {
+            this.env = env;
+            this.random = random;
+            this.replica = replica;
+            this.transitions = new Transitions[]{new Transitions(phaseSteps), new Transitions(phaseSteps)};
+        }
+
+        void collect(Transitions out, double explorationRate) {
+            while (out.count < phaseSteps) {
+                if (state == RoboCodeLUT.NO_STATE) {
+                    state = env.reset();
+                    prevState = RoboCodeLUT.NO_STATE;
+                }
+                Action action = random.nextDouble() <= explorationRate ?
+                        actions[random.nextInt(actions.length)] : optimalAction(state);
+                if (prevState != RoboCodeLUT.NO_STATE) {
+                    out.add(prevState, prevAction, reward, state, action);
+                }
+                if (env.isRoundOver()) {
+                    rounds ++;
+                    if (env.isWon()) {
+                        wins ++;
+                    }
+                    state = RoboCodeLUT.NO_STATE;
+                    continue;
+                }
+                prevState = state;
+                prevAction = action;
+                state = env.step(action);
+                reward = env.getReward();
+                steps ++;
+            }
+        }
+
+        Action optimalAction(int state) {
+            int optimal = 0;
+            if (replica == null) {
+                int index = state * RoboCodeLUT.actionDim;
+                for (int i = 1; i < actions.length; i ++) {
+                    if (qValues[index + i] > qValues[index + optimal]) {
+                        optimal = i;
+                    }
+                }
+            } else {
+                double optimalQ = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < actions.length; i ++) {
+                    double q = replica.outputIntoEncoded(RoboCodeLUT.SAToActive(state, actions[i], active), qOutput)[0];
+                    if (q > optimalQ) {
+                        optimalQ = q;
+                        optimal = i;
+                    }
+                }
+            }
+            return actions[optimal];
+        }
+    }
+
+    /**
+     * Throughput and win rate of a run.
+     */
+    public static class Result {
+        public final int workerNum;
+        public final long steps;
+        public final long ticks;
+        public final long rounds;
+        public final long wins;
+        public final double seconds;
+
+        Result(int workerNum, long steps, long ticks, long rounds, long wins, double seconds) {
+            this.workerNum = workerNum;
+            this.steps = steps;
+            this.ticks = ticks;
+            this.rounds = rounds;
+            this.wins = wins;
+            this.seconds = seconds;
+        }
+
+        public double getStepsPerSecond() {
+            return steps / seconds;
+        }
+
+        public double getWinRate() {
+            return rounds == 0 ? 0 : (double) wins / rounds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("workers: %2d   steps/s: %9.0f   ticks/s: %10.0f   rounds: %6d   win rate: %.2f",
+                    workerNum, getStepsPerSecond(), ticks / seconds, rounds, getWinRate());
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package cpen502.sim;
+
+import cpen502.LUT.MappedLUT;
+
+import java.io.*;
+
+/**
+ * Follows a MappedLUT that another process trains, without copying or parsing it: every
+ * interval it prints the number of visits so far, the range of the Q values and the number
+ * of states whose greedy action changed since the last line.
+ *
+ * Usage: TableMonitor [table file] [interval ms] [lines]
+ */
+public class TableMonitor {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        File file = new File(args[0]);
+        long interval = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        int lineNum = args.length > 2 ? Integer.parseInt(args[2]) : Integer.MAX_VALUE;
+
+        MappedLUT table = MappedLUT.openReadOnly(file);
+        int stateNum = table.getStateNum();
+        int actionNum = table.getActionNum();
+        int[] greedy = new int[stateNum];
+        System.out.println("Following " + file + ", " + stateNum + " states and " + actionNum + " actions");
+
+        for (int line = 0; line < lineNum; line ++) {
+            long visits = 0;
+            int changed = 0;
+            for (int state = 0; state < stateNum; state ++) {
+                for (int action = 0; action < actionNum; action ++) {
+                    visits += table.getAccess(state, action);
+                }
+                int optimal = table.argmax(state);
+                if (optimal != greedy[state]) {
+                    greedy[state] = optimal;
+                    changed ++;
+                }
+            }
+            System.out.printf("visits: %10d   Q: [%8.3f, %8.3f]   greedy actions changed: %d%n",
+                    visits, table.minValue(), table.maxValue(), changed);
+            Thread.sleep(interval);
+        }
+    }
+}
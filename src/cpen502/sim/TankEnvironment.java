@@ -0,0 +1,443 @@
+package cpen502.sim;
+
+import cpen502.robots.QLearningRobot;
+import cpen502.robots.QLearningRobot.Action;
+
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic headless 1v1 tank battle, a stand-in for a Robocode battle of QLearningRobot
+ * against one opponent.
+ *
+ * The physics follows the Robocode rules closely enough for the learned policy to carry over:
+ *      - 800x600 battle field, 36x36 tanks, up to 8 px/tick, accelerating by 1 and braking by 2
+ *      - body turns at 10 - 0.75 * |velocity| deg/tick, the gun at 20 deg/tick independently
+ *      - bullets of power p fly at 20 - 3p px/tick, cost p energy, heat the gun by 1 + p/5,
+ *        deal 4p + 2 * max(p - 1, 0) damage and give 3p energy back to the shooter on a hit
+ *      - the gun cools by 0.1 per tick and starts at 3
+ *      - wall hits cost max(|velocity| / 2 - 1, 0) energy, ramming 0.6 energy to both tanks
+ *
+ * The agent decides every TICKS_PER_DECISION ticks, the time the robot's radar takes for a
+ * full sweep, and each decision runs the Action the way QLearningRobot.performAction does.
+ * The rewards are the constants of QLearningRobot for the same events. Unlike the robot,
+ * which never sees the events of the tick it dies or wins in, getReward after the last step
+ * includes them, so a trainer can make a terminal update.
+ *
+ * Everything is driven by a SplittableRandom seeded at construction, so the same seed and
+ * actions always give the same battle. A step allocates nothing.
+ */
+public class TankEnvironment implements Environment {
+    public final static double BATTLE_FIELD_WIDTH = 800;
+    public final static double BATTLE_FIELD_HEIGHT = 600;
+    public final static int TICKS_PER_DECISION = 8;
+    public final static int MAX_TICKS_PER_ROUND = 6000;
+
+    final static double TANK_HALF_SIZE = 18;
+    final static double MAX_VELOCITY = 8;
+    final static double ACCELERATION = 1;
+    final static double DECELERATION = 2;
+    final static double GUN_TURN_RATE = Math.toRadians(20);
+    final static double GUN_COOLING_RATE = 0.1;
+    final static double INITIAL_GUN_HEAT = 3;
+    final static double RAM_DAMAGE = 0.6;
+    final static double BULLET_HIT_BULLET_DISTANCE = 8;
+    final static int MAX_BULLETS = 64;
+
+    /**
+     * Scripted opponents, after the Robocode sample robots.
+     */
+    public enum Opponent {
+        SITTING_DUCK {
+            void control(Tank self, Tank target) {
+            }
+        },
+        // circles at 5 px/tick and fires power 3 head-on
+        SPIN_BOT {
+            void control(Tank self, Tank target) {
+                self.maxVelocity = 5;
+                self.turnRemaining = Math.toRadians(10000);
+                self.distanceRemaining = 10000;
+                self.aimAt(target);
+                self.fire(3);
+            }
+        },
+        // closes in to 150 px and fires head-on, harder the closer it is
+        TRACKER {
+            void control(Tank self, Tank target) {
+                self.turnRemaining = self.bearingTo(target);
+                self.distanceRemaining = self.distanceTo(target) - 150;
+                self.aimAt(target);
+                self.fire(self.distanceTo(target) < 300 ? 3 : 1);
+            }
+        };
+
+        /**
+         * Set the controls of the opponent for the next tick.
+         */
+        abstract void control(Tank self, Tank target);
+    }
+
+    /**
+     * Position, motion and controls of a tank. Angles are in radians, 0 is north and
+     * they grow clockwise, like Robocode's headings.
+     */
+    static class Tank {
+        double x;
+        double y;
+        double heading;
+        double velocity;
+        double maxVelocity;
+        double energy;
+        double gunHeading;
+        double gunHeat;
+
+        // controls, consumed tick by tick
+        double turnRemaining;
+        double distanceRemaining;
+        double gunTurnRemaining;
+        double firePower;
+
+        double prevX;
+        double prevY;
+
+        void reset(double x, double y, double heading, double gunHeading) {
+            this.x = x;
+            this.y = y;
+            this.heading = heading;
+            this.gunHeading = gunHeading;
+            velocity = 0;
+            maxVelocity = MAX_VELOCITY;
+            energy = 100;
+            gunHeat = INITIAL_GUN_HEAT;
+            turnRemaining = 0;
+            distanceRemaining = 0;
+            gunTurnRemaining = 0;
+            firePower = 0;
+        }
+
+        boolean isAlive() {
+            return energy > 0;
+        }
+
+        double distanceTo(Tank other) {
+            return Math.hypot(other.x - x, other.y - y);
+        }
+
+        double absoluteBearingTo(Tank other) {
+            return Math.atan2(other.x - x, other.y - y);
+        }
+
+        /**
+         * @return The bearing of another tank relative to the heading, in [-pi, pi)
+         */
+        double bearingTo(Tank other) {
+            return normalRelative(absoluteBearingTo(other) - heading);
+        }
+
+        void aimAt(Tank other) {
+            gunTurnRemaining = normalRelative(absoluteBearingTo(other) - gunHeading);
+        }
+
+        /**
+         * Fire once the gun has finished turning. Like Robocode, nothing is fired when the
+         * gun is still hot at that time.
+         */
+        void fire(double power) {
+            firePower = power;
+        }
+    }
+
+    final Opponent opponent;
+    final SplittableRandom random;
+
+    final Tank agent = new Tank();
+    final Tank enemy = new Tank();
+
+    // bullets, struct of arrays, [0, bulletNum) are in flight
+    final double[] bulletX = new double[MAX_BULLETS];
+    final double[] bulletY = new double[MAX_BULLETS];
+    final double[] bulletHeading = new double[MAX_BULLETS];
+    final double[] bulletPower = new double[MAX_BULLETS];
+    final boolean[] bulletFromAgent = new boolean[MAX_BULLETS];
+    int bulletNum;
+
+    int roundTicks;
+    long ticks;
+    double reward;
+    boolean roundOver;
+    boolean won;
+
+    public TankEnvironment(Opponent opponent, long seed) {
+        this.opponent = opponent;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public int reset() {
+        // random start positions at least 100 px apart, like Robocode's
+        double margin = 2 * TANK_HALF_SIZE;
+        do {
+            agent.reset(random.nextDouble(margin, BATTLE_FIELD_WIDTH - margin),
+                    random.nextDouble(margin, BATTLE_FIELD_HEIGHT - margin),
+                    random.nextDouble(2 * Math.PI), random.nextDouble(2 * Math.PI));
+            enemy.reset(random.nextDouble(margin, BATTLE_FIELD_WIDTH - margin),
+                    random.nextDouble(margin, BATTLE_FIELD_HEIGHT - margin),
+                    random.nextDouble(2 * Math.PI), random.nextDouble(2 * Math.PI));
+        } while (agent.distanceTo(enemy) < 100);
+        bulletNum = 0;
+        roundTicks = 0;
+        reward = 0;
+        roundOver = false;
+        won = false;
+        return evaluateStateCode();
+    }
+
+    public int step(Action action) {
+        if (roundOver) {
+            throw new IllegalStateException("The round is over, call reset");
+        }
+        reward = QLearningRobot.interReward ? QLearningRobot.scanRobotReward : 0;
+        performAction(action);
+        for (int tick = 0; tick < TICKS_PER_DECISION && !roundOver; tick ++) {
+            tick();
+        }
+        return evaluateStateCode();
+    }
+
+    public double[] getFeatures(double[] features) {
+        return QLearningRobot.evaluateFeatures(agent.x, agent.y, BATTLE_FIELD_WIDTH, BATTLE_FIELD_HEIGHT,
+                agent.energy, agent.distanceTo(enemy), agent.gunHeat, features);
+    }
+
+    public double getReward() {
+        return reward;
+    }
+
+    public boolean isRoundOver() {
+        return roundOver;
+    }
+
+    public boolean isWon() {
+        return won;
+    }
+
+    public long getTicks() {
+        return ticks;
+    }
+
+    int evaluateStateCode() {
+        return QLearningRobot.evaluateStateCode(agent.x, agent.y, BATTLE_FIELD_WIDTH, BATTLE_FIELD_HEIGHT,
+                agent.energy, agent.distanceTo(enemy), agent.gunHeat);
+    }
+
+    /**
+     * Set the controls of the agent the way QLearningRobot.performAction does.
+     */
+    void performAction(Action action) {
+        double bearing = agent.bearingTo(enemy);
+        switch (action) {
+            case Fire:
+                agent.aimAt(enemy);
+                agent.fire(QLearningRobot.firePower(agent.distanceTo(enemy)));
+                break;
+            case Forward:
+                agent.turnRemaining = bearing;
+                agent.distanceRemaining = QLearningRobot.speed;
+                break;
+            case Backward:
+                agent.turnRemaining = bearing;
+                agent.distanceRemaining = -QLearningRobot.speed;
+                break;
+            case ForwardAvoid:
+                agent.turnRemaining = bearing + Math.PI / 2;
+                agent.distanceRemaining = QLearningRobot.speed;
+                break;
+            case BackwardAvoid:
+                agent.turnRemaining = bearing + Math.PI / 2;
+                agent.distanceRemaining = -QLearningRobot.speed;
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid Action " + action);
+        }
+    }
+
+    void tick() {
+        ticks ++;
+        roundTicks ++;
+        opponent.control(enemy, agent);
+
+        moveBullets();
+        updateGun(agent, true);
+        updateGun(enemy, false);
+        move(agent, true);
+        move(enemy, false);
+
+        // ramming, both tanks go back and stop
+        if (Math.abs(agent.x - enemy.x) < 2 * TANK_HALF_SIZE && Math.abs(agent.y - enemy.y) < 2 * TANK_HALF_SIZE) {
+            undoRammingMove(agent);
+            undoRammingMove(enemy);
+            reward += QLearningRobot.interReward ? QLearningRobot.hitByRobotReward : 0;
+        }
+
+        if (!agent.isAlive() || !enemy.isAlive()) {
+            roundOver = true;
+            if (!agent.isAlive()) {
+                reward += QLearningRobot.deathReward;
+            } else {
+                // onRobotDeath and onWin both pay the win reward
+                reward += 2 * QLearningRobot.winReward;
+                won = true;
+            }
+        } else if (roundTicks >= MAX_TICKS_PER_ROUND) {
+            roundOver = true;
+        }
+    }
+
+    static void undoRammingMove(Tank tank) {
+        tank.x = tank.prevX;
+        tank.y = tank.prevY;
+        tank.velocity = 0;
+        tank.distanceRemaining = 0;
+        tank.energy -= RAM_DAMAGE;
+    }
+
+    void updateGun(Tank tank, boolean isAgent) {
+        tank.gunHeat = Math.max(0, tank.gunHeat - GUN_COOLING_RATE);
+        double turn = clamp(tank.gunTurnRemaining, GUN_TURN_RATE);
+        tank.gunHeading = normalAbsolute(tank.gunHeading + turn);
+        tank.gunTurnRemaining -= turn;
+
+        if (tank.firePower > 0 && tank.gunTurnRemaining == 0) {
+            double power = Math.min(tank.firePower, tank.energy);
+            tank.firePower = 0;
+            if (tank.gunHeat == 0 && power >= 0.1 && bulletNum < MAX_BULLETS) {
+                bulletX[bulletNum] = tank.x;
+                bulletY[bulletNum] = tank.y;
+                bulletHeading[bulletNum] = tank.gunHeading;
+                bulletPower[bulletNum] = power;
+                bulletFromAgent[bulletNum] = isAgent;
+                bulletNum ++;
+                tank.energy -= power;
+                tank.gunHeat = 1 + power / 5;
+            }
+        }
+    }
+
+    void move(Tank tank, boolean isAgent) {
+        tank.prevX = tank.x;
+        tank.prevY = tank.y;
+
+        double turnRate = Math.toRadians(10 - 0.75 * Math.abs(tank.velocity));
+        double turn = clamp(tank.turnRemaining, turnRate);
+        tank.heading = normalAbsolute(tank.heading + turn);
+        tank.turnRemaining -= turn;
+
+        tank.velocity = nextVelocity(tank.velocity, tank.distanceRemaining, tank.maxVelocity);
+        tank.x += Math.sin(tank.heading) * tank.velocity;
+        tank.y += Math.cos(tank.heading) * tank.velocity;
+        tank.distanceRemaining -= tank.velocity;
+
+        double x = Math.max(TANK_HALF_SIZE, Math.min(BATTLE_FIELD_WIDTH - TANK_HALF_SIZE, tank.x));
+        double y = Math.max(TANK_HALF_SIZE, Math.min(BATTLE_FIELD_HEIGHT - TANK_HALF_SIZE, tank.y));
+        if (x != tank.x || y != tank.y) {
+            tank.x = x;
+            tank.y = y;
+            tank.energy -= Math.max(0, Math.abs(tank.velocity) / 2 - 1);
+            tank.velocity = 0;
+            tank.distanceRemaining = 0;
+            if (isAgent && QLearningRobot.interReward) {
+                reward += QLearningRobot.hitByWallReward;
+            }
+        }
+    }
+
+    /**
+     * Accelerate towards the largest speed that can still brake before the end of the move.
+     */
+    static double nextVelocity(double velocity, double distance, double maxVelocity) {
+        double direction = Math.signum(distance);
+        // v + (v - 2) + (v - 4) + ... <= |distance|
+        double goal = direction * Math.min(maxVelocity, Math.sqrt(1 + 2 * DECELERATION * Math.abs(distance)) - 1);
+        double change = goal - velocity;
+        boolean braking = velocity != 0 && (Math.signum(change) != Math.signum(velocity));
+        double next = velocity + clamp(change, braking ? DECELERATION : ACCELERATION);
+        // do not overshoot the end of the move
+        if (next * distance > 0 && Math.abs(next) > Math.abs(distance)) {
+            next = distance;
+        }
+        return next;
+    }
+
+    void moveBullets() {
+        int i = 0;
+        while (i < bulletNum) {
+            double power = bulletPower[i];
+            double speed = 20 - 3 * power;
+            bulletX[i] += Math.sin(bulletHeading[i]) * speed;
+            bulletY[i] += Math.cos(bulletHeading[i]) * speed;
+
+            boolean fromAgent = bulletFromAgent[i];
+            Tank shooter = fromAgent ? agent : enemy;
+            Tank target = fromAgent ? enemy : agent;
+            if (Math.abs(bulletX[i] - target.x) < TANK_HALF_SIZE && Math.abs(bulletY[i] - target.y) < TANK_HALF_SIZE) {
+                target.energy -= 4 * power + 2 * Math.max(power - 1, 0);
+                shooter.energy += 3 * power;
+                if (QLearningRobot.interReward) {
+                    reward += fromAgent ? QLearningRobot.bulletHitRobotReward : QLearningRobot.hitByBulletReward;
+                }
+                removeBullet(i);
+                continue;
+            }
+            if (bulletX[i] < 0 || bulletX[i] > BATTLE_FIELD_WIDTH || bulletY[i] < 0 || bulletY[i] > BATTLE_FIELD_HEIGHT) {
+                if (fromAgent && QLearningRobot.interReward) {
+                    reward += QLearningRobot.bulletHitWallReward;
+                }
+                removeBullet(i);
+                continue;
+            }
+            i ++;
+        }
+
+        // bullets of both tanks that meet destroy each other
+        for (i = 0; i < bulletNum; i ++) {
+            for (int j = i + 1; j < bulletNum; j ++) {
+                if (bulletFromAgent[i] != bulletFromAgent[j]
+                        && Math.abs(bulletX[i] - bulletX[j]) < BULLET_HIT_BULLET_DISTANCE
+                        && Math.abs(bulletY[i] - bulletY[j]) < BULLET_HIT_BULLET_DISTANCE) {
+                    if (QLearningRobot.interReward) {
+                        reward += QLearningRobot.bulletHitBulletReward;
+                    }
+                    removeBullet(j);
+                    removeBullet(i);
+                    i --;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a bullet by moving the last one in its place.
+     */
+    void removeBullet(int i) {
+        bulletNum --;
+        bulletX[i] = bulletX[bulletNum];
+        bulletY[i] = bulletY[bulletNum];
+        bulletHeading[i] = bulletHeading[bulletNum];
+        bulletPower[i] = bulletPower[bulletNum];
+        bulletFromAgent[i] = bulletFromAgent[bulletNum];
+    }
+
+    static double clamp(double value, double limit) {
+        return Math.max(-limit, Math.min(limit, value));
+    }
+
+    static double normalAbsolute(double angle) {
+        angle %= 2 * Math.PI;
+        return angle < 0 ? angle + 2 * Math.PI : angle;
+    }
+
+    static double normalRelative(double angle) {
+        angle = normalAbsolute(angle);
+        return angle >= Math.PI ? angle - 2 * Math.PI : angle;
+    }
+}
@@ -0,0 +1,274 @@
+package cpen502.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Writes checkpoints on a background thread so the robot's thread never waits for the disk.
+ *
+ * The caller takes a Snapshot, which copies the learner state (a few KB for our LUT and
+ * networks), and submits it. A single low priority thread serializes the snapshots in
+ * submission order. At most queueCapacity snapshots wait at a time. A snapshot submitted
+ * while the queue is full is dropped and counted, since a newer one is bound to follow.
+ *
+ * Every checkpoint goes to "<target>.tmp" first and is renamed over the target once it is
+ * complete, so a crash leaves either the previous or the new file, never a torn one.
+ *
+ * A robot may only write its files through a RobocodeFileOutputStream: Robocode's security
+ * manager refuses renames and deletes, and the stream cannot be synced. An alternating service
+ * writes the checkpoints of a target to "<target>.0" and "<target>.1" in turn instead, never
+ * over the newest complete one, each followed by a trailer of its length, generation and CRC.
+ * readLatest picks the newest complete file, so a torn write falls back to the previous one.
+ */
+public class CheckpointService {
+    final static int TRAILER_MAGIC = 0x54504B43; // "CKPT"
+    // payload length, generation, CRC32 of the payload and magic
+    final static int TRAILER_BYTES = 2 * Long.BYTES + 2 * Integer.BYTES;
+
+    /**
+     * A copy of some state that can be serialized later on another thread.
+     */
+    public interface Snapshot {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Opens the stream a checkpoint is written to, e.g. RobocodeFileOutputStream::new in a robot.
+     */
+    public interface StreamOpener {
+        OutputStream open(File file) throws IOException;
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final StreamOpener opener;
+    private final boolean alternating;
+
+    private final AtomicInteger writtenCount = new AtomicInteger();
+    private final AtomicInteger droppedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+
+    public CheckpointService(int queueCapacity) {
+        this(queueCapacity, FileOutputStream::new);
+    }
+
+    public CheckpointService(int queueCapacity, StreamOpener opener) {
+        this(queueCapacity, opener, false);
+    }
+
+    /**
+     * @param alternating Whether to alternate between two files per target instead of renaming
+     *                    a temporary file, for a sandbox that only allows opener to write
+     */
+    public CheckpointService(int queueCapacity, StreamOpener opener, boolean alternating) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive, got " + queueCapacity);
+        }
+        this.opener = opener;
+        this.alternating = alternating;
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "checkpoint-writer");
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                });
+    }
+
+    /**
+     * Queue a snapshot to be written to target.
+     * @return false if the queue was full or the service is shut down, the snapshot is dropped
+     */
+    public boolean submit(Snapshot snapshot, File target) {
+        try {
+            executor.execute(() -> {
+                try {
+                    if (alternating) {
+                        writeAlternating(snapshot, target, opener);
+                    } else {
+                        writeAtomically(snapshot, target, opener);
+                    }
+                    writtenCount.incrementAndGet();
+                } catch (IOException | RuntimeException e) {
+                    // a SecurityException of a sandbox counts as a failure too
+                    failedCount.incrementAndGet();
+                    e.printStackTrace();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Write a snapshot to "<target>.tmp", then rename it over target. Whatever fails, target
+     * is left as it was and the temporary file is removed, unless a sandbox refuses that too.
+     */
+    public static void writeAtomically(Snapshot snapshot, File target, StreamOpener opener) throws IOException {
+        File temp = new File(target.getPath() + ".tmp");
+        try {
+            try (OutputStream out = opener.open(temp)) {
+                snapshot.writeTo(out);
+                if (out instanceof FileOutputStream) {
+                    ((FileOutputStream) out).getFD().sync();
+                }
+            }
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            // a sandbox may refuse the delete as well, which must not hide why the write failed
+            try {
+                temp.delete();
+            } catch (RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Write a snapshot and its trailer to whichever of "<target>.0" and "<target>.1" does not
+     * hold the newest complete checkpoint, only opening that file through opener.
+     * @return The generation written, one more than the newest complete one
+     */
+    public static long writeAlternating(Snapshot snapshot, File target, StreamOpener opener) throws IOException {
+        byte[] newest = readNewest(target);
+        long generation = newest == null ? 0 : generationOf(newest) + 1;
+        CRC32 crc = new CRC32();
+        try (OutputStream file = opener.open(new File(target.getPath() + "." + (generation & 1)))) {
+            CountingOutputStream out = new CountingOutputStream(file, crc);
+            snapshot.writeTo(out);
+            out.flush();
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            trailer.putLong(out.count).putLong(generation).putInt((int) crc.getValue()).putInt(TRAILER_MAGIC);
+            file.write(trailer.array());
+        }
+        return generation;
+    }
+
+    /**
+     * Read the payload of the newest complete checkpoint written by writeAlternating.
+     * @return The payload, null when neither file holds a complete checkpoint
+     */
+    public static byte[] readLatest(File target) throws IOException {
+        byte[] newest = readNewest(target);
+        return newest == null ? null : Arrays.copyOf(newest, newest.length - TRAILER_BYTES);
+    }
+
+    /**
+     * @return The newest complete checkpoint of a target with its trailer, null when there is none
+     */
+    private static byte[] readNewest(File target) throws IOException {
+        byte[] newest = null;
+        for (int slot = 0; slot < 2; slot ++) {
+            byte[] bytes = readComplete(new File(target.getPath() + "." + slot));
+            if (bytes != null && (newest == null || generationOf(bytes) > generationOf(newest))) {
+                newest = bytes;
+            }
+        }
+        return newest;
+    }
+
+    private static long generationOf(byte[] checkpoint) {
+        return ByteBuffer.wrap(checkpoint).getLong(checkpoint.length - TRAILER_BYTES + Long.BYTES);
+    }
+
+    /**
+     * @return The content of a checkpoint file with its trailer, null when it is missing, torn
+     *         or corrupted
+     */
+    private static byte[] readComplete(File file) throws IOException {
+        if (!file.isFile() || file.length() < TRAILER_BYTES || file.length() > Integer.MAX_VALUE) {
+            return null;
+        }
+        byte[] bytes;
+        try (InputStream in = new FileInputStream(file)) {
+            bytes = in.readAllBytes();
+        }
+        ByteBuffer trailer = ByteBuffer.wrap(bytes, bytes.length - TRAILER_BYTES, TRAILER_BYTES);
+        long length = trailer.getLong();
+        trailer.getLong();
+        int checksum = trailer.getInt();
+        if (trailer.getInt() != TRAILER_MAGIC || length != bytes.length - TRAILER_BYTES) {
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, (int) length);
+        return (int) crc.getValue() == checksum ? bytes : null;
+    }
+
+    /**
+     * Counts and checksums the bytes of a payload on their way to the file.
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        final CRC32 crc;
+        long count;
+
+        CountingOutputStream(OutputStream out, CRC32 crc) {
+            super(out);
+            this.crc = crc;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+            count ++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            crc.update(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() {
+            // the trailer follows, the file is closed by writeAlternating
+        }
+    }
+
+    /**
+     * Stop accepting snapshots and wait for the queued ones to be written.
+     * @return false if the queue did not drain within the timeout
+     */
+    public boolean shutdown(long timeoutMillis) throws InterruptedException {
+        executor.shutdown();
+        return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public int getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public int getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return The number of snapshots waiting to be written
+     */
+    public int getPendingCount() {
+        return executor.getQueue().size();
+    }
+}
@@ -0,0 +1,220 @@
+package cpen502.utils;
+
+import cpen502.nerualnetwork.Activation;
+import cpen502.nerualnetwork.NeuralNet;
+import cpen502.nerualnetwork.NeuralNetCheckpoint;
+import cpen502.nerualnetwork.Precision;
+
+import java.io.*;
+import java.security.Permission;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Checks that CheckpointService writes complete files in order, drops snapshots when its
+ * queue is full, and compares the time the caller spends on a snapshot with a blocking save.
+ * The alternating checkpoints are written under a security manager that, like Robocode's,
+ * only lets the opener write; on JDK 18 and later run with -Djava.security.manager=allow.
+ */
+public class CheckpointServiceTest {
+    static final int[] NEURON_NUMS = new int[]{20, 80, 1};
+    static final int ROUNDS = 200;
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        File target = new File(dir, "CheckpointServiceTest.bin");
+        target.delete();
+
+        NeuralNet neuralnet = NeuralNet.create(NEURON_NUMS, Activation.SIGMOID_BIPOLAR, 0.6, 0.01, Precision.DOUBLE);
+        neuralnet.initializeWeights();
+        double[] input = new double[NEURON_NUMS[0]];
+        Arrays.fill(input, -1);
+
+        // the snapshot keeps the weights of the time it was taken
+        CheckpointService service = new CheckpointService(ROUNDS);
+        double[] expected = new double[1];
+        long snapshotNanos = 0;
+        for (int round = 0; round < ROUNDS; round ++) {
+            input[round % input.length] = 1;
+            neuralnet.train(input, 0.5);
+            long start = System.nanoTime();
+            check("submit", service.submit(NeuralNetCheckpoint.snapshot(neuralnet, false), target));
+            snapshotNanos += System.nanoTime() - start;
+            input[round % input.length] = -1;
+        }
+        neuralnet.outputInto(input, expected);
+        check("drained", service.shutdown(10000));
+        check("written", service.getWrittenCount() == ROUNDS && service.getFailedCount() == 0);
+        check("no temp file", !new File(target.getPath() + ".tmp").exists());
+        NeuralNet loaded = NeuralNetCheckpoint.load(target, 0.6, 0.01);
+        check("last snapshot wins", loaded.outputFor(input)[0] == expected[0]);
+
+        // a blocked writer fills the queue, further snapshots are dropped
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        service = new CheckpointService(2);
+        service.submit(out -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }, target);
+        started.await();
+        check("queued 1", service.submit(NeuralNetCheckpoint.snapshot(neuralnet, false), target));
+        check("queued 2", service.submit(NeuralNetCheckpoint.snapshot(neuralnet, false), target));
+        check("dropped", !service.submit(NeuralNetCheckpoint.snapshot(neuralnet, false), target));
+        check("dropped count", service.getDroppedCount() == 1);
+        release.countDown();
+        check("drained", service.shutdown(10000));
+
+        // a failing snapshot leaves the previous file untouched
+        long length = target.length();
+        service = new CheckpointService(1);
+        service.submit(out -> {
+            out.write(new byte[10]);
+            throw new IOException("expected failure");
+        }, target);
+        check("drained", service.shutdown(10000));
+        check("failed count", service.getFailedCount() == 1);
+        check("previous file kept", target.length() == length);
+        check("failed temp file removed", !new File(target.getPath() + ".tmp").exists());
+        NeuralNetCheckpoint.load(target, 0.6, 0.01);
+
+        // so does a snapshot failing with an unchecked exception
+        service = new CheckpointService(1);
+        service.submit(out -> {
+            out.write(new byte[10]);
+            throw new IllegalStateException("expected failure");
+        }, target);
+        check("drained", service.shutdown(10000));
+        check("failed count of an unchecked exception", service.getFailedCount() == 1);
+        check("previous file kept", target.length() == length);
+        check("failed temp file removed", !new File(target.getPath() + ".tmp").exists());
+        NeuralNetCheckpoint.load(target, 0.6, 0.01);
+
+        checkAlternating(neuralnet, new File(dir, "CheckpointServiceTest-sandbox"));
+
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round ++) {
+            NeuralNetCheckpoint.save(neuralnet, target, false);
+        }
+        long saveNanos = System.nanoTime() - start;
+        System.out.printf("Caller thread per checkpoint: snapshot %.1f us, blocking save %.1f us%n",
+                snapshotNanos / 1e3 / ROUNDS, saveNanos / 1e3 / ROUNDS);
+
+        target.delete();
+        new File(target.getPath() + ".tmp").delete();
+        System.out.println("CheckpointServiceTest passed");
+    }
+
+    /**
+     * Checkpoints in a directory where, as in a robot's data directory, files may only be
+     * written through the opener: renames and deletes are refused.
+     */
+    @SuppressWarnings("removal")
+    static void checkAlternating(NeuralNet neuralnet, File sandbox) throws Exception {
+        sandbox.mkdirs();
+        File target = new File(sandbox, "NN.bin");
+        for (File file : sandbox.listFiles()) {
+            file.delete();
+        }
+        ThreadLocal<Boolean> opening = ThreadLocal.withInitial(() -> false);
+        CheckpointService.StreamOpener opener = file -> {
+            opening.set(true);
+            try {
+                return new FileOutputStream(file);
+            } finally {
+                opening.set(false);
+            }
+        };
+        String root = sandbox.getAbsolutePath();
+        SecurityManager robocodeLike = new SecurityManager() {
+            @Override
+            public void checkPermission(Permission perm) {
+            }
+
+            @Override
+            public void checkWrite(String file) {
+                if (new File(file).getAbsolutePath().startsWith(root) && !opening.get()) {
+                    throw new SecurityException("Writing " + file + " outside the opener");
+                }
+            }
+
+            @Override
+            public void checkDelete(String file) {
+                if (new File(file).getAbsolutePath().startsWith(root)) {
+                    throw new SecurityException("Deleting " + file);
+                }
+            }
+        };
+        System.setSecurityManager(robocodeLike);
+        double[] input = new double[NEURON_NUMS[0]];
+        Arrays.fill(input, -1);
+        double[] expected = new double[1];
+        CheckpointService service;
+        try {
+            // renaming a temporary file is refused, and so is deleting it, the failure is counted
+            File renamed = new File(sandbox, "renamed.bin");
+            service = new CheckpointService(1, opener);
+            service.submit(NeuralNetCheckpoint.snapshot(neuralnet, false), renamed);
+            check("drained", service.shutdown(10000));
+            check("rename refused", service.getFailedCount() == 1 && !renamed.exists());
+
+            // alternating checkpoints only open files through the opener
+            service = new CheckpointService(ROUNDS, opener, true);
+            for (int round = 0; round < 5; round ++) {
+                input[round] = 1;
+                neuralnet.train(input, 0.5);
+                input[round] = -1;
+                check("submit", service.submit(NeuralNetCheckpoint.snapshot(neuralnet, false), target));
+            }
+            neuralnet.outputInto(input, expected);
+            check("drained", service.shutdown(10000));
+            check("alternating written", service.getWrittenCount() == 5 && service.getFailedCount() == 0);
+
+            // a torn write goes to the older file and leaves the newest checkpoint complete
+            service = new CheckpointService(1, opener, true);
+            service.submit(out -> {
+                out.write(new byte[100]);
+                throw new IOException("expected failure");
+            }, target);
+            check("drained", service.shutdown(10000));
+            check("torn write failed", service.getFailedCount() == 1);
+        } finally {
+            System.setSecurityManager(null);
+        }
+        check("two files, no temp file", new File(root, "NN.bin.0").exists() && new File(root, "NN.bin.1").exists()
+                && !new File(root, "NN.bin.tmp").exists() && !target.exists());
+        NeuralNet loaded = NeuralNet.create(NEURON_NUMS, Activation.SIGMOID_BIPOLAR, 0.6, 0.01, Precision.DOUBLE);
+        NeuralNetCheckpoint.load(loaded, new ByteArrayInputStream(CheckpointService.readLatest(target)));
+        check("newest complete checkpoint", loaded.outputFor(input)[0] == expected[0]);
+
+        // a newer checkpoint that got corrupted falls back to the previous generation
+        input[7] = 1;
+        neuralnet.train(input, 0.5);
+        input[7] = -1;
+        check("next generation", CheckpointService.writeAlternating(
+                NeuralNetCheckpoint.snapshot(neuralnet, false), target, opener) == 5);
+        try (RandomAccessFile raf = new RandomAccessFile(new File(root, "NN.bin.1"), "rw")) {
+            raf.seek(40);
+            int b = raf.read();
+            raf.seek(40);
+            raf.write(b ^ 1);
+        }
+        NeuralNetCheckpoint.load(loaded, new ByteArrayInputStream(CheckpointService.readLatest(target)));
+        check("fallback to the previous generation", loaded.outputFor(input)[0] == expected[0]);
+
+        for (File file : sandbox.listFiles()) {
+            file.delete();
+        }
+        sandbox.delete();
+    }
+
+    static void check(String name, boolean condition) {
+        if (!condition) {
+            throw new AssertionError(name);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package cpen502.utils;
+
+import java.util.Locale;
+
+/**
+ * Times the phases of the robot's decisions and relates the turns Robocode skips to them.
+ *
+ * A phase is timed by System.nanoTime laps, which cost a few tens of nanoseconds each:
+ *
+ *      long time = System.nanoTime();
+ *      ... evaluate the state ...
+ *      time = profiler.lap(Phase.EVALUATE, time);
+ *      ... select the action ...
+ *      time = profiler.lap(Phase.SELECT, time);
+ *
+ * and decisionDone records the whole decision. The durations go to a LatencyHistogram per
+ * phase for the round and one for the battle, so the memory is fixed however long it runs.
+ *
+ * Robocode skips a turn of a robot that overran its CPU time. skippedTurn counts them and,
+ * when the skipped turn directly follows a decision, blames that decision, so the summary
+ * tells whether the skips come from slow decisions or from elsewhere, like the garbage
+ * collector or the machine.
+ */
+public class DecisionProfiler {
+    public enum Phase {
+        EVALUATE, SELECT, TRAIN, REPLAY, DECISION
+    }
+
+    private final static Phase[] phases = Phase.values();
+
+    final LatencyHistogram[] round = new LatencyHistogram[phases.length];
+    final LatencyHistogram[] battle = new LatencyHistogram[phases.length];
+
+    long lastDecisionTurn = -1;
+    long lastDecisionNanos;
+    int roundSkipped;
+    int roundBlamed;
+    long roundSlowestBlamed;
+    long battleSkipped;
+    long battleBlamed;
+
+    public DecisionProfiler() {
+        for (int i = 0; i < phases.length; i ++) {
+            round[i] = new LatencyHistogram();
+            battle[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Record the time of a phase that started at start.
+     * @return The end of the phase, the start of the next one
+     */
+    public long lap(Phase phase, long start) {
+        long now = System.nanoTime();
+        round[phase.ordinal()].record(now - start);
+        return now;
+    }
+
+    public void record(Phase phase, long nanos) {
+        round[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Record a whole decision, made in a turn.
+     */
+    public void decisionDone(long turn, long nanos) {
+        round[Phase.DECISION.ordinal()].record(nanos);
+        lastDecisionTurn = turn;
+        lastDecisionNanos = nanos;
+    }
+
+    /**
+     * Count a turn Robocode skipped, blaming the last decision if it was made in the turn
+     * before.
+     */
+    public void skippedTurn(long turn) {
+        roundSkipped ++;
+        battleSkipped ++;
+        if (lastDecisionTurn >= 0 && turn - lastDecisionTurn <= 1) {
+            roundBlamed ++;
+            battleBlamed ++;
+            roundSlowestBlamed = Math.max(roundSlowestBlamed, lastDecisionNanos);
+        }
+    }
+
+    /**
+     * @return The columns of the lines of endRound
+     */
+    public static String csvHeader() {
+        StringBuilder header = new StringBuilder("round,decisions,skippedTurns,skippedAfterDecision,slowestBeforeSkipUs");
+        for (Phase phase : phases) {
+            String name = phase.name().toLowerCase();
+            header.append(',').append(name).append("P50Us,").append(name).append("P99Us,")
+                    .append(name).append("MaxUs");
+        }
+        return header.toString();
+    }
+
+    /**
+     * Summarize the round as a line of csvHeader columns, then add it to the battle and
+     * start a new round.
+     */
+    public String endRound(int roundNum) {
+        StringBuilder line = new StringBuilder();
+        line.append(roundNum).append(',').append(round[Phase.DECISION.ordinal()].getCount()).append(',')
+                .append(roundSkipped).append(',').append(roundBlamed).append(',')
+                .append(micros(roundSlowestBlamed));
+        for (int i = 0; i < phases.length; i ++) {
+            line.append(',').append(micros(round[i].getValueAtPercentile(50)))
+                    .append(',').append(micros(round[i].getValueAtPercentile(99)))
+                    .append(',').append(micros(round[i].getMax()));
+            battle[i].add(round[i]);
+            round[i].reset();
+        }
+        roundSkipped = 0;
+        roundBlamed = 0;
+        roundSlowestBlamed = 0;
+        lastDecisionTurn = -1;
+        return line.toString();
+    }
+
+    private static String micros(long nanos) {
+        // a decimal point whatever the locale, the lines are CSV
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e3);
+    }
+
+    /**
+     * @return The histogram of a phase over the finished rounds
+     */
+    public LatencyHistogram getBattleHistogram(Phase phase) {
+        return battle[phase.ordinal()];
+    }
+
+    public long getSkippedTurns() {
+        return battleSkipped;
+    }
+
+    public long getSkippedAfterDecision() {
+        return battleBlamed;
+    }
+
+    /**
+     * @return The latency percentiles of every phase over the finished rounds, one line each
+     */
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        for (Phase phase : phases) {
+            LatencyHistogram histogram = battle[phase.ordinal()];
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            report.append(String.format("%-9s count: %9d   mean: %9.1f us   p50: %9.1f us   p99: %9.1f us   "
+                            + "p99.9: %9.1f us   max: %9.1f us%n", phase.name().toLowerCase(), histogram.getCount(),
+                    histogram.getMean() / 1e3, histogram.getValueAtPercentile(50) / 1e3,
+                    histogram.getValueAtPercentile(99) / 1e3, histogram.getValueAtPercentile(99.9) / 1e3,
+                    histogram.getMax() / 1e3));
+        }
+        report.append("skipped turns: ").append(battleSkipped).append(", right after a decision: ").append(battleBlamed);
+        return report.toString();
+    }
+}
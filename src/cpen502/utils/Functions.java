@@ -1,27 +1,63 @@
 package cpen502.utils;
 
-import java.util.function.Function;
-
 public class Functions {
     /**
      * sigmoid function bounded by (0,1)
      */
-    public static final Function<Double, Double> sigmoidBinary = (x -> 1.0/(1.0 + Math.pow(Math.E, -x)));
+    public static double sigmoidBinary(double x) {
+        return 1.0 / (1.0 + Math.exp(-x));
+    }
 
     /**
      * Derivative of sigmoid function bounded by (0,1)
      * input is f(x)
      */
-    public static final Function<Double, Double> sigmoidDerivativeBinary = (x -> x * (1.0 - x));
+    public static double sigmoidDerivativeBinary(double y) {
+        return y * (1.0 - y);
+    }
 
     /**
      * sigmoid function bounded by (-1,1)
      */
-    public static final Function<Double, Double> sigmoidBipolar = (x -> (2.0/(1.0 + Math.pow(Math.E, -x))) - 1.0);
+    public static double sigmoidBipolar(double x) {
+        return (2.0 / (1.0 + Math.exp(-x))) - 1.0;
+    }
 
     /**
      * derivative of sigmoid function bounded by (-1,1)
      * input is f(x)
      */
-    public static final Function<Double, Double> sigmoidDerivativeBipolar = (x -> 0.5 * (1.0 - x) * (1.0 + x));
+    public static double sigmoidDerivativeBipolar(double y) {
+        return 0.5 * (1.0 - y) * (1.0 + y);
+    }
+
+    /**
+     * hyperbolic tangent bounded by (-1,1)
+     */
+    public static double tanh(double x) {
+        return Math.tanh(x);
+    }
+
+    /**
+     * derivative of hyperbolic tangent
+     * input is f(x)
+     */
+    public static double tanhDerivative(double y) {
+        return 1.0 - y * y;
+    }
+
+    /**
+     * rectified linear unit bounded by [0, inf)
+     */
+    public static double relu(double x) {
+        return x > 0 ? x : 0;
+    }
+
+    /**
+     * derivative of rectified linear unit
+     * input is f(x)
+     */
+    public static double reluDerivative(double y) {
+        return y > 0 ? 1.0 : 0;
+    }
 }
@@ -0,0 +1,111 @@
+package cpen502.utils;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of durations in nanoseconds in a fixed array, after HdrHistogram.
+ *
+ * Values below 2^SUB_BITS get a bucket each. Above, every power of two range [2^k, 2^(k+1))
+ * is cut into 2^SUB_BITS equal buckets, so a bucket is never wider than 1/64 of its values
+ * and a percentile is off by less than 1.6%. Values from 2^MAX_EXPONENT ns, about 69 s, share
+ * the last bucket. Recording is an index computation and an increment, with no allocation.
+ */
+public class LatencyHistogram {
+    final static int SUB_BITS = 6;
+    final static int SUB_COUNT = 1 << SUB_BITS;
+    final static int MAX_EXPONENT = 36;
+
+    final long[] counts = new long[(MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT];
+    long count;
+    long sum;
+    long min = Long.MAX_VALUE;
+    long max;
+
+    static int indexOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) Math.max(value, 0);
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent >= MAX_EXPONENT) {
+            return (MAX_EXPONENT - SUB_BITS + 1) * SUB_COUNT - 1;
+        }
+        int shift = exponent - SUB_BITS;
+        return shift * SUB_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * @return The largest value of a bucket
+     */
+    static long highestOf(int index) {
+        if (index < 2 * SUB_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_COUNT - 1;
+        long sub = index - (long) shift * SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public void record(long nanos) {
+        counts[indexOf(nanos)] ++;
+        count ++;
+        sum += nanos;
+        min = Math.min(min, nanos);
+        max = Math.max(max, nanos);
+    }
+
+    /**
+     * @param percentile In [0, 100]
+     * @return The value that percentile of the recorded values do not exceed, 0 when empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i ++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Add the values of another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i ++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+}